@@ -0,0 +1,187 @@
+package hr.fer.zemris.java.custom.scripting.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Class used to measure the average duration of a operation. The operation is
+ * first run for the warm up time, so the JIT compiler can optimize it, and
+ * then measured in a number of rounds of the same duration. The fastest and
+ * the median round are reported, since slower rounds are usually caused by
+ * garbage collection or other programs.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class Benchmark {
+
+	/**
+	 * Interface used to define a operation that is measured.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	@FunctionalInterface
+	public interface Operation {
+
+		/**
+		 * Runs the operation once.
+		 *
+		 * @throws Exception
+		 *             if the operation fails
+		 */
+		void run() throws Exception;
+	}
+
+	/**
+	 * Class that represents the result of a measurement.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	public static class Result {
+
+		/** Name of the measured operation */
+		private final String name;
+
+		/** Average duration of the operation in the fastest round */
+		private final double bestNanos;
+
+		/** Average duration of the operation in the median round */
+		private final double medianNanos;
+
+		/**
+		 * Constructs a new {@link Result} with the specified values.
+		 *
+		 * @param name
+		 *            name of the measured operation
+		 * @param bestNanos
+		 *            average duration of the operation in the fastest round
+		 * @param medianNanos
+		 *            average duration of the operation in the median round
+		 */
+		Result(final String name, final double bestNanos, final double medianNanos) {
+			super();
+			this.name = name;
+			this.bestNanos = bestNanos;
+			this.medianNanos = medianNanos;
+		}
+
+		/**
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the bestNanos
+		 */
+		public double getBestNanos() {
+			return bestNanos;
+		}
+
+		/**
+		 * @return the medianNanos
+		 */
+		public double getMedianNanos() {
+			return medianNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-40s %12.1f ns/op (best) %12.1f ns/op (median)", name, bestNanos, medianNanos);
+		}
+	}
+
+	/** Warm up time in milliseconds */
+	private final long warmupMillis;
+
+	/** Duration of a single round in milliseconds */
+	private final long roundMillis;
+
+	/** Number of measured rounds */
+	private final int rounds;
+
+	/**
+	 * Constructs a new {@link Benchmark} with the specified times.
+	 *
+	 * @param warmupMillis
+	 *            warm up time in milliseconds
+	 * @param roundMillis
+	 *            duration of a single round in milliseconds
+	 * @param rounds
+	 *            number of measured rounds
+	 * @throws IllegalArgumentException
+	 *             if any of the values isn't positive
+	 */
+	public Benchmark(final long warmupMillis, final long roundMillis, final int rounds) {
+		super();
+
+		if (warmupMillis <= 0 || roundMillis <= 0 || rounds <= 0) {
+			throw new IllegalArgumentException("Benchmark times have to be positive");
+		}
+
+		this.warmupMillis = warmupMillis;
+		this.roundMillis = roundMillis;
+		this.rounds = rounds;
+	}
+
+	/**
+	 * Measures the average duration of the specified operation.
+	 *
+	 * @param name
+	 *            name of the operation
+	 * @param operation
+	 *            operation for measuring
+	 * @return measurement result
+	 * @throws Exception
+	 *             if the operation fails
+	 */
+	public Result measure(final String name, final Operation operation) throws Exception {
+		runFor(operation, warmupMillis);
+
+		final double[] averages = new double[rounds];
+		for (int i = 0; i < rounds; i++) {
+			averages[i] = runFor(operation, roundMillis);
+		}
+
+		Arrays.sort(averages);
+		return new Result(name, averages[0], averages[rounds / 2]);
+	}
+
+	/**
+	 * Runs the specified operation repeatedly for at least the specified time
+	 * and returns its average duration. The clock is read after every batch of
+	 * operations, so reading it doesn't affect the result of short operations.
+	 *
+	 * @param operation
+	 *            operation for running
+	 * @param millis
+	 *            time in milliseconds
+	 * @return average duration of the operation in nanoseconds
+	 * @throws Exception
+	 *             if the operation fails
+	 */
+	private static double runFor(final Operation operation, final long millis) throws Exception {
+		final long duration = millis * 1_000_000;
+		final long start = System.nanoTime();
+		long operations = 0;
+		long elapsed;
+		int batch = 1;
+
+		do {
+			for (int i = 0; i < batch; i++) {
+				operation.run();
+			}
+
+			operations += batch;
+			elapsed = System.nanoTime() - start;
+
+			if (elapsed < duration / 10 && batch < (1 << 20)) {
+				batch <<= 1;
+			}
+		} while (elapsed < duration);
+
+		return (double) elapsed / operations;
+	}
+}
@@ -0,0 +1,98 @@
+package hr.fer.zemris.java.custom.scripting.benchmark;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hr.fer.zemris.java.custom.scripting.exec.IExecutableScript;
+import hr.fer.zemris.java.custom.scripting.exec.InterpretedScript;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptCompiler;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+
+/**
+ * Program used to compare the execution time of scripts interpreted by the
+ * {@link SmartScriptEngine} with the execution time of the same scripts
+ * compiled by the {@link SmartScriptCompiler}. The scripts from the
+ * {@code webroot/scripts} folder and a generated script with nested loops are
+ * measured, their output is written to a stream that discards it. Scripts are
+ * read the same way the server reads them, with lines joined without line
+ * terminators.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class EngineBenchmark {
+
+	/** {@link OutputStream} that discards everything written to it */
+	static final OutputStream DISCARD = new OutputStream() {
+
+		@Override
+		public void write(final int b) {
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+		}
+	};
+
+	/**
+	 * Program entry point
+	 *
+	 * @param args
+	 *            not used
+	 * @throws Exception
+	 *             if a script fails
+	 */
+	public static void main(final String[] args) throws Exception {
+		final Map<String, String> scripts = new LinkedHashMap<>();
+		for (final String name : new String[] { "osnovni", "zbrajanje", "brojPoziva", "fibonacci" }) {
+			scripts.put(name, String.join("",
+					Files.readAllLines(Paths.get("webroot/scripts/" + name + ".smscr"), StandardCharsets.UTF_8)));
+		}
+		scripts.put("nestedLoops", "{$FOR i 1 20 1$}{$FOR j 1 20 1$}{$= i j * 2 / i + \" \" $}{$END$}\r\n{$END$}");
+
+		final Benchmark benchmark = new Benchmark(2000, 500, 5);
+
+		for (final Map.Entry<String, String> script : scripts.entrySet()) {
+			final DocumentNode documentNode = new SmartScriptParser(script.getValue()).getDocumentNode();
+			final Benchmark.Result interpreted = benchmark.measure(script.getKey() + " interpreted",
+					execution(new InterpretedScript(documentNode)));
+			final Benchmark.Result compiled = benchmark.measure(script.getKey() + " compiled",
+					execution(SmartScriptCompiler.compile(documentNode)));
+
+			System.out.println(interpreted);
+			System.out.println(compiled);
+			System.out.printf("%-40s %12.2fx%n", script.getKey() + " speedup",
+					interpreted.getBestNanos() / compiled.getBestNanos());
+		}
+	}
+
+	/**
+	 * Returns the operation that executes the specified script with a new
+	 * {@link RequestContext}, the same way the server executes it for a
+	 * request.
+	 *
+	 * @param script
+	 *            script for execution
+	 * @return operation that executes the script
+	 */
+	static Benchmark.Operation execution(final IExecutableScript script) {
+		return () -> {
+			final Map<String, String> parameters = new HashMap<>();
+			parameters.put("a", "4");
+			parameters.put("b", "2");
+			final List<RCCookie> cookies = new ArrayList<>();
+			script.execute(new RequestContext(DISCARD, parameters, new HashMap<>(), cookies));
+		};
+	}
+}
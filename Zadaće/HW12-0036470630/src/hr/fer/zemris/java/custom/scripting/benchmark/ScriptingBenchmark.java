@@ -0,0 +1,184 @@
+package hr.fer.zemris.java.custom.scripting.benchmark;
+
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import hr.fer.zemris.java.custom.scripting.exec.DocumentOptimizer;
+import hr.fer.zemris.java.custom.scripting.exec.InterpretedScript;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.custom.scripting.lexer.Lexer;
+import hr.fer.zemris.java.custom.scripting.lexer.LexerState;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Program used to measure every stage of the script processing, so a
+ * regression in one of them becomes visible. Scripts of different kinds and
+ * sizes are generated: text with few tags, many echo tags with operators and
+ * functions, and deeply nested for loops. For every script the program
+ * measures:
+ * <ul>
+ * <li>reading all tokens with the {@link Lexer}, also reported per token</li>
+ * <li>parsing with the {@link SmartScriptParser} from a {@link String} and
+ * from a {@link java.io.Reader}</li>
+ * <li>executing the parsed script with the {@link SmartScriptEngine}, as it
+ * is, after the {@link DocumentOptimizer} and while it is parsed</li>
+ * </ul>
+ * Output is written to a {@link RequestContext} that discards it, with the
+ * same request parameters the {@link EngineBenchmark} uses. The only optional
+ * argument is a text that the names of the measured scripts have to contain,
+ * for example {@code loops}.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class ScriptingBenchmark {
+
+	/** Sentence used for the text of the generated scripts */
+	private static final String SENTENCE = "Lorem ipsum dolor sit amet, consectetur adipiscing elit. ";
+
+	/** Value that keeps the results of the lexer from being optimized away */
+	private static volatile Object sink;
+
+	/**
+	 * Program entry point
+	 *
+	 * @param args
+	 *            optional text that the names of the measured scripts contain
+	 * @throws Exception
+	 *             if a script fails
+	 */
+	public static void main(final String[] args) throws Exception {
+		final String filter = args.length > 0 ? args[0] : "";
+
+		final Map<String, String> scripts = new LinkedHashMap<>();
+		scripts.put("text-small", textScript(10));
+		scripts.put("text-large", textScript(2000));
+		scripts.put("echo-small", echoScript(10));
+		scripts.put("echo-large", echoScript(2000));
+		scripts.put("loops-deep", loopScript(5, 4));
+		scripts.put("loops-wide", loopScript(2, 40));
+
+		final Benchmark benchmark = new Benchmark(1000, 300, 5);
+
+		for (final Map.Entry<String, String> script : scripts.entrySet()) {
+			final String name = script.getKey();
+			final String text = script.getValue();
+			if (!name.contains(filter)) {
+				continue;
+			}
+
+			final int tokens = countTokens(text);
+			System.out.printf("%s: %d characters, %d tokens%n", name, text.length(), tokens);
+
+			final Benchmark.Result lexer = benchmark.measure(name + " lexer", () -> sink = countTokens(text));
+			System.out.println(lexer);
+			System.out.printf("%-40s %12.1f ns/token%n", name + " lexer per token", lexer.getBestNanos() / tokens);
+
+			System.out.println(benchmark.measure(name + " parser string",
+					() -> sink = new SmartScriptParser(text).getDocumentNode()));
+			System.out.println(benchmark.measure(name + " parser reader",
+					() -> sink = new SmartScriptParser(new StringReader(text)).getDocumentNode()));
+
+			final DocumentNode documentNode = new SmartScriptParser(text).getDocumentNode();
+			System.out.println(benchmark.measure(name + " engine",
+					EngineBenchmark.execution(new InterpretedScript(documentNode))));
+			System.out.println(benchmark.measure(name + " engine optimized",
+					EngineBenchmark.execution(new InterpretedScript(DocumentOptimizer.optimize(documentNode)))));
+			System.out.println(benchmark.measure(name + " engine streaming", EngineBenchmark
+					.execution(requestContext -> SmartScriptEngine.execute(new StringReader(text), requestContext))));
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Reads all tokens of the specified script with a new {@link Lexer}.
+	 *
+	 * @param text
+	 *            script
+	 * @return number of tokens
+	 */
+	private static int countTokens(final String text) {
+		final Lexer lexer = new Lexer(text);
+		int tokens = 0;
+
+		while (lexer.getState() != LexerState.EOF) {
+			lexer.nextToken();
+			tokens++;
+		}
+
+		return tokens;
+	}
+
+	/**
+	 * Generates a script made mostly of text, with an echo tag after every
+	 * paragraph.
+	 *
+	 * @param paragraphs
+	 *            number of paragraphs
+	 * @return generated script
+	 */
+	private static String textScript(final int paragraphs) {
+		final StringBuilder script = new StringBuilder();
+
+		for (int i = 0; i < paragraphs; i++) {
+			script.append("<p>");
+			for (int j = 0; j < 8; j++) {
+				script.append(SENTENCE);
+			}
+			script.append("{$= \"").append(i).append("\" $}</p>\r\n");
+		}
+
+		return script.toString();
+	}
+
+	/**
+	 * Generates a script made mostly of echo tags with operators, functions
+	 * and request parameters.
+	 *
+	 * @param lines
+	 *            number of lines with echo tags
+	 * @return generated script
+	 */
+	private static String echoScript(final int lines) {
+		final StringBuilder script = new StringBuilder();
+
+		for (int i = 0; i < lines; i++) {
+			script.append("<li>{$= \"a\" 1 @paramGet ").append(i).append(" * 2 / $} ");
+			script.append("{$= ").append(i).append(" 3.5 + \"0.00\" @decfmt $} ");
+			script.append("{$= \"x\" ").append(i).append(" @swap @dup $}</li>\r\n");
+		}
+
+		return script.toString();
+	}
+
+	/**
+	 * Generates a script with nested for loops whose innermost loop writes
+	 * text and the result of an expression with all loop variables.
+	 *
+	 * @param depth
+	 *            number of nested loops
+	 * @param iterations
+	 *            number of iterations of every loop
+	 * @return generated script
+	 */
+	private static String loopScript(final int depth, final int iterations) {
+		final StringBuilder script = new StringBuilder("<table>\r\n");
+		final StringBuilder expression = new StringBuilder();
+
+		for (int i = 0; i < depth; i++) {
+			script.append("{$ FOR v").append(i).append(" 1 ").append(iterations).append(" 1 $}");
+			expression.append(" v").append(i).append(i == 0 ? "" : " +");
+		}
+
+		script.append("<td>{$=").append(expression).append(" \"b\" 2 @paramGet * $}</td>\r\n");
+
+		for (int i = 0; i < depth; i++) {
+			script.append("{$END$}");
+		}
+
+		return script.append("</table>").toString();
+	}
+}
@@ -0,0 +1,297 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import hr.fer.zemris.java.webserver.util.Utility;
+
+/**
+ * {@link IObjectMultistack} that keeps the stack under every key in growable
+ * arrays instead of a linked list, so pushing and popping doesn't allocate
+ * once the arrays are large enough. The arrays can be sized in advance for the
+ * expected number of keys and depth of the stacks.
+ * <p>
+ * Numbers pushed as primitives are kept in a {@code double} array and are only
+ * wrapped into a {@link ValueWrapper} if they are read with {@link #peek} or
+ * {@link #pop}, {@link #peekDouble} and {@link #popDouble} read them without
+ * wrapping. A number read with {@link #peek} stays wrapped on the stack, so
+ * changes made to the returned {@link ValueWrapper} change the value on the
+ * stack like in the {@link ObjectMultistack}.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class ArrayObjectMultistack implements IObjectMultistack {
+
+	/** Kind of a stack entry that is a {@link ValueWrapper} */
+	private static final byte WRAPPER = 0;
+
+	/** Kind of a stack entry that is a primitive {@code int} */
+	private static final byte INTEGER = 1;
+
+	/** Kind of a stack entry that is a primitive {@code double} */
+	private static final byte DOUBLE = 2;
+
+	/** Default expected number of keys */
+	private static final int DEFAULT_KEYS = 16;
+
+	/** Default initial capacity of the stack under a key */
+	private static final int DEFAULT_DEPTH = 4;
+
+	/**
+	 * Stack under one key, kept in parallel arrays.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	private static class ArrayStack {
+
+		/** Kinds of the entries */
+		private byte[] kinds;
+
+		/** Values of the primitive entries */
+		private double[] numbers;
+
+		/** Values of the {@link ValueWrapper} entries */
+		private ValueWrapper[] wrappers;
+
+		/** Number of entries */
+		private int size;
+
+		/**
+		 * Constructs a new empty {@link ArrayStack}.
+		 *
+		 * @param capacity
+		 *            initial capacity
+		 */
+		public ArrayStack(final int capacity) {
+			super();
+			kinds = new byte[capacity];
+			numbers = new double[capacity];
+			wrappers = new ValueWrapper[capacity];
+		}
+
+		/**
+		 * Adds a new entry at the top of the stack, doubling the arrays if
+		 * they are full.
+		 *
+		 * @param kind
+		 *            kind of the entry
+		 * @param number
+		 *            value of a primitive entry
+		 * @param wrapper
+		 *            value of a {@link ValueWrapper} entry
+		 */
+		private void push(final byte kind, final double number, final ValueWrapper wrapper) {
+			if (size == kinds.length) {
+				final int capacity = Math.max(1, size * 2);
+				kinds = Arrays.copyOf(kinds, capacity);
+				numbers = Arrays.copyOf(numbers, capacity);
+				wrappers = Arrays.copyOf(wrappers, capacity);
+			}
+
+			kinds[size] = kind;
+			numbers[size] = number;
+			wrappers[size] = wrapper;
+			size++;
+		}
+
+		/**
+		 * Returns the entry at the specified position as a
+		 * {@link ValueWrapper}.
+		 *
+		 * @param position
+		 *            position of the entry
+		 * @return {@link ValueWrapper} of the entry
+		 */
+		private ValueWrapper wrapperAt(final int position) {
+			switch (kinds[position]) {
+			case INTEGER:
+				return new ValueWrapper(Integer.valueOf((int) numbers[position]));
+			case DOUBLE:
+				return new ValueWrapper(Double.valueOf(numbers[position]));
+			default:
+				return wrappers[position];
+			}
+		}
+
+		/**
+		 * Returns the entry at the specified position as a {@code double}.
+		 *
+		 * @param position
+		 *            position of the entry
+		 * @return value of the entry
+		 */
+		private double doubleAt(final int position) {
+			return kinds[position] == WRAPPER ? ValueWrapper.determineValue(wrappers[position].getValue())
+					: numbers[position];
+		}
+	}
+
+	/**
+	 * Stacks under their keys, a stack stays in the map when it is emptied so
+	 * its arrays are reused
+	 */
+	private final Map<String, ArrayStack> map;
+
+	/**
+	 * Initial capacity of a new stack
+	 */
+	private final int depth;
+
+	/**
+	 * Number of contained elements
+	 */
+	private int size;
+
+	/**
+	 * Constructs a new {@link ArrayObjectMultistack} with the default sizes.
+	 */
+	public ArrayObjectMultistack() {
+		this(DEFAULT_KEYS, DEFAULT_DEPTH);
+	}
+
+	/**
+	 * Constructs a new {@link ArrayObjectMultistack} sized for the expected
+	 * number of keys and stack depth. An {@link IllegalArgumentException} is
+	 * thrown if a size is negative.
+	 *
+	 * @param keys
+	 *            expected number of keys
+	 * @param depth
+	 *            initial capacity of the stack under a key
+	 * @throws IllegalArgumentException
+	 *             if a size is negative
+	 */
+	public ArrayObjectMultistack(final int keys, final int depth) {
+		super();
+
+		if (keys < 0 || depth < 0) {
+			throw new IllegalArgumentException("Sizes of a multistack can't be negative!");
+		}
+
+		this.map = new HashMap<>(Math.max(16, (int) (keys / 0.75f) + 1));
+		this.depth = depth;
+		size = 0;
+	}
+
+	/**
+	 * Returns the non empty stack under the provided key. An
+	 * {@link IllegalArgumentException} is thrown if the provided key is null.
+	 * An {@link EmptyStackException} is thrown if there are no values under the
+	 * provided key.
+	 *
+	 * @param name
+	 *            key
+	 * @return stack under the provided key
+	 * @throws IllegalArgumentException
+	 *             if the provided key is null
+	 * @throws EmptyStackException
+	 *             if there are no values under the provided key
+	 */
+	private ArrayStack getStack(final String name) {
+		Utility.checkIfNull(name, "Null reference isn't a valid key for a map entry!");
+
+		final ArrayStack stack = map.get(name);
+
+		if (stack == null || stack.size == 0) {
+			throw new EmptyStackException("Stack entry under this key doesn't exist!");
+		}
+
+		return stack;
+	}
+
+	/**
+	 * Returns the stack under the provided key, creating it if it doesn't
+	 * exist. An {@link IllegalArgumentException} is thrown if the provided key
+	 * is null.
+	 *
+	 * @param name
+	 *            key
+	 * @return stack under the provided key
+	 * @throws IllegalArgumentException
+	 *             if the provided key is null
+	 */
+	private ArrayStack getOrCreateStack(final String name) {
+		Utility.checkIfNull(name, "Null reference isn't a valid key for a map entry!");
+
+		ArrayStack stack = map.get(name);
+
+		if (stack == null) {
+			stack = new ArrayStack(depth);
+			map.put(name, stack);
+		}
+
+		return stack;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public ValueWrapper peek(final String name) {
+		final ArrayStack stack = getStack(name);
+		final int top = stack.size - 1;
+
+		if (stack.kinds[top] != WRAPPER) {
+			stack.wrappers[top] = stack.wrapperAt(top);
+			stack.kinds[top] = WRAPPER;
+		}
+
+		return stack.wrappers[top];
+	}
+
+	@Override
+	public ValueWrapper pop(final String name) {
+		final ArrayStack stack = getStack(name);
+		final int top = --stack.size;
+		final ValueWrapper valueWrapper = stack.wrapperAt(top);
+
+		stack.wrappers[top] = null;
+		size--;
+
+		return valueWrapper;
+	}
+
+	@Override
+	public void push(final String name, final ValueWrapper valueWrapper) {
+		Utility.checkIfNull(valueWrapper, "ValueWrapper can't be null");
+
+		getOrCreateStack(name).push(WRAPPER, 0, valueWrapper);
+		size++;
+	}
+
+	@Override
+	public void push(final String name, final int value) {
+		getOrCreateStack(name).push(INTEGER, value, null);
+		size++;
+	}
+
+	@Override
+	public void push(final String name, final double value) {
+		getOrCreateStack(name).push(DOUBLE, value, null);
+		size++;
+	}
+
+	@Override
+	public double peekDouble(final String name) {
+		final ArrayStack stack = getStack(name);
+		return stack.doubleAt(stack.size - 1);
+	}
+
+	@Override
+	public double popDouble(final String name) {
+		final ArrayStack stack = getStack(name);
+		final int top = --stack.size;
+		final ValueWrapper wrapper = stack.wrappers[top];
+
+		stack.wrappers[top] = null;
+		size--;
+
+		// the value is removed even if it isn't a number, like by pop
+		return stack.kinds[top] == WRAPPER ? ValueWrapper.determineValue(wrapper.getValue()) : stack.numbers[top];
+	}
+}
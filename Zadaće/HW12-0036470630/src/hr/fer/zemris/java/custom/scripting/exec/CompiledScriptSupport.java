@@ -0,0 +1,53 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+/**
+ * Class that provides helper methods called by the scripts generated by the
+ * {@link SmartScriptCompiler}. The methods behave like the matching parts of
+ * the {@link SmartScriptEngine}, so compiled and interpreted scripts produce
+ * the same results.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public final class CompiledScriptSupport {
+
+	/**
+	 * Parses a number from a {@link String} the same way {@link ValueWrapper}
+	 * does, first as a integer then if failed as a double. If both parse
+	 * attempts fail a {@link NumberFormatException} is thrown.
+	 *
+	 * @param text
+	 *            String for parsing
+	 * @return parsed number
+	 * @throws NumberFormatException
+	 *             If both parse attempts fail
+	 */
+	public static double toNumber(final String text) {
+		try {
+			return Integer.parseInt(text);
+		} catch (final NumberFormatException e) {
+			return Double.parseDouble(text);
+		}
+	}
+
+	/**
+	 * Throws the {@link EmptyStackException} the {@link SmartScriptEngine}
+	 * throws when a variable that isn't defined by an enclosing for loop is
+	 * used.
+	 *
+	 * @param name
+	 *            variable name
+	 * @return never returns normally
+	 * @throws EmptyStackException
+	 *             always
+	 */
+	public static double undefinedVariable(final String name) {
+		throw new EmptyStackException("Stack entry under this key doesn't exist!");
+	}
+
+	/**
+	 * Constructor is private because this class only contains static methods.
+	 */
+	private CompiledScriptSupport() {
+	}
+}
@@ -0,0 +1,221 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementFunction;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Class that optimizes parsed scripts before they are executed many times.
+ * Parts of a script whose output doesn't depend on the request are executed
+ * once and replaced with their output:
+ * <ul>
+ * <li>echo tags that use only constants, operators and the functions that
+ * don't use the {@link RequestContext}, for example
+ * {@code {$= 2 3 * "0.00" @decfmt $}}</li>
+ * <li>for loops with constant bounds and a small number of iterations whose
+ * body is constant as well, which unrolls them into text</li>
+ * </ul>
+ * Consecutive text nodes are then merged into one. A part is folded by
+ * executing it with the {@link SmartScriptEngine}, so its output is exactly
+ * the output it would have on every request, and a part whose execution fails
+ * is left as it is, so it fails on every request again.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public final class DocumentOptimizer {
+
+	/** Functions that don't use the {@link RequestContext} */
+	private static final Set<String> PURE_FUNCTIONS = new HashSet<>(Arrays.asList("sin", "decfmt", "dup", "swap"));
+
+	/** Maximum number of nodes executed while folding a node */
+	private static final int MAX_FOLDED_STEPS = 1024;
+
+	/** Maximum length of the output of a folded node */
+	private static final int MAX_FOLDED_LENGTH = 16 * 1024;
+
+	/**
+	 * Private constructor, this class only has static methods.
+	 */
+	private DocumentOptimizer() {
+	}
+
+	/**
+	 * Returns a optimized copy of the specified parsed script. The parsed
+	 * script isn't changed and shares the nodes that aren't optimized with the
+	 * copy.
+	 *
+	 * @param documentNode
+	 *            parsed script
+	 * @return optimized script
+	 */
+	public static DocumentNode optimize(final DocumentNode documentNode) {
+		final DocumentNode optimized = new DocumentNode();
+		optimizeChildren(documentNode, optimized);
+		return optimized;
+	}
+
+	/**
+	 * Adds the optimized children of the {@code source} node to the
+	 * {@code target} node and merges consecutive text nodes.
+	 *
+	 * @param source
+	 *            node with the children for optimization
+	 * @param target
+	 *            node that gets the optimized children
+	 */
+	private static void optimizeChildren(final Node source, final Node target) {
+		StringBuilder text = null;
+
+		for (int i = 0, size = source.numberOfChildren(); i < size; i++) {
+			final Node child = optimize(source.getChild(i));
+
+			if (child instanceof TextNode) {
+				if (text == null) {
+					text = new StringBuilder();
+				}
+				text.append(((TextNode) child).getText());
+			} else {
+				if (text != null) {
+					target.addChildNode(new TextNode(text.toString()));
+					text = null;
+				}
+				target.addChildNode(child);
+			}
+		}
+
+		if (text != null) {
+			target.addChildNode(new TextNode(text.toString()));
+		}
+	}
+
+	/**
+	 * Returns the optimized node, a {@link TextNode} with the output of the
+	 * node if it is constant.
+	 *
+	 * @param node
+	 *            node for optimization
+	 * @return optimized node
+	 */
+	private static Node optimize(final Node node) {
+		if (node instanceof TextNode) {
+			return node;
+		}
+
+		final int steps = steps(node, new LinkedList<>());
+		if (steps >= 0 && steps <= MAX_FOLDED_STEPS) {
+			try {
+				final String output = SmartScriptEngine.evaluate(node);
+
+				if (output.length() <= MAX_FOLDED_LENGTH) {
+					return new TextNode(output);
+				}
+			} catch (final RuntimeException ignorable) {
+			}
+		}
+
+		if (!(node instanceof ForLoopNode)) {
+			return node;
+		}
+
+		final ForLoopNode loop = (ForLoopNode) node;
+		final ForLoopNode optimized = new ForLoopNode(loop.getVariable(), loop.getStartExpression(),
+				loop.getEndExpression(), loop.getStepExpression());
+		optimizeChildren(loop, optimized);
+		return optimized;
+	}
+
+	/**
+	 * Returns the number of nodes executed when the specified node is
+	 * executed, if its output doesn't depend on the request. The node can use
+	 * only the variables of the for loops inside it.
+	 *
+	 * @param node
+	 *            node to check
+	 * @param variables
+	 *            names of the variables of the enclosing for loops inside the
+	 *            checked node
+	 * @return number of executed nodes, more than {@link #MAX_FOLDED_STEPS}
+	 *         if there are too many, or -1 if the node isn't constant
+	 */
+	private static int steps(final Node node, final LinkedList<String> variables) {
+		if (node instanceof TextNode) {
+			return 1;
+		} else if (node instanceof EchoNode) {
+			for (final Element element : ((EchoNode) node).getElements()) {
+				if (element instanceof ElementVariable && !variables.contains(element.asText())
+						|| element instanceof ElementFunction && !PURE_FUNCTIONS.contains(element.asText())) {
+					return -1;
+				}
+			}
+			return 1;
+		} else if (!(node instanceof ForLoopNode)) {
+			return -1;
+		}
+
+		final ForLoopNode loop = (ForLoopNode) node;
+		final int iterations = iterations(loop);
+		if (iterations < 0) {
+			return -1;
+		}
+
+		variables.push(loop.getVariable().asText());
+		int steps = 1;
+
+		for (int i = 0, size = loop.numberOfChildren(); i < size && steps <= MAX_FOLDED_STEPS; i++) {
+			final int childSteps = steps(loop.getChild(i), variables);
+			if (childSteps < 0) {
+				steps = -1;
+				break;
+			}
+
+			steps += (int) Math.min(MAX_FOLDED_STEPS + 1L, (long) iterations * childSteps);
+		}
+
+		variables.pop();
+		return steps;
+	}
+
+	/**
+	 * Returns the number of iterations of the specified for loop, counted the
+	 * same way the {@link SmartScriptEngine} iterates.
+	 *
+	 * @param loop
+	 *            for loop
+	 * @return number of iterations or -1 if the bounds aren't numbers or there
+	 *         are more than {@link #MAX_FOLDED_STEPS} iterations
+	 */
+	private static int iterations(final ForLoopNode loop) {
+		final double start;
+		final double end;
+		final double step;
+
+		try {
+			start = Double.parseDouble(loop.getStartExpression().asText());
+			end = Double.parseDouble(loop.getEndExpression().asText());
+			step = loop.getStepExpression() == null ? 1 : Double.parseDouble(loop.getStepExpression().asText());
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+
+		int iterations = 0;
+		for (double value = start; value <= end; value += step) {
+			if (++iterations > MAX_FOLDED_STEPS) {
+				return -1;
+			}
+		}
+
+		return iterations;
+	}
+}
@@ -21,6 +21,27 @@ public final class Functions {
 	 */
 	private static Map<String, IFunction> functions;
 
+	/**
+	 * {@link Map} with the number of values every function takes from the
+	 * stack and the number of values it leaves on the stack
+	 */
+	private static final Map<String, int[]> ARITIES = new HashMap<>();
+
+	static {
+		ARITIES.put("sin", new int[] { 1, 1 });
+		ARITIES.put("decfmt", new int[] { 2, 1 });
+		ARITIES.put("dup", new int[] { 1, 2 });
+		ARITIES.put("swap", new int[] { 2, 2 });
+		ARITIES.put("setMimeType", new int[] { 1, 0 });
+		ARITIES.put("paramGet", new int[] { 2, 1 });
+		ARITIES.put("pparamGet", new int[] { 2, 1 });
+		ARITIES.put("pparamSet", new int[] { 2, 0 });
+		ARITIES.put("pparamDel", new int[] { 1, 0 });
+		ARITIES.put("tparamGet", new int[] { 2, 1 });
+		ARITIES.put("tparamSet", new int[] { 2, 0 });
+		ARITIES.put("tparamDel", new int[] { 1, 0 });
+	}
+
 	/**
 	 * Returns the {@link IFunction} for the specified {@code function}
 	 * argument. If the {@code functions} map isn't initialized, initializes it.
@@ -37,6 +58,19 @@ public final class Functions {
 		return functions.get(function);
 	}
 
+	/**
+	 * Returns the number of values the specified function takes from the
+	 * stack and the number of values it leaves on the stack, or {@code null}
+	 * if the function isn't supported.
+	 *
+	 * @param function
+	 *            name of the function
+	 * @return array with the number of taken and left values
+	 */
+	static int[] getArity(final String function) {
+		return ARITIES.get(function);
+	}
+
 	/**
 	 * Initializes {@code functions} map with all of the supported binary
 	 * operations.
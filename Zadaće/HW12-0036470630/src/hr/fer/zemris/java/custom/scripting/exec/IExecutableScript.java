@@ -0,0 +1,29 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.IOException;
+
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Interface used to define a script that is ready for execution, whether it is
+ * interpreted by the {@link SmartScriptEngine} or compiled by the
+ * {@link SmartScriptCompiler}. The same instance can be executed multiple
+ * times and by multiple threads at once.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public interface IExecutableScript {
+
+	/**
+	 * Executes the script and writes its output to the specified
+	 * {@link RequestContext}.
+	 *
+	 * @param requestContext
+	 *            {@link RequestContext} used for header and content creation
+	 *            and writing to the output stream
+	 * @throws IOException
+	 *             if an error occurs during writing to the output stream
+	 */
+	void execute(RequestContext requestContext) throws IOException;
+}
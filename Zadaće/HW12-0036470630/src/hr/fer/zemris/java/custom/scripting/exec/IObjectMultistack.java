@@ -0,0 +1,129 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+/**
+ * Interface used to define a map that keeps a stack of {@link ValueWrapper}s
+ * under every key, used for the variables of the nested for loops. Numbers can
+ * also be pushed and popped as primitives, implementations that keep them
+ * without a {@link ValueWrapper} override those methods, the default ones only
+ * wrap and unwrap the values.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public interface IObjectMultistack {
+
+	/**
+	 * Checks if there are no values under any key.
+	 *
+	 * @return true if empty, else false
+	 */
+	public boolean isEmpty();
+
+	/**
+	 * Returns the {@link ValueWrapper} at the top of the stack under the
+	 * provided key. Changes made to the returned {@link ValueWrapper} change
+	 * the value on the stack.
+	 *
+	 * @param name
+	 *            key
+	 * @return {@link ValueWrapper} at the top of the stack under the provided
+	 *         key
+	 * @throws IllegalArgumentException
+	 *             if the provided key is null
+	 * @throws EmptyStackException
+	 *             if the stack under the provided key is empty
+	 */
+	public ValueWrapper peek(String name);
+
+	/**
+	 * Returns the {@link ValueWrapper} at the top of the stack under the
+	 * provided key and removes it from the stack.
+	 *
+	 * @param name
+	 *            key
+	 * @return {@link ValueWrapper} at the top of the stack under the provided
+	 *         key
+	 * @throws IllegalArgumentException
+	 *             if the provided key is null
+	 * @throws EmptyStackException
+	 *             if the stack under the provided key is empty
+	 */
+	public ValueWrapper pop(String name);
+
+	/**
+	 * Places the provided {@link ValueWrapper} at the top of the stack under
+	 * the provided key.
+	 *
+	 * @param name
+	 *            key
+	 * @param valueWrapper
+	 *            {@link ValueWrapper} reference
+	 * @throws IllegalArgumentException
+	 *             if the provided key or {@code valueWrapper} is null
+	 */
+	public void push(String name, ValueWrapper valueWrapper);
+
+	/**
+	 * Places the provided {@link Integer} value at the top of the stack under
+	 * the provided key.
+	 *
+	 * @param name
+	 *            key
+	 * @param value
+	 *            value
+	 * @throws IllegalArgumentException
+	 *             if the provided key is null
+	 */
+	public default void push(final String name, final int value) {
+		push(name, new ValueWrapper(Integer.valueOf(value)));
+	}
+
+	/**
+	 * Places the provided {@link Double} value at the top of the stack under
+	 * the provided key.
+	 *
+	 * @param name
+	 *            key
+	 * @param value
+	 *            value
+	 * @throws IllegalArgumentException
+	 *             if the provided key is null
+	 */
+	public default void push(final String name, final double value) {
+		push(name, new ValueWrapper(Double.valueOf(value)));
+	}
+
+	/**
+	 * Returns the value at the top of the stack under the provided key as a
+	 * {@code double}, the same way a {@link ValueWrapper} interprets it in
+	 * arithmetic operations.
+	 *
+	 * @param name
+	 *            key
+	 * @return value at the top of the stack
+	 * @throws IllegalArgumentException
+	 *             if the provided key is null or the value isn't a number
+	 * @throws EmptyStackException
+	 *             if the stack under the provided key is empty
+	 */
+	public default double peekDouble(final String name) {
+		return ValueWrapper.determineValue(peek(name).getValue());
+	}
+
+	/**
+	 * Returns the value at the top of the stack under the provided key as a
+	 * {@code double}, the same way a {@link ValueWrapper} interprets it in
+	 * arithmetic operations, and removes it from the stack.
+	 *
+	 * @param name
+	 *            key
+	 * @return value at the top of the stack
+	 * @throws IllegalArgumentException
+	 *             if the provided key is null or the value isn't a number
+	 * @throws EmptyStackException
+	 *             if the stack under the provided key is empty
+	 */
+	public default double popDouble(final String name) {
+		return ValueWrapper.determineValue(pop(name).getValue());
+	}
+}
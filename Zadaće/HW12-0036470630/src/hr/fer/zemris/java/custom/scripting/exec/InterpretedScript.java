@@ -0,0 +1,36 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Class that implements {@link IExecutableScript} by interpreting the parsed
+ * {@link DocumentNode} with a new {@link SmartScriptEngine} on every
+ * execution. The script is resolved once, when this object is constructed.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class InterpretedScript implements IExecutableScript {
+
+	/** Resolved script */
+	private final ResolvedScript script;
+
+	/**
+	 * Constructs a new {@link InterpretedScript} for the specified parsed
+	 * script.
+	 *
+	 * @param documentNode
+	 *            parsed script
+	 */
+	public InterpretedScript(final DocumentNode documentNode) {
+		super();
+		this.script = new ResolvedScript(documentNode);
+	}
+
+	@Override
+	public void execute(final RequestContext requestContext) {
+		new SmartScriptEngine(script, requestContext).execute();
+	}
+
+}
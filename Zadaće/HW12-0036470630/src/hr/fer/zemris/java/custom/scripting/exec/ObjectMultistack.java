@@ -8,12 +8,14 @@ import hr.fer.zemris.java.webserver.util.Utility;
 /**
  * Class that provides a map functionality but instead of containing only one
  * value per key, supports a stack like structure allowing multiple values under
- * one key implemented as a stack.
+ * one key implemented as a stack. Every value is kept in its own linked list
+ * node, see {@link ArrayObjectMultistack} for a implementation that doesn't
+ * allocate on every push.
  * 
  * @author Nikola Bukovac
  * @version 1.0
  */
-public class ObjectMultistack {
+public class ObjectMultistack implements IObjectMultistack {
 
 	/**
 	 * Class that represents a node in a stack like linked list containing a
@@ -112,6 +114,7 @@ public class ObjectMultistack {
 	 * 
 	 * @return true if empty, else false
 	 */
+	@Override
 	public boolean isEmpty() {
 		return size == 0;
 	}
@@ -131,6 +134,7 @@ public class ObjectMultistack {
 	 * @throws EmptyStackException
 	 *             if the entry under the provided key is null
 	 */
+	@Override
 	public ValueWrapper peek(final String name) {
 		final MultiStackEntry stackEntry = getMultiStackEntry(name);
 
@@ -154,6 +158,7 @@ public class ObjectMultistack {
 	 * @throws EmptyStackException
 	 *             if the entry under the provided key is null
 	 */
+	@Override
 	public ValueWrapper pop(final String name) {
 		final MultiStackEntry stackEntry = getMultiStackEntry(name);
 		final ValueWrapper valueWrapper = stackEntry.valueWrapper;
@@ -182,6 +187,7 @@ public class ObjectMultistack {
 	 * @throws IllegalArgumentException
 	 *             f the provided key or {@code valueWrapper} is null.
 	 */
+	@Override
 	public void push(final String name, final ValueWrapper valueWrapper) {
 		Utility.checkIfNull(name, "Null reference isn't a valid key for a map entry!");
 		Utility.checkIfNull(valueWrapper, "ValueWrapper can't be null");
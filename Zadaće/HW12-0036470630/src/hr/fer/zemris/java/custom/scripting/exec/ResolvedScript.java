@@ -0,0 +1,342 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementFunction;
+import hr.fer.zemris.java.custom.scripting.elems.ElementOperator;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+
+/**
+ * Class that holds the result of a resolution pass over a parsed script, used
+ * by the {@link SmartScriptEngine} to execute the script without looking up
+ * variables by name. Every for loop variable gets a integer slot, nested loops
+ * get different slots and sibling loops share them. For loop expressions are
+ * parsed once, and elements of every echo tag are turned into
+ * {@link Instruction}s with constants already unescaped and parsed. Text is
+ * encoded in advance, so it doesn't have to be encoded on every execution.
+ * <p>
+ * The resolution is done once per parsed script and the result can be shared
+ * by multiple threads.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+final class ResolvedScript {
+
+	/** Encoding of the text encoded in advance */
+	static final Charset TEXT_ENCODING = StandardCharsets.UTF_8;
+
+	/** Instruction that pushes a constant */
+	static final int CONSTANT = 0;
+
+	/** Instruction that pushes the value of a for loop variable */
+	static final int VARIABLE = 1;
+
+	/** Instruction that pushes a variable that isn't defined */
+	static final int UNDEFINED = 2;
+
+	/** Instruction that applies a operator */
+	static final int OPERATOR = 3;
+
+	/** Instruction that applies the {@code dup} function */
+	static final int DUP = 4;
+
+	/** Instruction that applies the {@code swap} function */
+	static final int SWAP = 5;
+
+	/** Instruction that applies the {@code sin} function */
+	static final int SIN = 6;
+
+	/** Instruction that applies any other function */
+	static final int FUNCTION = 7;
+
+	/**
+	 * Class that represents a resolved for loop.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	static final class Loop {
+
+		/** Slot of the loop variable */
+		final int slot;
+
+		/** Parsed start expression */
+		final double start;
+
+		/** Parsed end expression */
+		final double end;
+
+		/** Parsed step expression */
+		final double step;
+
+		/** Flag that determines if all expressions are numbers */
+		final boolean numeric;
+
+		/**
+		 * Constructs a new {@link Loop} for the specified node and slot.
+		 *
+		 * @param node
+		 *            for loop node
+		 * @param slot
+		 *            slot of the loop variable
+		 */
+		Loop(final ForLoopNode node, final int slot) {
+			this.slot = slot;
+
+			double start = 0;
+			double end = 0;
+			double step = 1;
+			boolean numeric = true;
+			try {
+				start = Double.parseDouble(node.getStartExpression().asText());
+				end = Double.parseDouble(node.getEndExpression().asText());
+				if (node.getStepExpression() != null) {
+					step = Double.parseDouble(node.getStepExpression().asText());
+				}
+			} catch (final NumberFormatException e) {
+				numeric = false;
+			}
+
+			this.start = start;
+			this.end = end;
+			this.step = step;
+			this.numeric = numeric;
+		}
+	}
+
+	/**
+	 * Class that represents a resolved element of a echo tag.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	static final class Instruction {
+
+		/** Type of the instruction */
+		final int type;
+
+		/** Unescaped constant, variable name, operator or function name */
+		final String text;
+
+		/** Parsed constant or {@code NaN} */
+		final double number;
+
+		/** Flag that determines if the constant is a number */
+		final boolean numeric;
+
+		/** Slot of the variable */
+		final int slot;
+
+		/** Function applied by a {@code FUNCTION} instruction */
+		final IFunction function;
+
+		/** Number of values the function takes from the stack or -1 */
+		final int arguments;
+
+		/**
+		 * Constructs a new {@link Instruction} with the specified values.
+		 *
+		 * @param type
+		 *            type of the instruction
+		 * @param text
+		 *            unescaped constant, variable name, operator or function
+		 *            name
+		 * @param slot
+		 *            slot of the variable
+		 * @param function
+		 *            function applied by a {@code FUNCTION} instruction
+		 */
+		Instruction(final int type, final String text, final int slot, final IFunction function) {
+			this.type = type;
+			this.text = text;
+			this.slot = slot;
+			this.function = function;
+
+			final int[] arity = function == null ? null : Functions.getArity(text);
+			this.arguments = arity == null ? -1 : arity[0];
+
+			double number = Double.NaN;
+			boolean numeric = false;
+			if (type == CONSTANT) {
+				try {
+					number = CompiledScriptSupport.toNumber(text);
+					numeric = true;
+				} catch (final NumberFormatException ignorable) {
+				}
+			}
+
+			this.number = number;
+			this.numeric = numeric;
+		}
+	}
+
+	/**
+	 * {@link INodeVisitor} that resolves the visited nodes.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	private final class Resolver implements INodeVisitor {
+
+		/** Names of the variables of the enclosing loops, innermost first */
+		private final LinkedList<String> variables = new LinkedList<>();
+
+		@Override
+		public void visitDocumentNode(final DocumentNode node) {
+			for (int i = 0, size = node.numberOfChildren(); i < size; i++) {
+				node.getChild(i).accept(this);
+			}
+		}
+
+		@Override
+		public void visitEchoNode(final EchoNode node) {
+			final Element[] elements = node.getElements();
+			final Instruction[] instructions = new Instruction[elements.length];
+
+			for (int i = 0; i < elements.length; i++) {
+				final Element element = elements[i];
+				final String text = element.asText();
+
+				if (element instanceof ElementVariable) {
+					final int index = variables.indexOf(text);
+					instructions[i] = index < 0 ? new Instruction(UNDEFINED, text, -1, null)
+							: new Instruction(VARIABLE, text, variables.size() - 1 - index, null);
+				} else if (element instanceof ElementFunction) {
+					instructions[i] = function(text);
+				} else if (element instanceof ElementOperator) {
+					instructions[i] = new Instruction(OPERATOR, text, -1, null);
+				} else {
+					instructions[i] = new Instruction(CONSTANT,
+							text.replace("\\n", "\n").replace("\\r", "\r").replace("\\t", "\t"), -1, null);
+				}
+			}
+
+			echoes.put(node, instructions);
+		}
+
+		/**
+		 * Resolves the function with the specified name.
+		 *
+		 * @param name
+		 *            function name
+		 * @return resolved function
+		 */
+		private Instruction function(final String name) {
+			switch (name) {
+			case "dup":
+				return new Instruction(DUP, name, -1, null);
+			case "swap":
+				return new Instruction(SWAP, name, -1, null);
+			case "sin":
+				return new Instruction(SIN, name, -1, Functions.getFunction(name));
+			default:
+				return new Instruction(FUNCTION, name, -1, Functions.getFunction(name));
+			}
+		}
+
+		@Override
+		public void visitForLoopNode(final ForLoopNode node) {
+			final int slot = variables.size();
+			loops.put(node, new Loop(node, slot));
+			slots = Math.max(slots, slot + 1);
+
+			variables.push(node.getVariable().asText());
+			for (int i = 0, size = node.numberOfChildren(); i < size; i++) {
+				node.getChild(i).accept(this);
+			}
+			variables.pop();
+		}
+
+		@Override
+		public void visitTextNode(final TextNode node) {
+			texts.put(node, node.getText().getBytes(TEXT_ENCODING));
+		}
+	}
+
+	/** Parsed script or one of its top level nodes */
+	private final Node node;
+
+	/** Resolved for loops */
+	private final Map<ForLoopNode, Loop> loops = new IdentityHashMap<>();
+
+	/** Resolved echo tags */
+	private final Map<EchoNode, Instruction[]> echoes = new IdentityHashMap<>();
+
+	/** Text of the text nodes encoded with the {@link #TEXT_ENCODING} */
+	private final Map<TextNode, byte[]> texts = new IdentityHashMap<>();
+
+	/** Number of slots used by the loop variables */
+	private int slots;
+
+	/**
+	 * Constructs a new {@link ResolvedScript} by resolving the specified parsed
+	 * script or one of its top level nodes.
+	 *
+	 * @param node
+	 *            parsed script or one of its top level nodes
+	 */
+	ResolvedScript(final Node node) {
+		this.node = node;
+		node.accept(new Resolver());
+	}
+
+	/**
+	 * @return the parsed script or one of its top level nodes
+	 */
+	Node getNode() {
+		return node;
+	}
+
+	/**
+	 * Returns the resolved for loop.
+	 *
+	 * @param node
+	 *            for loop node
+	 * @return resolved for loop
+	 */
+	Loop getLoop(final ForLoopNode node) {
+		return loops.get(node);
+	}
+
+	/**
+	 * Returns the resolved elements of the echo tag.
+	 *
+	 * @param node
+	 *            echo node
+	 * @return resolved elements
+	 */
+	Instruction[] getInstructions(final EchoNode node) {
+		return echoes.get(node);
+	}
+
+	/**
+	 * Returns the text of the text node encoded with the
+	 * {@link #TEXT_ENCODING}.
+	 *
+	 * @param node
+	 *            text node
+	 * @return encoded text
+	 */
+	byte[] getEncodedText(final TextNode node) {
+		return texts.get(node);
+	}
+
+	/**
+	 * @return the number of slots used by the loop variables
+	 */
+	int getSlots() {
+		return slots;
+	}
+}
@@ -0,0 +1,61 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+/**
+ * Exception thrown when the {@link SmartScriptCompiler} can't compile a parsed
+ * script, either because the script uses a construct the compiler doesn't
+ * support or because no Java compiler is available. Such scripts can still be
+ * executed by the {@link SmartScriptEngine}.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class ScriptCompilationException extends RuntimeException {
+
+	/**
+	 * Serial version UID for this exception
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructs a new {@link ScriptCompilationException} with a generic
+	 * message.
+	 */
+	public ScriptCompilationException() {
+		super("An error has occured during the compilation of the script");
+	}
+
+	/**
+	 * Constructs a new {@link ScriptCompilationException} with a specified
+	 * message.
+	 *
+	 * @param message
+	 *            specific message
+	 */
+	public ScriptCompilationException(final String message) {
+		super(message);
+	}
+
+	/**
+	 * Constructs a new {@link ScriptCompilationException} with a specified
+	 * cause.
+	 *
+	 * @param cause
+	 *            the cause of the exception
+	 */
+	public ScriptCompilationException(final Throwable cause) {
+		super(cause);
+	}
+
+	/**
+	 * Constructs a new {@link ScriptCompilationException} with a specified
+	 * cause and message.
+	 *
+	 * @param cause
+	 *            the cause of the exception
+	 * @param message
+	 *            specific message
+	 */
+	public ScriptCompilationException(final Throwable cause, final String message) {
+		super(message, cause);
+	}
+}
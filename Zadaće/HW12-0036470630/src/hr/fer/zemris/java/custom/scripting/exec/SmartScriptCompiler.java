@@ -0,0 +1,673 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementFunction;
+import hr.fer.zemris.java.custom.scripting.elems.ElementOperator;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Class that compiles the script code parsed from a document by the
+ * {@link SmartScriptParser} into a Java class that implements
+ * {@link IExecutableScript}. Java source of the class is generated with the
+ * locally defined {@link INodeVisitor}, compiled in memory with the system
+ * {@link JavaCompiler} and loaded by a separate {@link ClassLoader}, so the
+ * class can be unloaded once the script isn't used anymore.
+ * <p>
+ * For loop variables become primitive local variables and the stack used by
+ * the {@link SmartScriptEngine} for echo tags is simulated during the
+ * compilation, so numbers and constants are only wrapped into
+ * {@link ValueWrapper}s when they are passed to a function. Compiled scripts
+ * produce the same output as interpreted ones. Scripts with an unknown
+ * function, an unknown operator, a non numeric for loop expression or an echo
+ * tag that would empty the stack can't be compiled, a
+ * {@link ScriptCompilationException} is thrown for them and they should be
+ * interpreted instead.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public final class SmartScriptCompiler {
+
+	/**
+	 * Package of the generated classes
+	 */
+	private static final String PACKAGE = "hr.fer.zemris.java.custom.scripting.exec.generated";
+
+	/**
+	 * Prefix of the generated class names
+	 */
+	private static final String CLASS_PREFIX = "CompiledScript";
+
+	/**
+	 * Supported operators
+	 */
+	private static final String OPERATORS = "+-*/";
+
+	/**
+	 * Counter used for unique class names
+	 */
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	/**
+	 * Kinds of values on the simulated stack.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	private enum ValueKind {
+		/** String constant known during the compilation */
+		TEXT,
+		/** Double value held by a primitive local variable */
+		NUMBER,
+		/** Value held by a {@link ValueWrapper} local variable */
+		WRAPPER
+	}
+
+	/**
+	 * Class that represents a value on the simulated stack. The same value is
+	 * on the stack multiple times after {@code dup}, so converting it to a
+	 * number changes every occurrence, the same way it does for the
+	 * {@link ValueWrapper}s used by the {@link SmartScriptEngine}.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	private static class Value {
+
+		/** Kind of the value */
+		private ValueKind kind;
+
+		/** Text of a constant or Java expression of a variable */
+		private String content;
+
+		/**
+		 * Constructs a new {@link Value} with the specified kind and content.
+		 *
+		 * @param kind
+		 *            kind of the value
+		 * @param content
+		 *            text of a constant or Java expression of a variable
+		 */
+		Value(final ValueKind kind, final String content) {
+			super();
+			this.kind = kind;
+			this.content = content;
+		}
+	}
+
+	/**
+	 * {@link INodeVisitor} used for traversing the parsed script and
+	 * generating the body of the {@code execute} method.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	private static class Generator implements INodeVisitor {
+
+		/** Generated code */
+		private final StringBuilder code = new StringBuilder();
+
+		/** Strings used by the script, passed to the generated class */
+		private final List<String> constants = new ArrayList<>();
+
+		/** Functions used by the script, passed to the generated class */
+		private final List<IFunction> functions = new ArrayList<>();
+
+		/** Indexes of used functions in the function list */
+		private final Map<String, Integer> functionIndexes = new HashMap<>();
+
+		/** Names of the for loop variables and their local variables */
+		private final LinkedList<String[]> variables = new LinkedList<>();
+
+		/** Counter used for unique local variable names */
+		private int locals;
+
+		/** Current indentation */
+		private int indent = 2;
+
+		/**
+		 * Appends a line of code with the current indentation.
+		 *
+		 * @param line
+		 *            line of code
+		 */
+		private void line(final String line) {
+			for (int i = 0; i < indent; i++) {
+				code.append('\t');
+			}
+
+			code.append(line).append('\n');
+		}
+
+		/**
+		 * Returns a new unique local variable name with the specified prefix.
+		 *
+		 * @param prefix
+		 *            prefix of the name
+		 * @return local variable name
+		 */
+		private String local(final String prefix) {
+			return prefix + locals++;
+		}
+
+		/**
+		 * Adds the specified text to the constants and returns the expression
+		 * that reads it in the generated class.
+		 *
+		 * @param text
+		 *            constant text
+		 * @return Java expression of the constant
+		 */
+		private String constant(final String text) {
+			constants.add(text);
+			return "c[" + (constants.size() - 1) + "]";
+		}
+
+		/**
+		 * Returns the expression that reads the function with the specified
+		 * name in the generated class.
+		 *
+		 * @param name
+		 *            function name
+		 * @return Java expression of the function
+		 */
+		private String function(final String name) {
+			Integer index = functionIndexes.get(name);
+
+			if (index == null) {
+				index = functions.size();
+				functions.add(Functions.getFunction(name));
+				functionIndexes.put(name, index);
+			}
+
+			return "f[" + index + "]";
+		}
+
+		/**
+		 * Converts the specified double to a Java expression.
+		 *
+		 * @param number
+		 *            number for conversion
+		 * @return Java expression of the number
+		 */
+		private static String literal(final double number) {
+			if (Double.isNaN(number)) {
+				return "Double.NaN";
+			} else if (Double.isInfinite(number)) {
+				return number > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+			}
+
+			return Double.toString(number);
+		}
+
+		/**
+		 * Parses a for loop expression.
+		 *
+		 * @param element
+		 *            expression for parsing
+		 * @return Java expression of the parsed number
+		 * @throws ScriptCompilationException
+		 *             if the expression isn't a number
+		 */
+		private static String loopExpression(final Element element) {
+			try {
+				return literal(Double.parseDouble(element.asText()));
+			} catch (final NumberFormatException e) {
+				throw new ScriptCompilationException(e, "For loop expression isn't a number: " + element.asText());
+			}
+		}
+
+		/**
+		 * Converts the specified value to a number the way
+		 * {@link ValueWrapper#increment(Object)} does and returns the Java
+		 * expression of the number.
+		 *
+		 * @param value
+		 *            value for conversion
+		 * @return Java expression of the number
+		 */
+		private String toNumber(final Value value) {
+			if (value.kind == ValueKind.TEXT) {
+				String number;
+
+				try {
+					number = literal(CompiledScriptSupport.toNumber(value.content));
+				} catch (final NumberFormatException e) {
+					number = local("d");
+					line("final double " + number + " = CompiledScriptSupport.toNumber(" + constant(value.content)
+							+ ");");
+				}
+
+				value.kind = ValueKind.NUMBER;
+				value.content = number;
+			} else if (value.kind == ValueKind.WRAPPER) {
+				final String number = local("d");
+				line(value.content + ".increment(0.0);");
+				line("final double " + number + " = (double) " + value.content + ".getValue();");
+				return number;
+			}
+
+			return value.content;
+		}
+
+		/**
+		 * Wraps the specified value into a {@link ValueWrapper} local variable
+		 * and changes the value to refer to it.
+		 *
+		 * @param value
+		 *            value for wrapping
+		 * @return name of the local variable
+		 */
+		private String toWrapper(final Value value) {
+			if (value.kind != ValueKind.WRAPPER) {
+				final String wrapper = local("w");
+				final String argument = value.kind == ValueKind.TEXT ? constant(value.content)
+						: "Double.valueOf(" + value.content + ")";
+				line("final ValueWrapper " + wrapper + " = new ValueWrapper(" + argument + ");");
+				value.kind = ValueKind.WRAPPER;
+				value.content = wrapper;
+			}
+
+			return value.content;
+		}
+
+		/**
+		 * Generates the call of the function with the specified name.
+		 *
+		 * @param name
+		 *            function name
+		 * @param stack
+		 *            simulated stack
+		 */
+		private void callFunction(final String name, final List<Value> stack) {
+			final int size = stack.size();
+
+			if (name.equals("dup")) {
+				requireValues(stack, 1);
+				stack.add(stack.get(size - 1));
+				return;
+			} else if (name.equals("swap")) {
+				requireValues(stack, 2);
+				Collections.swap(stack, size - 1, size - 2);
+				return;
+			}
+
+			final int[] arity = Functions.getArity(name);
+			if (arity == null) {
+				throw new ScriptCompilationException("Unknown function: " + name);
+			}
+			requireValues(stack, arity[0]);
+
+			if (name.equals("sin") && stack.get(size - 1).kind == ValueKind.NUMBER) {
+				final String number = local("d");
+				line("final double " + number + " = Math.sin(" + stack.remove(size - 1).content
+						+ " % (Math.PI * 2));");
+				stack.add(new Value(ValueKind.NUMBER, number));
+				return;
+			}
+
+			for (final Value argument : stack.subList(size - arity[0], size)) {
+				line("stack.push(" + toWrapper(argument) + ");");
+			}
+			stack.subList(size - arity[0], size).clear();
+
+			line(function(name) + ".apply(stack, context);");
+
+			final int position = stack.size();
+			for (int i = 0; i < arity[1]; i++) {
+				final String wrapper = local("w");
+				line("final ValueWrapper " + wrapper + " = stack.pop();");
+				stack.add(position, new Value(ValueKind.WRAPPER, wrapper));
+			}
+		}
+
+		/**
+		 * Checks that there are enough values on the simulated stack.
+		 *
+		 * @param stack
+		 *            simulated stack
+		 * @param count
+		 *            required number of values
+		 * @throws ScriptCompilationException
+		 *             if there aren't enough values
+		 */
+		private static void requireValues(final List<Value> stack, final int count) {
+			if (stack.size() < count) {
+				throw new ScriptCompilationException("Echo tag takes more values than there are on the stack");
+			}
+		}
+
+		/**
+		 * Returns the local variable of the innermost for loop with the
+		 * specified variable.
+		 *
+		 * @param name
+		 *            variable name
+		 * @return name of the local variable or null if there is no such loop
+		 */
+		private String variable(final String name) {
+			for (final String[] variable : variables) {
+				if (variable[0].equals(name)) {
+					return variable[1];
+				}
+			}
+
+			return null;
+		}
+
+		@Override
+		public void visitDocumentNode(final DocumentNode node) {
+			for (int i = 0, size = node.numberOfChildren(); i < size; i++) {
+				node.getChild(i).accept(this);
+			}
+		}
+
+		@Override
+		public void visitEchoNode(final EchoNode node) {
+			final List<Value> stack = new ArrayList<>();
+			line("{");
+			indent++;
+
+			for (final Element element : node.getElements()) {
+				if (element instanceof ElementVariable) {
+					String local = variable(element.asText());
+
+					if (local == null) {
+						local = local("d");
+						line("final double " + local + " = CompiledScriptSupport.undefinedVariable(\""
+								+ element.asText() + "\");");
+					}
+
+					stack.add(new Value(ValueKind.NUMBER, local));
+				} else if (element instanceof ElementFunction) {
+					callFunction(element.asText(), stack);
+				} else if (element instanceof ElementOperator) {
+					final String operator = element.asText();
+					if (operator.length() != 1 || !OPERATORS.contains(operator)) {
+						throw new ScriptCompilationException("Unknown operator: " + operator);
+					}
+					requireValues(stack, 2);
+
+					final String second = toNumber(stack.remove(stack.size() - 1));
+					final String first = toNumber(stack.remove(stack.size() - 1));
+					final String result = local("d");
+					line("final double " + result + " = " + first + " " + operator + " " + second + ";");
+					stack.add(new Value(ValueKind.NUMBER, result));
+				} else {
+					stack.add(new Value(ValueKind.TEXT,
+							element.asText().replace("\\n", "\n").replace("\\r", "\r").replace("\\t", "\t")));
+				}
+			}
+
+			final StringBuilder text = new StringBuilder();
+			for (final Value value : stack) {
+				if (value.kind == ValueKind.TEXT) {
+					text.append(value.content);
+					continue;
+				}
+
+				if (text.length() > 0) {
+					line("context.write(" + constant(text.toString()) + ");");
+					text.setLength(0);
+				}
+
+				if (value.kind == ValueKind.NUMBER) {
+					line("context.write(Double.toString(" + value.content + "));");
+				} else {
+					line("context.write(" + value.content + ".getValue().toString());");
+				}
+			}
+
+			if (text.length() > 0) {
+				line("context.write(" + constant(text.toString()) + ");");
+			}
+
+			indent--;
+			line("}");
+		}
+
+		@Override
+		public void visitForLoopNode(final ForLoopNode node) {
+			final String local = local("v");
+			final String start = loopExpression(node.getStartExpression());
+			final String end = loopExpression(node.getEndExpression());
+			final String step = node.getStepExpression() == null ? "1.0" : loopExpression(node.getStepExpression());
+
+			line("for (double " + local + " = " + start + "; " + local + " <= " + end + "; " + local + " += " + step
+					+ ") {");
+			indent++;
+			variables.push(new String[] { node.getVariable().asText(), local });
+
+			for (int i = 0, size = node.numberOfChildren(); i < size; i++) {
+				node.getChild(i).accept(this);
+			}
+
+			variables.pop();
+			indent--;
+			line("}");
+		}
+
+		@Override
+		public void visitTextNode(final TextNode node) {
+			line("context.write(" + constant(node.getText()) + ");");
+		}
+	}
+
+	/**
+	 * Class that keeps the bytes of a class compiled in memory.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	private static class ClassFile extends SimpleJavaFileObject {
+
+		/** Compiled bytes */
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		/**
+		 * Constructs a new {@link ClassFile} for the specified class.
+		 *
+		 * @param className
+		 *            binary name of the class
+		 */
+		ClassFile(final String className) {
+			super(URI.create("bytes:///" + className.replace('.', '/') + JavaFileObject.Kind.CLASS.extension),
+					JavaFileObject.Kind.CLASS);
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			return bytes;
+		}
+	}
+
+	/**
+	 * {@link ClassLoader} that defines the classes compiled in memory.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	private static class ScriptClassLoader extends ClassLoader {
+
+		/** Compiled classes under their binary names */
+		private final Map<String, ClassFile> classes;
+
+		/**
+		 * Constructs a new {@link ScriptClassLoader} for the specified
+		 * classes.
+		 *
+		 * @param classes
+		 *            compiled classes under their binary names
+		 */
+		ScriptClassLoader(final Map<String, ClassFile> classes) {
+			super(SmartScriptCompiler.class.getClassLoader());
+			this.classes = classes;
+		}
+
+		@Override
+		protected Class<?> findClass(final String name) throws ClassNotFoundException {
+			final ClassFile file = classes.get(name);
+
+			if (file == null) {
+				throw new ClassNotFoundException(name);
+			}
+
+			final byte[] bytes = file.bytes.toByteArray();
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * Compiles the specified parsed script.
+	 *
+	 * @param documentNode
+	 *            parsed script
+	 * @return compiled script
+	 * @throws ScriptCompilationException
+	 *             if the script can't be compiled
+	 */
+	public static IExecutableScript compile(final DocumentNode documentNode) {
+		final Generator generator = new Generator();
+		documentNode.accept(generator);
+
+		final String simpleName = CLASS_PREFIX + COUNTER.incrementAndGet();
+		final String className = PACKAGE + "." + simpleName;
+		final Class<?> compiled = compileSource(className, generateSource(simpleName, generator.code));
+
+		try {
+			return (IExecutableScript) compiled.getConstructor(String[].class, IFunction[].class).newInstance(
+					generator.constants.toArray(new String[0]), generator.functions.toArray(new IFunction[0]));
+		} catch (InstantiationException | IllegalAccessException | InvocationTargetException
+				| NoSuchMethodException e) {
+			throw new ScriptCompilationException(e, "Compiled script can't be instantiated");
+		}
+	}
+
+	/**
+	 * Returns the Java source of the class with the specified name and
+	 * {@code execute} method body.
+	 *
+	 * @param simpleName
+	 *            simple name of the class
+	 * @param body
+	 *            body of the {@code execute} method
+	 * @return Java source of the class
+	 */
+	private static String generateSource(final String simpleName, final CharSequence body) {
+		final StringBuilder source = new StringBuilder();
+		source.append("package ").append(PACKAGE).append(";\n\n");
+		source.append("import java.io.IOException;\n");
+		source.append("import java.util.Stack;\n\n");
+		source.append("import hr.fer.zemris.java.custom.scripting.exec.*;\n");
+		source.append("import ").append(RequestContext.class.getName()).append(";\n\n");
+		source.append("public final class ").append(simpleName).append(" implements IExecutableScript {\n\n");
+		source.append("\tprivate final String[] c;\n\n");
+		source.append("\tprivate final IFunction[] f;\n\n");
+		source.append("\tpublic ").append(simpleName).append("(final String[] c, final IFunction[] f) {\n");
+		source.append("\t\tthis.c = c;\n");
+		source.append("\t\tthis.f = f;\n");
+		source.append("\t}\n\n");
+		source.append("\t@Override\n");
+		source.append("\tpublic void execute(final RequestContext context) throws IOException {\n");
+		source.append("\t\tfinal Stack<ValueWrapper> stack = new Stack<>();\n");
+		source.append(body);
+		source.append("\t}\n");
+		source.append("}\n");
+		return source.toString();
+	}
+
+	/**
+	 * Compiles the specified source in memory and loads the compiled class.
+	 *
+	 * @param className
+	 *            binary name of the class
+	 * @param source
+	 *            Java source of the class
+	 * @return loaded class
+	 * @throws ScriptCompilationException
+	 *             if no Java compiler is available or if the source can't be
+	 *             compiled
+	 */
+	private static Class<?> compileSource(final String className, final String source) {
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			throw new ScriptCompilationException("Java compiler isn't available in this runtime");
+		}
+
+		final Map<String, ClassFile> classes = new HashMap<>();
+		final StringWriter errors = new StringWriter();
+		final JavaFileObject unit = new SimpleJavaFileObject(
+				URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+				JavaFileObject.Kind.SOURCE) {
+
+			@Override
+			public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+
+		try (JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(
+				compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+
+			@Override
+			public JavaFileObject getJavaFileForOutput(final Location location, final String name,
+					final JavaFileObject.Kind kind, final FileObject sibling) {
+				final ClassFile file = new ClassFile(name);
+				classes.put(name, file);
+				return file;
+			}
+		}) {
+			final List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-g:none");
+
+			if (!compiler.getTask(errors, fileManager, null, options, null, Collections.singletonList(unit)).call()) {
+				throw new ScriptCompilationException("Generated script doesn't compile: " + errors);
+			}
+		} catch (final IOException e) {
+			throw new ScriptCompilationException(e, "Generated script can't be compiled");
+		}
+
+		try {
+			return new ScriptClassLoader(classes).loadClass(className);
+		} catch (final ClassNotFoundException e) {
+			throw new ScriptCompilationException(e, "Compiled script can't be loaded");
+		}
+	}
+
+	/**
+	 * Constructor is private because this class only contains static methods.
+	 */
+	private SmartScriptCompiler() {
+	}
+}
@@ -1,15 +1,13 @@
 package hr.fer.zemris.java.custom.scripting.exec;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.Stack;
-import java.util.function.BinaryOperator;
 
-import hr.fer.zemris.java.custom.scripting.elems.Element;
-import hr.fer.zemris.java.custom.scripting.elems.ElementFunction;
-import hr.fer.zemris.java.custom.scripting.elems.ElementOperator;
-import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
+import hr.fer.zemris.java.custom.scripting.exec.ResolvedScript.Instruction;
+import hr.fer.zemris.java.custom.scripting.exec.ResolvedScript.Loop;
 import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
 import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
 import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
@@ -17,6 +15,7 @@ import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
 import hr.fer.zemris.java.custom.scripting.nodes.Node;
 import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
 import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException;
 import hr.fer.zemris.java.webserver.RequestContext;
 
 /**
@@ -24,16 +23,37 @@ import hr.fer.zemris.java.webserver.RequestContext;
  * {@link SmartScriptParser} and passes the execution result to the provided
  * {@link RequestContext} object. Interpretation is done with the locally
  * defined {@link INodeVisitor}.
- * 
+ * <p>
+ * The script is first resolved into a {@link ResolvedScript}, so for loop
+ * variables are kept in a array of primitive slots instead of a
+ * {@link ObjectMultistack}. Echo tags are evaluated on a operand stack made of
+ * primitive arrays, numbers are only wrapped into {@link ValueWrapper}s when
+ * they are passed to a function other than {@code dup}, {@code swap} or
+ * {@code sin}, so loops that only print numbers and text don't allocate
+ * anything but the printed strings. Text is written already encoded when the
+ * response uses UTF-8.
+ *
  * @author Nikola Bukovac
  * @version 1.0
  */
 public class SmartScriptEngine {
 
+	/** Operand stack entry that holds a number */
+	private static final byte NUMBER = 0;
+
+	/** Operand stack entry that holds a constant which is also a number */
+	private static final byte PARSED = 1;
+
+	/** Operand stack entry that holds any other object */
+	private static final byte OBJECT = 2;
+
+	/** Initial capacity of the operand stack */
+	private static final int INITIAL_CAPACITY = 16;
+
 	/**
-	 * Constructed {@link DocumentNode} from a file
+	 * Resolved script
 	 */
-	private final DocumentNode documentNode;
+	private final ResolvedScript script;
 
 	/**
 	 * {@link RequestContext} used for header and content creation and writing
@@ -42,10 +62,51 @@ public class SmartScriptEngine {
 	private final RequestContext requestContext;
 
 	/**
-	 * {@link ObjectMultistack} with all found variables that are used in the
-	 * script
+	 * Values of the for loop variables in their slots
 	 */
-	private final ObjectMultistack multistack = new ObjectMultistack();
+	private final double[] slots;
+
+	/**
+	 * Output of the script when it is evaluated without a
+	 * {@link RequestContext}, otherwise {@code null}
+	 */
+	private final StringBuilder output;
+
+	/**
+	 * Flag that determines if the text encoded by the {@link ResolvedScript}
+	 * can be written as it is
+	 */
+	private final boolean encodedText;
+
+	/** Kinds of the operand stack entries */
+	private byte[] kinds = new byte[INITIAL_CAPACITY];
+
+	/** Numbers of the operand stack entries */
+	private double[] numbers = new double[INITIAL_CAPACITY];
+
+	/** Objects of the operand stack entries */
+	private Object[] objects = new Object[INITIAL_CAPACITY];
+
+	/**
+	 * Identities of the operand stack entries, entries pushed by {@code dup}
+	 * share the identity of the duplicated entry
+	 */
+	private int[] identities = new int[INITIAL_CAPACITY];
+
+	/** Number of entries on the operand stack */
+	private int size;
+
+	/** Last assigned identity */
+	private int identity;
+
+	/** Flag that determines if multiple entries share a identity */
+	private boolean aliased;
+
+	/** Stack used to pass values to functions */
+	private final Stack<ValueWrapper> functionStack = new Stack<>();
+
+	/** Wrappers of the entries passed to a function */
+	private ValueWrapper[] wrappers = new ValueWrapper[INITIAL_CAPACITY];
 
 	/**
 	 * {@link INodeVisitor} used for traversing {@link Node}s and processing
@@ -72,48 +133,54 @@ public class SmartScriptEngine {
 		 */
 		@Override
 		public void visitEchoNode(final EchoNode node) {
-			final Stack<ValueWrapper> tempStack = new Stack<>();
-
-			for (final Element element : node.getElements()) {
-				if (element instanceof ElementVariable) {
-					tempStack.push(new ValueWrapper(multistack.peek(element.asText()).getValue()));
-				} else if (element instanceof ElementFunction) {
-					Functions.getFunction(element.asText()).apply(tempStack, requestContext);
-
-				} else if (element instanceof ElementOperator) {
-					tempStack.peek().increment(0.0);
-					final double second = (double) tempStack.pop().getValue();
-					tempStack.peek().increment(0.0);
-					final double first = (double) tempStack.pop().getValue();
-					final String operator = element.asText();
-					final BinaryOperator<Double> function = BinaryOperations.getOperator(operator);
-
-					tempStack.push(new ValueWrapper(function.apply(first, second)));
-				} else {
-					tempStack.push(new ValueWrapper(
-							element.asText().replace("\\n", "\n").replace("\\r", "\r").replace("\\t", "\t")));
-				}
-			}
-
-			int position = tempStack.size() - 1;
-			final List<Object> output = new ArrayList<>();
-			for (int i = 0; i < tempStack.size(); i++) {
-				output.add(null);
-			}
+			size = 0;
+			aliased = false;
 
-			while (tempStack.size() > 0) {
-				output.set(position, tempStack.pop().getValue());
-				position--;
+			for (final Instruction instruction : script.getInstructions(node)) {
+				switch (instruction.type) {
+				case ResolvedScript.CONSTANT:
+					push(instruction.numeric ? PARSED : OBJECT, instruction.number, instruction.text);
+					break;
+				case ResolvedScript.VARIABLE:
+					push(NUMBER, slots[instruction.slot], null);
+					break;
+				case ResolvedScript.UNDEFINED:
+					throw new EmptyStackException("Stack entry under this key doesn't exist!");
+				case ResolvedScript.OPERATOR:
+					final double second = popNumber();
+					final double first = popNumber();
+					push(NUMBER, operate(instruction.text, first, second), null);
+					break;
+				case ResolvedScript.DUP:
+					dup();
+					break;
+				case ResolvedScript.SWAP:
+					swap();
+					break;
+				case ResolvedScript.SIN:
+					if (size > 0 && kinds[size - 1] == NUMBER) {
+						numbers[size - 1] = Math.sin(numbers[size - 1] % (Math.PI * 2));
+						identities[size - 1] = ++identity;
+						break;
+					}
+					applyFunction(instruction.function, instruction.arguments);
+					break;
+				default:
+					applyFunction(instruction.function, instruction.arguments);
+				}
 			}
 
-			for (final Object object : output) {
-				try {
-					requestContext.write(object.toString());
-				} catch (final IOException e) {
-					System.err.println("Writing of EchoNode's content to output stream failed.");
-					System.exit(-1);
+			try {
+				for (int i = 0; i < size; i++) {
+					write(kinds[i] == NUMBER ? Double.toString(numbers[i]) : objects[i].toString());
 				}
+			} catch (final IOException e) {
+				System.err.println("Writing of EchoNode's content to output stream failed.");
+				System.exit(-1);
 			}
+
+			Arrays.fill(objects, 0, size, null);
+			size = 0;
 		}
 
 		/**
@@ -123,24 +190,23 @@ public class SmartScriptEngine {
 		 */
 		@Override
 		public void visitForLoopNode(final ForLoopNode node) {
-			final String variable = node.getVariable().asText();
-			double initial = Double.parseDouble(node.getStartExpression().asText());
-			final double end = Double.parseDouble(node.getEndExpression().asText());
-			final double step = node.getStepExpression() == null ? 1
-					: Double.parseDouble(node.getStepExpression().asText());
+			final Loop loop = script.getLoop(node);
+
+			if (!loop.numeric) {
+				Double.parseDouble(node.getStartExpression().asText());
+				Double.parseDouble(node.getEndExpression().asText());
+				if (node.getStepExpression() != null) {
+					Double.parseDouble(node.getStepExpression().asText());
+				}
+			}
 
-			multistack.push(variable, new ValueWrapper(initial));
+			for (double value = loop.start; value <= loop.end; value += loop.step) {
+				slots[loop.slot] = value;
 
-			for (; initial <= end; initial += step) {
 				for (int i = 0, size = node.numberOfChildren(); i < size; i++) {
 					node.getChild(i).accept(this);
 				}
-
-				final ValueWrapper value = multistack.pop(variable);
-				multistack.push(variable, new ValueWrapper((Double) value.getValue() + step));
 			}
-
-			multistack.pop(variable);
 		}
 
 		/**
@@ -151,7 +217,13 @@ public class SmartScriptEngine {
 		@Override
 		public void visitTextNode(final TextNode node) {
 			try {
-				requestContext.write(node.getText());
+				final byte[] encoded = encodedText ? script.getEncodedText(node) : null;
+
+				if (encoded != null) {
+					requestContext.write(encoded);
+				} else {
+					write(node.getText());
+				}
 			} catch (final IOException e) {
 				System.err.println("Writing of TextNode's content to output stream failed.");
 				System.exit(-1);
@@ -163,7 +235,7 @@ public class SmartScriptEngine {
 	/**
 	 * Constructs a new {@link SmartScriptEngine} with the specified
 	 * {@link DocumentNode} and {@link RequestContext}.
-	 * 
+	 *
 	 * @param documentNode
 	 *            constructed {@link DocumentNode} from a file
 	 * @param requestContext
@@ -171,16 +243,332 @@ public class SmartScriptEngine {
 	 *            and writing to the output stream
 	 */
 	public SmartScriptEngine(final DocumentNode documentNode, final RequestContext requestContext) {
+		this(new ResolvedScript(documentNode), requestContext);
+	}
+
+	/**
+	 * Constructs a new {@link SmartScriptEngine} with the specified
+	 * {@link ResolvedScript} and {@link RequestContext}.
+	 *
+	 * @param script
+	 *            resolved script
+	 * @param requestContext
+	 *            {@link RequestContext} used for header and content creation
+	 *            and writing to the output stream
+	 */
+	SmartScriptEngine(final ResolvedScript script, final RequestContext requestContext) {
+		this(script, requestContext, null);
+	}
+
+	/**
+	 * Constructs a new {@link SmartScriptEngine} with the specified values.
+	 *
+	 * @param script
+	 *            resolved script
+	 * @param requestContext
+	 *            {@link RequestContext} used for header and content creation
+	 *            and writing to the output stream or {@code null}
+	 * @param output
+	 *            output of the script if there is no {@link RequestContext},
+	 *            otherwise {@code null}
+	 */
+	private SmartScriptEngine(final ResolvedScript script, final RequestContext requestContext,
+			final StringBuilder output) {
 		super();
-		this.documentNode = documentNode;
+		this.script = script;
 		this.requestContext = requestContext;
+		this.output = output;
+		this.slots = new double[script.getSlots()];
+		this.encodedText = requestContext != null
+				&& ResolvedScript.TEXT_ENCODING.name().equalsIgnoreCase(requestContext.getEncoding());
 	}
 
 	/**
 	 * Starts the script execution.
 	 */
 	public void execute() {
-		documentNode.accept(visitor);
+		script.getNode().accept(visitor);
+	}
+
+	/**
+	 * Executes the specified node without a {@link RequestContext} and returns
+	 * its output. The node can't call functions that use the
+	 * {@link RequestContext}.
+	 *
+	 * @param node
+	 *            node for execution
+	 * @return output of the node
+	 * @throws RuntimeException
+	 *             if the execution fails
+	 */
+	static String evaluate(final Node node) {
+		final SmartScriptEngine engine = new SmartScriptEngine(new ResolvedScript(node), null, new StringBuilder());
+		engine.execute();
+		return engine.output.toString();
+	}
+
+	/**
+	 * Writes the specified text to the output of the script.
+	 *
+	 * @param text
+	 *            text for writing
+	 * @throws IOException
+	 *             if an error occurs during writing to the output stream
+	 */
+	private void write(final String text) throws IOException {
+		if (output != null) {
+			output.append(text);
+		} else {
+			requestContext.write(text);
+		}
+	}
+
+	/**
+	 * Executes the script read from the specified {@link Reader} while it is
+	 * parsed. Every top level node is executed as soon as it is parsed, so
+	 * text before the first for loop is written before the rest of the script
+	 * is read, and only the for loop that is being parsed is kept in memory.
+	 * If the script is invalid the output written before the error is left in
+	 * the {@link RequestContext}.
+	 *
+	 * @param reader
+	 *            reader of the script, which isn't closed
+	 * @param requestContext
+	 *            {@link RequestContext} used for header and content creation
+	 *            and writing to the output stream
+	 * @throws SmartScriptParserException
+	 *             if the script is invalid
+	 * @throws UncheckedIOException
+	 *             if the script can't be read
+	 */
+	public static void execute(final Reader reader, final RequestContext requestContext) {
+		new SmartScriptParser(reader, (node, depth) -> {
+			if (depth == 0) {
+				new SmartScriptEngine(new ResolvedScript(node), requestContext).execute();
+			}
+		});
+	}
+
+	/**
+	 * Pushes a new entry to the operand stack.
+	 *
+	 * @param kind
+	 *            kind of the entry
+	 * @param number
+	 *            number of the entry
+	 * @param object
+	 *            object of the entry
+	 */
+	private void push(final byte kind, final double number, final Object object) {
+		if (size == kinds.length) {
+			final int capacity = size * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			numbers = Arrays.copyOf(numbers, capacity);
+			objects = Arrays.copyOf(objects, capacity);
+			identities = Arrays.copyOf(identities, capacity);
+		}
+
+		kinds[size] = kind;
+		numbers[size] = number;
+		objects[size] = object;
+		identities[size] = ++identity;
+		size++;
+	}
+
+	/**
+	 * Converts the top entry of the operand stack to a number, the same way
+	 * {@link ValueWrapper#increment(Object)} does, then removes it and returns
+	 * the number. Entries that share the identity of the top entry are
+	 * converted as well.
+	 *
+	 * @return number of the top entry
+	 * @throws java.util.EmptyStackException
+	 *             if the operand stack is empty
+	 */
+	private double popNumber() {
+		if (size == 0) {
+			throw new java.util.EmptyStackException();
+		}
+
+		final int top = size - 1;
+		if (kinds[top] != NUMBER) {
+			final double number = kinds[top] == PARSED ? numbers[top] : toNumber(objects[top]);
+
+			for (int i = aliased ? 0 : top; i <= top; i++) {
+				if (identities[i] == identities[top]) {
+					kinds[i] = NUMBER;
+					numbers[i] = number;
+					objects[i] = null;
+				}
+			}
+		}
+
+		size--;
+		return numbers[top];
+	}
+
+	/**
+	 * Converts the specified object to a number with a {@link ValueWrapper}.
+	 *
+	 * @param object
+	 *            object for conversion
+	 * @return number
+	 */
+	private static double toNumber(final Object object) {
+		final ValueWrapper wrapper = new ValueWrapper(object);
+		wrapper.increment(0.0);
+		return (double) wrapper.getValue();
+	}
+
+	/**
+	 * Applies the specified operator to the specified numbers.
+	 *
+	 * @param operator
+	 *            operator
+	 * @param first
+	 *            first operand
+	 * @param second
+	 *            second operand
+	 * @return result of the operation
+	 */
+	private static double operate(final String operator, final double first, final double second) {
+		switch (operator) {
+		case "+":
+			return first + second;
+		case "-":
+			return first - second;
+		case "*":
+			return first * second;
+		case "/":
+			return first / second;
+		default:
+			return BinaryOperations.getOperator(operator).apply(first, second);
+		}
+	}
+
+	/**
+	 * Pushes the top entry of the operand stack again with the same identity.
+	 *
+	 * @throws java.util.EmptyStackException
+	 *             if the operand stack is empty
+	 */
+	private void dup() {
+		if (size == 0) {
+			throw new java.util.EmptyStackException();
+		}
+
+		final int top = size - 1;
+		push(kinds[top], numbers[top], objects[top]);
+		identities[size - 1] = identities[top];
+		aliased = true;
+	}
+
+	/**
+	 * Swaps the top two entries of the operand stack.
+	 *
+	 * @throws java.util.EmptyStackException
+	 *             if there are less than two entries on the operand stack
+	 */
+	private void swap() {
+		if (size < 2) {
+			throw new java.util.EmptyStackException();
+		}
+
+		final int top = size - 1;
+		final byte kind = kinds[top];
+		final double number = numbers[top];
+		final Object object = objects[top];
+		final int id = identities[top];
+
+		kinds[top] = kinds[top - 1];
+		numbers[top] = numbers[top - 1];
+		objects[top] = objects[top - 1];
+		identities[top] = identities[top - 1];
+
+		kinds[top - 1] = kind;
+		numbers[top - 1] = number;
+		objects[top - 1] = object;
+		identities[top - 1] = id;
+	}
+
+	/**
+	 * Applies the specified function. Entries of the operand stack the
+	 * function takes are wrapped into {@link ValueWrapper}s, entries that
+	 * share a identity share a wrapper, and the values left by the function
+	 * replace them on the operand stack. If the number of taken entries isn't
+	 * known the whole operand stack is passed to the function.
+	 *
+	 * @param function
+	 *            function
+	 * @param arguments
+	 *            number of entries the function takes or -1 if unknown
+	 */
+	private void applyFunction(final IFunction function, final int arguments) {
+		final Stack<ValueWrapper> stack = functionStack;
+		final int base = arguments < 0 || arguments > size ? 0 : size - arguments;
+		final int count = size - base;
+		if (wrappers.length < count) {
+			wrappers = new ValueWrapper[count];
+		}
+
+		stack.clear();
+		for (int i = 0; i < count; i++) {
+			wrappers[i] = wrapperOf(base, i);
+			stack.push(wrappers[i]);
+		}
+
+		function.apply(stack, requestContext);
+
+		final int[] inputs = Arrays.copyOfRange(identities, base, size);
+		Arrays.fill(objects, base, size, null);
+		size = base;
+
+		for (int i = 0, results = stack.size(); i < results; i++) {
+			final ValueWrapper wrapper = stack.get(i);
+			final Object value = wrapper.getValue();
+
+			if (value instanceof Double) {
+				push(NUMBER, (Double) value, null);
+			} else {
+				push(OBJECT, 0, value);
+			}
+
+			for (int j = 0; j < count; j++) {
+				if (wrappers[j] == wrapper) {
+					identities[size - 1] = inputs[j];
+					aliased = true;
+					break;
+				}
+			}
+		}
+
+		Arrays.fill(wrappers, 0, count, null);
+		stack.clear();
+	}
+
+	/**
+	 * Returns the {@link ValueWrapper} for the operand stack entry at the
+	 * specified offset from the base. Entries above the base with the same
+	 * identity get the same wrapper.
+	 *
+	 * @param base
+	 *            position of the first wrapped entry
+	 * @param offset
+	 *            offset of the entry from the base
+	 * @return wrapper of the entry
+	 */
+	private ValueWrapper wrapperOf(final int base, final int offset) {
+		final int position = base + offset;
+
+		if (aliased) {
+			for (int i = 0; i < offset; i++) {
+				if (identities[base + i] == identities[position]) {
+					return wrappers[i];
+				}
+			}
+		}
+
+		return new ValueWrapper(kinds[position] == NUMBER ? (Object) numbers[position] : objects[position]);
 	}
 
 }
@@ -36,7 +36,7 @@ public class ValueWrapper {
 	 *            provided object
 	 * @return true if valid object type, else false
 	 */
-	private boolean checkObjectType(final Object objectValue) {
+	private static boolean checkObjectType(final Object objectValue) {
 		return objectValue instanceof Integer || objectValue instanceof Double || objectValue instanceof String
 				|| objectValue == null;
 	}
@@ -63,7 +63,7 @@ public class ValueWrapper {
 	 *             If {@code objectValue} can't be interpreted as a
 	 *             {@code double}
 	 */
-	private double determineValue(final Object objectValue) {
+	static double determineValue(final Object objectValue) {
 		if (!checkObjectType(objectValue)) {
 			throw new IllegalArgumentException("Illegal object type is passed to ValueWrapper");
 		}
@@ -194,7 +194,7 @@ public class ValueWrapper {
 	 * @throws NumberFormatException
 	 *             If both parse attempts fail
 	 */
-	private double parseNumber(final Object objectValue) {
+	private static double parseNumber(final Object objectValue) {
 		try {
 			final int number = Integer.parseInt(objectValue.toString());
 			return number;
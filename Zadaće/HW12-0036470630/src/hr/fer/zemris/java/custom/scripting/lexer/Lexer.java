@@ -1,8 +1,14 @@
 package hr.fer.zemris.java.custom.scripting.lexer;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
 import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
 import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
 import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.webserver.util.Utility;
 
 /**
  * Parses text according to set rules. Tags are opened with "{$" and closed with
@@ -10,6 +16,12 @@ import hr.fer.zemris.java.custom.scripting.nodes.Node;
  * {@link EchoNode} for details. Valid escape sequences are "\n", "\r", "\t",
  * "\{" and "\\" and that is only in text, valid operations are +, -, /, *, ^.
  * Whitespace inside tags is ignored.
+ * <p>
+ * Text can be given as a {@link String} or read from a {@link Reader}. A
+ * {@link Reader} is read into a sliding buffer that keeps only the characters
+ * of the current token, so the whole text is never held in memory. The buffer
+ * grows only for tokens that don't fit into it.
+ * </p>
  * 
  * @author Nikola Bukovac
  * @version 1.0
@@ -17,9 +29,40 @@ import hr.fer.zemris.java.custom.scripting.nodes.Node;
 public class Lexer {
 
 	/**
-	 * Text specified for lexic reconstruction
+	 * Initial size of the buffer for text read from a {@link Reader}
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Number of characters before the current one that are kept in the
+	 * buffer, because a text token can start before the current character
 	 */
-	private final char[] data;
+	private static final int LOOKBEHIND = 2;
+
+	/**
+	 * Reader of the text or {@code null} if the whole text is in the buffer
+	 */
+	private final Reader reader;
+
+	/**
+	 * Buffer with the part of the text specified for lexic reconstruction
+	 */
+	private char[] data;
+
+	/**
+	 * Index in the text of the first character in the buffer
+	 */
+	private int offset;
+
+	/**
+	 * Number of characters in the buffer
+	 */
+	private int limit;
+
+	/**
+	 * Determines if the whole text was read into the buffer
+	 */
+	private boolean endOfText;
 
 	/**
 	 * Determines the number of processed characters and the index of the
@@ -45,9 +88,97 @@ public class Lexer {
 	 */
 	public Lexer(final String text) {
 		data = text.toCharArray();
+		limit = data.length;
+		endOfText = true;
+		reader = null;
+		state = LexerState.START;
+	}
+
+	/**
+	 * Constructs a new {@link Lexer} that reads the text for parsing from the
+	 * provided {@link Reader}. The reader isn't closed and errors while
+	 * reading are thrown from {@link #nextToken()} as a
+	 * {@link UncheckedIOException}.
+	 * 
+	 * @param reader
+	 *            reader of the text for parsing
+	 */
+	public Lexer(final Reader reader) {
+		Utility.checkIfNull(reader, "Parameter reader can't be null");
+
+		this.reader = reader;
+		data = new char[BUFFER_SIZE];
 		state = LexerState.START;
 	}
 
+	/**
+	 * Checks if the text has a character at the specified index, reading the
+	 * text into the buffer if needed.
+	 * 
+	 * @param index
+	 *            index of the character in the text
+	 * @return true if the character exists, else false
+	 */
+	private boolean available(final int index) {
+		while (index - offset >= limit) {
+			if (endOfText) {
+				return false;
+			}
+
+			fill();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the character at the specified index of the text. A
+	 * {@link LexerException} is thrown if the end of the text is reached.
+	 * 
+	 * @param index
+	 *            index of the character in the text
+	 * @return character at the index
+	 */
+	private char charAt(final int index) {
+		if (!available(index)) {
+			throw new LexerException("End of text reached");
+		}
+
+		return data[index - offset];
+	}
+
+	/**
+	 * Reads more of the text into the buffer. Characters before the current
+	 * token are dropped first and the buffer is enlarged only if it is full
+	 * after that. A {@link UncheckedIOException} is thrown if the reader
+	 * fails.
+	 */
+	private void fill() {
+		final int discard = Math.min(currentIndex - LOOKBEHIND - offset, limit);
+
+		if (discard > 0) {
+			System.arraycopy(data, discard, data, 0, limit - discard);
+			offset += discard;
+			limit -= discard;
+		}
+
+		if (limit == data.length) {
+			data = Arrays.copyOf(data, data.length * 2);
+		}
+
+		try {
+			final int read = reader.read(data, limit, data.length - limit);
+
+			if (read < 0) {
+				endOfText = true;
+			} else {
+				limit += read;
+			}
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
 	/**
 	 * Checks if a 'e' character is a end tag, part of text or a variable name.
 	 * Appropriate {@link Token} is created.
@@ -64,8 +195,8 @@ public class Lexer {
 			return;
 		} else if (lastTokenType != null && lastTokenType == TokenType.START_TAG) {
 
-			if (currentIndex + 2 < data.length) {
-				final String s = "" + data[currentIndex] + data[currentIndex + 1] + data[currentIndex + 2];
+			if (available(currentIndex + 2)) {
+				final String s = "" + charAt(currentIndex) + charAt(currentIndex + 1) + charAt(currentIndex + 2);
 
 				if (s.toLowerCase().equals("end")) {
 					token = new Token(TokenType.END, "");
@@ -89,7 +220,7 @@ public class Lexer {
 			token = new Token(TokenType.TEXT, getTextForToken(currentIndex));
 		} else {
 			currentIndex++;
-			if (currentIndex < data.length && data[currentIndex] == '}') {
+			if (available(currentIndex) && charAt(currentIndex) == '}') {
 				token = new Token(TokenType.END_TAG, "");
 			} else {
 				throw new LexerException("Wrong tag closing");
@@ -119,7 +250,7 @@ public class Lexer {
 	 * reached
 	 */
 	private void checkEndOfFile() {
-		if (currentIndex >= data.length) {
+		if (!available(currentIndex)) {
 			state = LexerState.EOF;
 		}
 	}
@@ -154,8 +285,8 @@ public class Lexer {
 			return;
 		} else if (lastTokenType != null && lastTokenType == TokenType.START_TAG) {
 
-			if (currentIndex + 2 < data.length) {
-				final String s = "" + data[currentIndex] + data[currentIndex + 1] + data[currentIndex + 2];
+			if (available(currentIndex + 2)) {
+				final String s = "" + charAt(currentIndex) + charAt(currentIndex + 1) + charAt(currentIndex + 2);
 
 				if (s.toLowerCase().equals("for")) {
 					token = new Token(TokenType.FOR, "");
@@ -198,8 +329,8 @@ public class Lexer {
 	 * created.
 	 */
 	private void checkMinus() {
-		if (currentIndex + 1 < data.length) {
-			if (Character.isDigit(data[currentIndex + 1])) {
+		if (available(currentIndex + 1)) {
+			if (Character.isDigit(charAt(currentIndex + 1))) {
 				currentIndex++;
 				getNumber("-");
 			} else if (token != null && token.getType() != TokenType.END_TAG
@@ -219,7 +350,7 @@ public class Lexer {
 	private void checkOpeningTag() {
 		currentIndex++;
 
-		if (data[currentIndex] == '$') {
+		if (charAt(currentIndex) == '$') {
 			if (token == null || token.getType() == TokenType.END_TAG || token.getType() == TokenType.TEXT) {
 				token = new Token(TokenType.START_TAG, "");
 
@@ -279,13 +410,12 @@ public class Lexer {
 	 */
 	private void getNumber(final String sign) {
 		final StringBuilder s = new StringBuilder();
-		final int size = data.length;
 
 		s.append(sign);
 
-		while (currentIndex < size) {
-			if (Character.isDigit(data[currentIndex]) || data[currentIndex] == '.') {
-				s.append(data[currentIndex]);
+		while (available(currentIndex)) {
+			if (Character.isDigit(charAt(currentIndex)) || charAt(currentIndex) == '.') {
+				s.append(charAt(currentIndex));
 				currentIndex++;
 			} else {
 				break;
@@ -320,22 +450,22 @@ public class Lexer {
 	private String getTextForToken(final int index) {
 		final StringBuilder s = new StringBuilder();
 
-		for (int i = index, size = data.length; i < size - 1; i++) {
-			if (data[i] == '{' && data[i + 1] == '$') {
+		for (int i = index; available(i + 1); i++) {
+			if (charAt(i) == '{' && charAt(i + 1) == '$') {
 				break;
 			}
 
-			s.append(data[i]);
+			s.append(charAt(i));
 
-			if (data[i] == '\\' && (data[i + 1] == '{' || data[i + 1] == '\\')) {
+			if (charAt(i) == '\\' && (charAt(i + 1) == '{' || charAt(i + 1) == '\\')) {
 				i++;
-				s.append(data[i]);
-			} else if (data[i] == '\\') {
-				checkEscapeSequence(data[i + 1]);
+				s.append(charAt(i));
+			} else if (charAt(i) == '\\') {
+				checkEscapeSequence(charAt(i + 1));
 			}
 
-			if (i == size - 2) {
-				s.append(data[i + 1]);
+			if (!available(i + 2)) {
+				s.append(charAt(i + 1));
 			}
 		}
 
@@ -353,22 +483,22 @@ public class Lexer {
 	private String getTokenString() {
 		final StringBuilder s = new StringBuilder();
 
-		for (int i = currentIndex, size = data.length; i < size - 1; i++) {
-			if (data[i] == '"') {
+		for (int i = currentIndex; available(i + 1); i++) {
+			if (charAt(i) == '"') {
 				break;
 			}
 
-			s.append(data[i]);
+			s.append(charAt(i));
 
-			if (data[i] == '\\' && (data[i + 1] == '"' || data[i + 1] == '\\')) {
+			if (charAt(i) == '\\' && (charAt(i + 1) == '"' || charAt(i + 1) == '\\')) {
 				i++;
-				s.append(data[i]);
-			} else if (data[i] == '\\') {
-				checkEscapeSequence(data[i + 1]);
+				s.append(charAt(i));
+			} else if (charAt(i) == '\\') {
+				checkEscapeSequence(charAt(i + 1));
 			}
 
-			if (i == size - 2) {
-				s.append(data[i + 1]);
+			if (!available(i + 2)) {
+				s.append(charAt(i + 1));
 			}
 		}
 
@@ -385,7 +515,7 @@ public class Lexer {
 	 * @return the longest possible valid variable name
 	 */
 	private String getVariableName() {
-		char c = data[currentIndex];
+		char c = charAt(currentIndex);
 
 		if (!Character.isLetter(c)) {
 			throw new LexerException("Invalid variable name");
@@ -393,11 +523,10 @@ public class Lexer {
 
 		final StringBuilder s = new StringBuilder();
 		s.append(c);
-		final int size = data.length;
 
-		while (currentIndex < size) {
+		while (available(currentIndex)) {
 			currentIndex++;
-			c = data[currentIndex];
+			c = charAt(currentIndex);
 
 			if (!variableNameChecker(c)) {
 				break;
@@ -422,12 +551,12 @@ public class Lexer {
 			throw new LexerException("You can't generate a new Token after EOF");
 		}
 
-		char character = data[currentIndex];
+		char character = charAt(currentIndex);
 		final boolean whitespaceValid = token == null || token.getType() == TokenType.END_TAG ? true : false;
 
 		while (!whitespaceValid && Character.isWhitespace(character)) {
 			currentIndex++;
-			character = data[currentIndex];
+			character = charAt(currentIndex);
 		}
 
 		character = Character.toLowerCase(character);
@@ -464,7 +593,7 @@ public class Lexer {
 			}
 			if (token != null && token.getType() != TokenType.END_TAG && token.getType() != TokenType.START_TAG
 					&& checkOperator(character)) {
-				token = new Token(TokenType.OPERATOR, data[currentIndex]);
+				token = new Token(TokenType.OPERATOR, charAt(currentIndex));
 				currentIndex++;
 				break;
 			}
@@ -0,0 +1,30 @@
+package hr.fer.zemris.java.custom.scripting.parser;
+
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+
+/**
+ * Interface used to define listeners that are notified by the
+ * {@link SmartScriptParser} about every node as soon as it is parsed, so a
+ * document can be processed while it is still being read.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface ISmartScriptListener {
+
+	/**
+	 * Called when a node is parsed. A {@link ForLoopNode} is reported when its
+	 * end tag is reached, after all its child nodes, so the reported node is
+	 * always complete. Top level nodes have the depth zero and aren't added to
+	 * the {@link DocumentNode}.
+	 *
+	 * @param node
+	 *            parsed node
+	 * @param depth
+	 *            number of for loops enclosing the node
+	 */
+	public void nodeParsed(Node node, int depth);
+}
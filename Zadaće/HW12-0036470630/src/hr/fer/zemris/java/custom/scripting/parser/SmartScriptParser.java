@@ -1,5 +1,8 @@
 package hr.fer.zemris.java.custom.scripting.parser;
 
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
 import hr.fer.zemris.java.custom.collections.ArrayIndexedCollection;
 import hr.fer.zemris.java.custom.collections.EmptyStackException;
 import hr.fer.zemris.java.custom.collections.ObjectStack;
@@ -24,7 +27,12 @@ import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
 
 /**
  * Parses a provided document using {@link Lexer} rules and returns the parsed
- * documents structure defined as a tree.
+ * documents structure defined as a tree. Nodes are added to the tree as soon as
+ * their tag is read, so a document read from a {@link Reader} never has to be
+ * held in memory as a whole. A parser constructed with a
+ * {@link ISmartScriptListener} reports every node to the listener when it is
+ * parsed and keeps only the for loops that aren't finished yet, so the
+ * document can be processed while it is read.
  * 
  * @see Lexer
  * 
@@ -58,6 +66,11 @@ public class SmartScriptParser {
 	 */
 	private final ArrayIndexedCollection tokens;
 
+	/**
+	 * Listener notified about parsed nodes or {@code null}
+	 */
+	private final ISmartScriptListener listener;
+
 	/**
 	 * Constructs a new {@link SmartScriptParser} that parses the provided
 	 * document
@@ -66,7 +79,49 @@ public class SmartScriptParser {
 	 *            document for parsing
 	 */
 	public SmartScriptParser(final String docBody) {
-		lexer = new Lexer(docBody);
+		this(new Lexer(docBody), null);
+	}
+
+	/**
+	 * Constructs a new {@link SmartScriptParser} that parses the document read
+	 * from the provided {@link Reader}. The reader isn't closed and errors
+	 * while reading are thrown as a {@link UncheckedIOException}.
+	 * 
+	 * @param reader
+	 *            reader of the document for parsing
+	 */
+	public SmartScriptParser(final Reader reader) {
+		this(new Lexer(reader), null);
+	}
+
+	/**
+	 * Constructs a new {@link SmartScriptParser} that parses the document read
+	 * from the provided {@link Reader} and reports every parsed node to the
+	 * provided listener. Top level nodes aren't added to the
+	 * {@link DocumentNode}. The reader isn't closed and errors while reading
+	 * are thrown as a {@link UncheckedIOException}.
+	 * 
+	 * @param reader
+	 *            reader of the document for parsing
+	 * @param listener
+	 *            listener notified about parsed nodes
+	 */
+	public SmartScriptParser(final Reader reader, final ISmartScriptListener listener) {
+		this(new Lexer(reader), listener);
+	}
+
+	/**
+	 * Constructs a new {@link SmartScriptParser} that parses the document
+	 * given by the provided {@link Lexer}.
+	 * 
+	 * @param lexer
+	 *            lexer of the document for parsing
+	 * @param listener
+	 *            listener notified about parsed nodes or {@code null}
+	 */
+	private SmartScriptParser(final Lexer lexer, final ISmartScriptListener listener) {
+		this.lexer = lexer;
+		this.listener = listener;
 		documentNode = new DocumentNode();
 		stack = new ObjectStack();
 		tokens = new ArrayIndexedCollection();
@@ -282,13 +337,22 @@ public class SmartScriptParser {
 
 			try {
 				if (nextNode instanceof EndNode) {
-					stack.pop();
+					final Object finishedNode = stack.pop();
+
+					if (listener != null && finishedNode instanceof ForLoopNode) {
+						listener.nodeParsed((Node) finishedNode, stack.size() - 1);
+					}
 				} else {
 					final Node topNode = (Node) stack.peek();
-					topNode.addChildNode(nextNode);
+
+					if (listener == null || topNode != documentNode) {
+						topNode.addChildNode(nextNode);
+					}
 
 					if (nextNode instanceof ForLoopNode) {
 						stack.push(nextNode);
+					} else if (listener != null) {
+						listener.nodeParsed(nextNode, stack.size() - 1);
 					}
 				}
 			} catch (final EmptyStackException e) {
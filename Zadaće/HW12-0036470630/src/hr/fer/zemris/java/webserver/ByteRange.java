@@ -0,0 +1,175 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class that represents a range of bytes of a file requested with the
+ * {@code Range} header field. Ranges are parsed with
+ * {@link #parse(String, long)}, which resolves suffix and open ended ranges
+ * against the size of the file, drops unsatisfiable ranges and merges ranges
+ * that overlap or touch, so a client can't make the server send the same bytes
+ * many times.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class ByteRange implements Comparable<ByteRange> {
+
+	/** Unit of the ranges supported by the server */
+	public static final String BYTES_UNIT = "bytes";
+
+	/** Maximum number of ranges in a request, more ranges are ignored */
+	private static final int MAX_RANGES = 16;
+
+	/** Position of the first byte */
+	private final long start;
+
+	/** Position of the last byte, inclusive */
+	private final long end;
+
+	/**
+	 * Constructs a new {@link ByteRange} with the specified positions.
+	 *
+	 * @param start
+	 *            position of the first byte
+	 * @param end
+	 *            position of the last byte, inclusive
+	 */
+	ByteRange(final long start, final long end) {
+		super();
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Parses the value of a {@code Range} header field for a file of the
+	 * specified size.
+	 *
+	 * @param value
+	 *            value of the header field
+	 * @param size
+	 *            size of the file in bytes
+	 * @return sorted satisfiable ranges, a empty list if none of the ranges is
+	 *         satisfiable or {@code null} if the value isn't valid and the
+	 *         header field should be ignored
+	 */
+	public static List<ByteRange> parse(final String value, final long size) {
+		final int equals = value.indexOf('=');
+		if (equals < 0 || !value.substring(0, equals).trim().equalsIgnoreCase(BYTES_UNIT)) {
+			return null;
+		}
+
+		final String[] specs = value.substring(equals + 1).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+
+		final List<ByteRange> ranges = new ArrayList<>(specs.length);
+
+		try {
+			for (final String spec : specs) {
+				final String trimmed = spec.trim();
+				final int dash = trimmed.indexOf('-');
+				if (dash < 0) {
+					return null;
+				}
+
+				final String first = trimmed.substring(0, dash).trim();
+				final String last = trimmed.substring(dash + 1).trim();
+
+				if (first.isEmpty()) {
+					final long suffix = Long.parseLong(last);
+					if (suffix < 0) {
+						return null;
+					} else if (suffix > 0 && size > 0) {
+						ranges.add(new ByteRange(Math.max(0, size - suffix), size - 1));
+					}
+					continue;
+				}
+
+				final long start = Long.parseLong(first);
+				final long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+				if (start < 0 || end < start) {
+					return null;
+				} else if (start < size) {
+					ranges.add(new ByteRange(start, Math.min(end, size - 1)));
+				}
+			}
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+
+		return merge(ranges);
+	}
+
+	/**
+	 * Sorts the ranges and merges the ones that overlap or touch.
+	 *
+	 * @param ranges
+	 *            ranges for merging
+	 * @return sorted ranges that don't overlap
+	 */
+	private static List<ByteRange> merge(final List<ByteRange> ranges) {
+		if (ranges.size() < 2) {
+			return ranges;
+		}
+
+		Collections.sort(ranges);
+		final List<ByteRange> merged = new ArrayList<>(ranges.size());
+		ByteRange current = ranges.get(0);
+
+		for (int i = 1, size = ranges.size(); i < size; i++) {
+			final ByteRange next = ranges.get(i);
+
+			if (next.start <= current.end + 1) {
+				current = new ByteRange(current.start, Math.max(current.end, next.end));
+			} else {
+				merged.add(current);
+				current = next;
+			}
+		}
+
+		merged.add(current);
+		return merged;
+	}
+
+	/**
+	 * @return the position of the first byte
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the position of the last byte, inclusive
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return the number of bytes in the range
+	 */
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	/**
+	 * Returns the value of the {@code Content-Range} header field for this
+	 * range of a file of the specified size.
+	 *
+	 * @param size
+	 *            size of the file in bytes
+	 * @return value of the header field
+	 */
+	public String toContentRange(final long size) {
+		return BYTES_UNIT + " " + start + "-" + end + "/" + size;
+	}
+
+	@Override
+	public int compareTo(final ByteRange other) {
+		return Long.compare(start, other.start);
+	}
+}
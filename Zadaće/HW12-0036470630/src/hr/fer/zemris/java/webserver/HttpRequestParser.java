@@ -0,0 +1,805 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Class that parses HTTP requests read from a connection. The data is read
+ * into a reusable {@link ByteBuffer} returned by {@link #buffer()} and parsed
+ * incrementally by {@link #parse()}, which continues where the previous call
+ * stopped, so a request can arrive in any number of reads. Header lines of any
+ * length up to the maximum header size are supported, and a request body is
+ * read if its length is given by the {@code Content-Length} header field.
+ * <p>
+ * The parser only remembers where the parts of the request are in the buffer.
+ * Header fields are found by comparing bytes and a {@link String} is created
+ * only for the values that are requested. After a request is served
+ * {@link #next()} moves the data read after it, such as the next pipelined
+ * request, to the start of the buffer.
+ * </p>
+ * <p>
+ * A request that isn't valid HTTP, whose header is too large or whose body is
+ * too large or isn't framed with {@code Content-Length} is parsed as a bad
+ * request, see {@link #isBad()}.
+ * </p>
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class HttpRequestParser {
+
+	/** Default maximum size of the request header */
+	public static final int DEFAULT_MAX_HEADER_SIZE = 16 * 1024;
+
+	/** Default maximum size of the request body */
+	public static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+
+	/** {@code GET} method */
+	public static final String GET = "GET";
+
+	/** {@code POST} method */
+	public static final String POST = "POST";
+
+	/** Version 1.0 of HTTP */
+	public static final String HTTP_1_0 = "HTTP/1.0";
+
+	/** Version 1.1 of HTTP */
+	public static final String HTTP_1_1 = "HTTP/1.1";
+
+	/** Initial size of the buffer */
+	private static final int INITIAL_SIZE = 2048;
+
+	/** Media type of a body with URL encoded parameters */
+	private static final String FORM_TYPE = "application/x-www-form-urlencoded";
+
+	/** State in which the request line is parsed */
+	private static final int REQUEST_LINE = 0;
+
+	/** State in which the header fields are parsed */
+	private static final int HEADER_LINE = 1;
+
+	/** State in which the body is read */
+	private static final int BODY = 2;
+
+	/** State after a complete request is parsed */
+	private static final int COMPLETE = 3;
+
+	/** State after a bad request is parsed */
+	private static final int BAD = 4;
+
+	/** Maximum size of the request header */
+	private final int maxHeaderSize;
+
+	/** Maximum size of the request body */
+	private final int maxBodySize;
+
+	/** Buffer with the read data, its position is the end of the data */
+	private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_SIZE);
+
+	/** Current state */
+	private int state = REQUEST_LINE;
+
+	/** Position up to which the data was parsed */
+	private int scanned;
+
+	/** Start of the line that is parsed */
+	private int lineStart;
+
+	/** Bounds of the method in the buffer */
+	private int methodStart, methodEnd;
+
+	/** Bounds of the request target in the buffer */
+	private int targetStart, targetEnd;
+
+	/** Bounds of the version in the buffer */
+	private int versionStart, versionEnd;
+
+	/** Start and end of the name and the value of every header field */
+	private int[] fields = new int[4 * 16];
+
+	/** Number of header fields */
+	private int fieldCount;
+
+	/** Start of the body in the buffer */
+	private int bodyStart;
+
+	/** Length of the body */
+	private int bodyLength;
+
+	/** Reason why the request is bad */
+	private String error;
+
+	/**
+	 * Constructs a new {@link HttpRequestParser} with the default maximum
+	 * sizes of the request header and body.
+	 */
+	public HttpRequestParser() {
+		this(DEFAULT_MAX_HEADER_SIZE, DEFAULT_MAX_BODY_SIZE);
+	}
+
+	/**
+	 * Constructs a new {@link HttpRequestParser} with the specified maximum
+	 * sizes of the request header and body.
+	 *
+	 * @param maxHeaderSize
+	 *            maximum size of the request header in bytes
+	 * @param maxBodySize
+	 *            maximum size of the request body in bytes
+	 * @throws IllegalArgumentException
+	 *             if a size isn't positive
+	 */
+	public HttpRequestParser(final int maxHeaderSize, final int maxBodySize) {
+		super();
+
+		if (maxHeaderSize <= 0 || maxBodySize < 0) {
+			throw new IllegalArgumentException("Maximum request sizes must be positive");
+		}
+
+		this.maxHeaderSize = maxHeaderSize;
+		this.maxBodySize = maxBodySize;
+	}
+
+	/**
+	 * Returns the buffer into which the next data should be read. The buffer
+	 * is enlarged if it is full and the maximum header size isn't reached.
+	 *
+	 * @return buffer for reading
+	 */
+	public ByteBuffer buffer() {
+		if (!buffer.hasRemaining() && buffer.capacity() < maxHeaderSize) {
+			grow(Math.min(buffer.capacity() * 2, maxHeaderSize));
+		}
+
+		return buffer;
+	}
+
+	/**
+	 * Enlarges the buffer to the specified capacity, keeping its data.
+	 *
+	 * @param capacity
+	 *            new capacity
+	 */
+	private void grow(final int capacity) {
+		final ByteBuffer larger = ByteBuffer.allocate(capacity);
+		buffer.flip();
+		larger.put(buffer);
+		buffer = larger;
+	}
+
+	/**
+	 * Checks if there is any data of the current request in the buffer.
+	 *
+	 * @return true if some data was read, else false
+	 */
+	public boolean hasData() {
+		return buffer.position() > 0;
+	}
+
+	/**
+	 * Parses the data read since the last call.
+	 *
+	 * @return true if a complete or a bad request has been parsed, false if
+	 *         more data has to be read
+	 */
+	public boolean parse() {
+		final byte[] data = buffer.array();
+		final int end = buffer.position();
+
+		while (state == REQUEST_LINE || state == HEADER_LINE) {
+			while (scanned < end && data[scanned] != '\n') {
+				scanned++;
+			}
+
+			if (scanned == end) {
+				if (end >= maxHeaderSize) {
+					return bad("Request header is too large");
+				}
+
+				return false;
+			}
+
+			final int lineEnd = scanned > lineStart && data[scanned - 1] == '\r' ? scanned - 1 : scanned;
+			scanned++;
+
+			if (scanned > maxHeaderSize) {
+				return bad("Request header is too large");
+			}
+
+			if (state == REQUEST_LINE) {
+				// empty lines before the request line are ignored
+				if (lineEnd > lineStart && !parseRequestLine(data, lineStart, lineEnd)) {
+					return true;
+				}
+			} else if (lineEnd == lineStart) {
+				if (!startBody()) {
+					return true;
+				}
+			} else if (!parseField(data, lineStart, lineEnd)) {
+				return true;
+			}
+
+			lineStart = scanned;
+		}
+
+		if (state == BODY && end - bodyStart >= bodyLength) {
+			state = COMPLETE;
+		}
+
+		return state != BODY;
+	}
+
+	/**
+	 * Marks the request as bad.
+	 *
+	 * @param reason
+	 *            reason why the request is bad
+	 * @return true
+	 */
+	private boolean bad(final String reason) {
+		state = BAD;
+		error = reason;
+		return true;
+	}
+
+	/**
+	 * Parses the request line.
+	 *
+	 * @param data
+	 *            buffer data
+	 * @param start
+	 *            start of the line
+	 * @param end
+	 *            end of the line without the line terminator
+	 * @return true if the line is valid, else false
+	 */
+	private boolean parseRequestLine(final byte[] data, final int start, final int end) {
+		methodStart = start;
+		methodEnd = skip(data, start, end, false);
+		targetStart = skip(data, methodEnd, end, true);
+		targetEnd = skip(data, targetStart, end, false);
+		versionStart = skip(data, targetEnd, end, true);
+		versionEnd = skip(data, versionStart, end, false);
+
+		if (methodEnd == methodStart || targetEnd == targetStart || versionEnd == versionStart
+				|| skip(data, versionEnd, end, true) != end) {
+			return !bad("Request line isn't valid");
+		}
+
+		state = HEADER_LINE;
+		return true;
+	}
+
+	/**
+	 * Returns the position of the first byte from {@code start} that is, or
+	 * isn't, a space or a tab.
+	 *
+	 * @param data
+	 *            buffer data
+	 * @param start
+	 *            position from which to search
+	 * @param end
+	 *            position at which to stop
+	 * @param whitespace
+	 *            true to skip whitespace, false to skip everything else
+	 * @return position of the first such byte or {@code end}
+	 */
+	private static int skip(final byte[] data, final int start, final int end, final boolean whitespace) {
+		int position = start;
+
+		while (position < end && (data[position] == ' ' || data[position] == '\t') == whitespace) {
+			position++;
+		}
+
+		return position;
+	}
+
+	/**
+	 * Parses a header field line and remembers the bounds of its name and
+	 * value.
+	 *
+	 * @param data
+	 *            buffer data
+	 * @param start
+	 *            start of the line
+	 * @param end
+	 *            end of the line without the line terminator
+	 * @return true if the line is valid, else false
+	 */
+	private boolean parseField(final byte[] data, final int start, final int end) {
+		int colon = start;
+		while (colon < end && data[colon] != ':') {
+			colon++;
+		}
+
+		if (colon == end || colon == start || data[start] == ' ' || data[start] == '\t'
+				|| data[colon - 1] == ' ' || data[colon - 1] == '\t') {
+			return !bad("Header field isn't valid");
+		}
+
+		int valueEnd = end;
+		while (valueEnd > colon + 1 && (data[valueEnd - 1] == ' ' || data[valueEnd - 1] == '\t')) {
+			valueEnd--;
+		}
+
+		if (4 * fieldCount == fields.length) {
+			final int[] larger = new int[fields.length * 2];
+			System.arraycopy(fields, 0, larger, 0, fields.length);
+			fields = larger;
+		}
+
+		final int index = 4 * fieldCount++;
+		fields[index] = start;
+		fields[index + 1] = colon;
+		fields[index + 2] = skip(data, colon + 1, valueEnd, true);
+		fields[index + 3] = valueEnd;
+		return true;
+	}
+
+	/**
+	 * Determines the length of the body after the header has been parsed and
+	 * makes room for it in the buffer.
+	 *
+	 * @return true if the body is valid, else false
+	 */
+	private boolean startBody() {
+		bodyStart = scanned;
+
+		if (findField("Transfer-Encoding") >= 0) {
+			return !bad("Request body must have a Content-Length");
+		}
+
+		final int field = findField("Content-Length");
+		if (field >= 0) {
+			final byte[] data = buffer.array();
+			long length = 0;
+
+			for (int i = fields[field + 2]; i < fields[field + 3]; i++) {
+				if (data[i] < '0' || data[i] > '9' || length > maxBodySize) {
+					return !bad("Content-Length isn't valid");
+				}
+
+				length = 10 * length + data[i] - '0';
+			}
+
+			if (fields[field + 2] == fields[field + 3]) {
+				return !bad("Content-Length isn't valid");
+			} else if (length > maxBodySize) {
+				return !bad("Request body is too large");
+			}
+
+			bodyLength = (int) length;
+		}
+
+		if (bodyStart + bodyLength > buffer.capacity()) {
+			grow(bodyStart + bodyLength);
+		}
+
+		state = BODY;
+		return true;
+	}
+
+	/**
+	 * Prepares the parser for the next request. Data read after the current
+	 * request is moved to the start of the buffer. A buffer enlarged for a
+	 * large body is replaced with a small one.
+	 */
+	public void next() {
+		final int requestEnd = state == COMPLETE ? bodyStart + bodyLength : buffer.position();
+		final int remaining = buffer.position() - requestEnd;
+
+		if (buffer.capacity() > maxHeaderSize && remaining <= INITIAL_SIZE) {
+			final ByteBuffer smaller = ByteBuffer.allocate(INITIAL_SIZE);
+			smaller.put(buffer.array(), requestEnd, remaining);
+			buffer = smaller;
+		} else {
+			System.arraycopy(buffer.array(), requestEnd, buffer.array(), 0, remaining);
+			buffer.position(remaining);
+		}
+
+		state = REQUEST_LINE;
+		scanned = 0;
+		lineStart = 0;
+		fieldCount = 0;
+		bodyStart = 0;
+		bodyLength = 0;
+		error = null;
+	}
+
+	/**
+	 * Checks if the parsed request is bad.
+	 *
+	 * @return true if the request is bad, else false
+	 */
+	public boolean isBad() {
+		return state == BAD;
+	}
+
+	/**
+	 * Returns the reason why the request is bad.
+	 *
+	 * @return reason or {@code null} if the request isn't bad
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * Returns the method of the request. Known methods are returned without
+	 * creating a new {@link String}.
+	 *
+	 * @return request method
+	 */
+	public String getMethod() {
+		return string(methodStart, methodEnd, GET, POST);
+	}
+
+	/**
+	 * Returns the HTTP version of the request. Known versions are returned
+	 * without creating a new {@link String}.
+	 *
+	 * @return HTTP version
+	 */
+	public String getVersion() {
+		return string(versionStart, versionEnd, HTTP_1_0, HTTP_1_1);
+	}
+
+	/**
+	 * Returns the path of the request target, without the query.
+	 *
+	 * @return path
+	 */
+	public String getPath() {
+		return string(targetStart, queryStart() - 1);
+	}
+
+	/**
+	 * Returns the query of the request target.
+	 *
+	 * @return query or {@code null} if the target has no query
+	 */
+	public String getQuery() {
+		final int queryStart = queryStart();
+		return queryStart > targetEnd ? null : string(queryStart, targetEnd);
+	}
+
+	/**
+	 * Returns the position after the {@code ?} that starts the query of the
+	 * request target, or the position after the target end if there is no
+	 * query.
+	 *
+	 * @return start of the query
+	 */
+	private int queryStart() {
+		final byte[] data = buffer.array();
+
+		for (int i = targetStart; i < targetEnd; i++) {
+			if (data[i] == '?') {
+				return i + 1;
+			}
+		}
+
+		return targetEnd + 1;
+	}
+
+	/**
+	 * Returns the number of header fields.
+	 *
+	 * @return number of header fields
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * Checks if the name of the header field at the specified index is the
+	 * specified name, ignoring case.
+	 *
+	 * @param index
+	 *            index of the header field
+	 * @param name
+	 *            name of a header field
+	 * @return true if the names are equal, else false
+	 */
+	public boolean isField(final int index, final String name) {
+		return equalsIgnoreCase(fields[4 * index], fields[4 * index + 1], name);
+	}
+
+	/**
+	 * Returns the value of the header field at the specified index.
+	 *
+	 * @param index
+	 *            index of the header field
+	 * @return value of the header field
+	 */
+	public String getFieldValue(final int index) {
+		return string(fields[4 * index + 2], fields[4 * index + 3]);
+	}
+
+	/**
+	 * Returns the value of the first header field with the specified name.
+	 * Names are compared ignoring case.
+	 *
+	 * @param name
+	 *            name of the header field
+	 * @return value or {@code null} if there is no such field
+	 */
+	public String getHeader(final String name) {
+		final int field = findField(name);
+		return field < 0 ? null : string(fields[field + 2], fields[field + 3]);
+	}
+
+	/**
+	 * Checks if the value of the first header field with the specified name
+	 * is the specified value, ignoring case, without creating a {@link String}
+	 * for the value.
+	 *
+	 * @param name
+	 *            name of the header field
+	 * @param value
+	 *            expected value
+	 * @return true if the field exists and has the value, else false
+	 */
+	public boolean headerEquals(final String name, final String value) {
+		final int field = findField(name);
+		return field >= 0 && equalsIgnoreCase(fields[field + 2], fields[field + 3], value);
+	}
+
+	/**
+	 * Returns the index in {@code fields} of the first header field with the
+	 * specified name.
+	 *
+	 * @param name
+	 *            name of the header field
+	 * @return index or -1 if there is no such field
+	 */
+	private int findField(final String name) {
+		for (int i = 0; i < fieldCount; i++) {
+			if (isField(i, name)) {
+				return 4 * i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Passes the value of every cookie with the specified name, from all
+	 * {@code Cookie} header fields, to the {@code action}. Quotes around the
+	 * value are removed.
+	 *
+	 * @param name
+	 *            name of the cookie
+	 * @param action
+	 *            action called with every value
+	 */
+	public void forEachCookie(final String name, final Consumer<String> action) {
+		final byte[] data = buffer.array();
+
+		for (int i = 0; i < fieldCount; i++) {
+			if (!isField(i, "Cookie")) {
+				continue;
+			}
+
+			final int end = fields[4 * i + 3];
+			for (int start = fields[4 * i + 2]; start < end;) {
+				int pairEnd = start;
+				while (pairEnd < end && data[pairEnd] != ';') {
+					pairEnd++;
+				}
+
+				final int nameStart = skip(data, start, pairEnd, true);
+				int equals = nameStart;
+				while (equals < pairEnd && data[equals] != '=') {
+					equals++;
+				}
+
+				if (equals < pairEnd && matches(data, nameStart, equals, name)) {
+					int valueStart = skip(data, equals + 1, pairEnd, true);
+					int valueEnd = pairEnd;
+					while (valueEnd > valueStart && (data[valueEnd - 1] == ' ' || data[valueEnd - 1] == '\t')) {
+						valueEnd--;
+					}
+
+					if (valueEnd - valueStart >= 2 && data[valueStart] == '"' && data[valueEnd - 1] == '"') {
+						valueStart++;
+						valueEnd--;
+					}
+
+					action.accept(string(valueStart, valueEnd));
+				}
+
+				start = pairEnd + 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns a read-only view of the request body.
+	 *
+	 * @return request body
+	 */
+	public ByteBuffer getBody() {
+		final ByteBuffer body = ByteBuffer.wrap(buffer.array(), bodyStart, bodyLength).slice();
+		return body.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Decodes the URL encoded parameters of the query and, if the body is a
+	 * form, of the body and puts them in the {@code parameters} map. A
+	 * parameter without a value gets an empty value.
+	 *
+	 * @param parameters
+	 *            map the parameters are put in
+	 */
+	public void parseParameters(final Map<String, String> parameters) {
+		final int queryStart = queryStart();
+		if (queryStart <= targetEnd) {
+			decodeParameters(queryStart, targetEnd, parameters);
+		}
+
+		final int contentType = findField("Content-Type");
+		if (bodyLength == 0 || contentType < 0) {
+			return;
+		}
+
+		// parameters of the media type, such as the charset, are ignored
+		final int typeStart = fields[contentType + 2];
+		final int typeEnd = Math.min(fields[contentType + 3], typeStart + FORM_TYPE.length());
+		if (equalsIgnoreCase(typeStart, typeEnd, FORM_TYPE)) {
+			decodeParameters(bodyStart, bodyStart + bodyLength, parameters);
+		}
+	}
+
+	/**
+	 * Decodes the URL encoded parameters between {@code start} and
+	 * {@code end} and puts them in the {@code parameters} map.
+	 *
+	 * @param start
+	 *            start of the parameters
+	 * @param end
+	 *            end of the parameters
+	 * @param parameters
+	 *            map the parameters are put in
+	 */
+	private void decodeParameters(final int start, final int end, final Map<String, String> parameters) {
+		final byte[] data = buffer.array();
+		final byte[] decoded = new byte[end - start];
+
+		for (int pairStart = start; pairStart < end;) {
+			int pairEnd = pairStart;
+			int equals = -1;
+			while (pairEnd < end && data[pairEnd] != '&') {
+				if (equals < 0 && data[pairEnd] == '=') {
+					equals = pairEnd;
+				}
+				pairEnd++;
+			}
+
+			if (pairEnd > pairStart) {
+				final int nameEnd = equals < 0 ? pairEnd : equals;
+				final String name = decode(data, pairStart, nameEnd, decoded);
+				final String value = equals < 0 ? "" : decode(data, equals + 1, pairEnd, decoded);
+				parameters.put(name, value);
+			}
+
+			pairStart = pairEnd + 1;
+		}
+	}
+
+	/**
+	 * Decodes a URL encoded value as UTF-8. Percent signs that aren't followed
+	 * by two hexadecimal digits are kept.
+	 *
+	 * @param data
+	 *            buffer data
+	 * @param start
+	 *            start of the value
+	 * @param end
+	 *            end of the value
+	 * @param decoded
+	 *            array used for the decoded bytes
+	 * @return decoded value
+	 */
+	private static String decode(final byte[] data, final int start, final int end, final byte[] decoded) {
+		int length = 0;
+
+		for (int i = start; i < end; i++) {
+			final byte b = data[i];
+
+			if (b == '+') {
+				decoded[length++] = ' ';
+			} else if (b == '%' && i + 2 < end && Character.digit(data[i + 1], 16) >= 0
+					&& Character.digit(data[i + 2], 16) >= 0) {
+				decoded[length++] = (byte) (Character.digit(data[i + 1], 16) << 4 | Character.digit(data[i + 2], 16));
+				i += 2;
+			} else {
+				decoded[length++] = b;
+			}
+		}
+
+		return new String(decoded, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Creates a {@link String} from the bytes between {@code start} and
+	 * {@code end}, decoded as UTF-8. If the bytes match one of the
+	 * {@code known} strings that string is returned instead.
+	 *
+	 * @param start
+	 *            start of the bytes
+	 * @param end
+	 *            end of the bytes
+	 * @param known
+	 *            known strings
+	 * @return created or known string
+	 */
+	private String string(final int start, final int end, final String... known) {
+		for (final String string : known) {
+			if (matches(buffer.array(), start, end, string)) {
+				return string;
+			}
+		}
+
+		return new String(buffer.array(), start, end - start, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Checks if the bytes between {@code start} and {@code end} are the ASCII
+	 * characters of the {@code string}.
+	 *
+	 * @param data
+	 *            buffer data
+	 * @param start
+	 *            start of the bytes
+	 * @param end
+	 *            end of the bytes
+	 * @param string
+	 *            ASCII string
+	 * @return true if the bytes match, else false
+	 */
+	private static boolean matches(final byte[] data, final int start, final int end, final String string) {
+		if (end - start != string.length()) {
+			return false;
+		}
+
+		for (int i = 0; i < string.length(); i++) {
+			if (data[start + i] != string.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks if the bytes between {@code start} and {@code end} are the ASCII
+	 * characters of the {@code string}, ignoring case.
+	 *
+	 * @param start
+	 *            start of the bytes
+	 * @param end
+	 *            end of the bytes
+	 * @param string
+	 *            ASCII string
+	 * @return true if the bytes match, else false
+	 */
+	private boolean equalsIgnoreCase(final int start, final int end, final String string) {
+		if (end - start != string.length()) {
+			return false;
+		}
+
+		final byte[] data = buffer.array();
+		for (int i = 0; i < string.length(); i++) {
+			final int b = data[start + i];
+			final int c = string.charAt(i);
+
+			if (b != c && Character.toLowerCase(b) != Character.toLowerCase(c)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
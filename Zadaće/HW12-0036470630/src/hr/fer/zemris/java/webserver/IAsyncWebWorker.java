@@ -0,0 +1,38 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface used to define web workers that create their response
+ * asynchronously. The worker starts the work and returns a
+ * {@link CompletableFuture} right away, so the server thread that called it
+ * can serve other connections while the work is done. The worker can write to
+ * the {@link RequestContext} from any thread until the future completes, the
+ * server then finishes the response. If the future completes exceptionally the
+ * connection is closed.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public interface IAsyncWebWorker extends IWebWorker {
+
+	/**
+	 * Starts processing the specified {@link RequestContext}. Everything has to
+	 * be written to the context before the returned future completes.
+	 *
+	 * @param context
+	 *            {@link RequestContext} we are using for header creation and
+	 *            content writing
+	 * @return future that completes when the response is written
+	 */
+	public CompletableFuture<Void> processRequestAsync(RequestContext context);
+
+	/**
+	 * {@inheritDoc} <br>
+	 * Waits until the asynchronous processing completes.
+	 */
+	@Override
+	public default void processRequest(final RequestContext context) {
+		processRequestAsync(context).join();
+	}
+}
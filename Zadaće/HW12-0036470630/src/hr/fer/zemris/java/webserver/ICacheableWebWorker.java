@@ -0,0 +1,25 @@
+package hr.fer.zemris.java.webserver;
+
+/**
+ * Interface used to define web workers whose response depends only on the
+ * request path and the parameters from the URL query. The server keeps the
+ * successful responses of such workers to GET requests in the
+ * {@link ResponseCache} and serves repeated requests with the same parameters
+ * without calling the worker, until the response expires. Requests with other
+ * methods or with a body always call the worker, and responses that set
+ * cookies aren't cached.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public interface ICacheableWebWorker extends IWebWorker {
+
+	/**
+	 * Returns the number of seconds a response of this worker can be served
+	 * from the cache.
+	 *
+	 * @return time to live of a cached response in seconds, zero or less if
+	 *         responses shouldn't be cached
+	 */
+	public int getCacheTimeout();
+}
@@ -0,0 +1,67 @@
+package hr.fer.zemris.java.webserver;
+
+/**
+ * Interface used to define a store of the {@link SmartHTTPServer} client
+ * sessions. A session expires when it isn't used for the configured timeout,
+ * every use extends it. Implementations can be used by multiple threads at
+ * once.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public interface ISessionStore {
+
+	/**
+	 * Returns the valid session with the specified id and extends it, or
+	 * {@code null} if there is no such session.
+	 *
+	 * @param sid
+	 *            session id
+	 * @return session or {@code null}
+	 */
+	public Session get(String sid);
+
+	/**
+	 * Creates a new session with the specified id.
+	 *
+	 * @param sid
+	 *            session id
+	 * @return created session or {@code null} if there already is a session
+	 *         with the specified id
+	 */
+	public Session create(String sid);
+
+	/**
+	 * Stores the changes made to the persistent parameters of the specified
+	 * session.
+	 *
+	 * @param session
+	 *            changed session
+	 */
+	public void save(Session session);
+
+	/**
+	 * Removes all expired sessions. Should be called periodically.
+	 */
+	public void removeExpired();
+
+	/**
+	 * @return the number of live sessions
+	 */
+	public int size();
+
+	/**
+	 * @return the number of created sessions
+	 */
+	public long getCreatedSessions();
+
+	/**
+	 * @return the number of expired sessions
+	 */
+	public long getExpiredSessions();
+
+	/**
+	 * @return the number of sessions evicted because the maximum was reached
+	 */
+	public long getEvictedSessions();
+}
@@ -0,0 +1,392 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class that implements {@link ISessionStore} by keeping the sessions in
+ * memory, like the {@link MemorySessionStore}, and recording every change to
+ * a append log in a memory mapped file. Sessions in the log are restored when
+ * the store is constructed, so sessions survive a restart of the server.
+ * Records are written to the mapped memory without a system call and are kept
+ * by the operating system even if the server process is killed.
+ * <p>
+ * Every record starts with its length, a zero length marks the end of the log.
+ * A record either stores a whole session, the new expiry time of a extended
+ * session or the removal of a session. Expiry times are only recorded when a
+ * session was extended by more than a tenth of the timeout since the last
+ * record, so most requests don't write to the log. When the log is full or
+ * when it has grown several times larger than the live sessions it is
+ * compacted, the live sessions are written to a new log which replaces the old
+ * one. The log is grown if the live sessions take up more than half of it.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class MappedSessionStore extends MemorySessionStore {
+
+	/** Record that stores a whole session */
+	private static final byte SESSION = 1;
+
+	/** Record that stores the expiry time of a session */
+	private static final byte EXTEND = 2;
+
+	/** Record that stores the removal of a session */
+	private static final byte REMOVE = 3;
+
+	/** Magic number at the start of the log */
+	private static final int MAGIC = 0x534C4F47;
+
+	/** Size of the log header */
+	private static final int HEADER_SIZE = 4;
+
+	/**
+	 * Ratio of the log size to the size of the live sessions at which the log
+	 * is compacted by {@link #removeExpired()}
+	 */
+	private static final int COMPACTION_RATIO = 4;
+
+	/** Path of the log */
+	private final Path path;
+
+	/** Mapped log, guarded by this object */
+	private MappedByteBuffer log;
+
+	/** Size in bytes of the live sessions written by the last compaction */
+	private int liveSize;
+
+	/** Expiry times of the sessions as they were last recorded */
+	private final Map<Session, Long> recorded = new HashMap<>();
+
+	/**
+	 * Constructs a new {@link MappedSessionStore} with the specified values
+	 * and restores the sessions from the log at the specified path. If there
+	 * is no log a new one is created.
+	 *
+	 * @param timeout
+	 *            time in milliseconds a unused session stays valid
+	 * @param maxSessions
+	 *            maximum number of sessions or zero if the number isn't
+	 *            limited
+	 * @param path
+	 *            path of the log
+	 * @param size
+	 *            initial size of the log in bytes
+	 * @throws IOException
+	 *             if the log can't be read or created
+	 * @throws IllegalArgumentException
+	 *             if the timeout isn't positive, the maximum is negative or the
+	 *             size is smaller than the log header
+	 */
+	public MappedSessionStore(final long timeout, final int maxSessions, final Path path, final int size)
+			throws IOException {
+		super(timeout, maxSessions);
+
+		if (size <= HEADER_SIZE) {
+			throw new IllegalArgumentException("Session log size is too small");
+		}
+
+		this.path = path.toAbsolutePath();
+		if (Files.exists(this.path)) {
+			restoreLog();
+		}
+
+		final long existing = Files.exists(this.path) ? Files.size(this.path) : 0;
+		synchronized (this) {
+			compact((int) Math.max(size, Math.min(existing, Integer.MAX_VALUE)));
+		}
+	}
+
+	/**
+	 * Reads the log and restores the sessions from it. Reading stops at the
+	 * end of the log or at the first incomplete record.
+	 *
+	 * @throws IOException
+	 *             if the log can't be read
+	 */
+	private void restoreLog() throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+			System.err.println("Session log " + path + " isn't valid, sessions won't be restored");
+			return;
+		}
+
+		final Map<String, Long> expiries = new LinkedHashMap<>();
+		final Map<String, Map<String, String>> parameters = new HashMap<>();
+
+		try {
+			int length;
+			while (buffer.remaining() >= Integer.BYTES && (length = buffer.getInt()) > 0) {
+				final ByteBuffer record = buffer.slice();
+				record.limit(length);
+				buffer.position(buffer.position() + length);
+
+				final byte type = record.get();
+				final String sid = readString(record);
+
+				if (type == SESSION) {
+					expiries.put(sid, record.getLong());
+					final Map<String, String> map = new HashMap<>();
+					for (int i = 0, count = record.getInt(); i < count; i++) {
+						map.put(readString(record), readString(record));
+					}
+					parameters.put(sid, map);
+				} else if (type == EXTEND && expiries.containsKey(sid)) {
+					expiries.put(sid, record.getLong());
+				} else if (type == REMOVE) {
+					expiries.remove(sid);
+					parameters.remove(sid);
+				}
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+			System.err.println("Session log " + path + " ends with a incomplete record");
+		}
+
+		for (final Map.Entry<String, Long> entry : expiries.entrySet()) {
+			restore(entry.getKey(), entry.getValue(), parameters.get(entry.getKey()));
+		}
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 *
+	 * @param buffer
+	 *            buffer for reading
+	 * @return read string
+	 */
+	private static String readString(final ByteBuffer buffer) {
+		final byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the specified string as its length followed by its UTF-8 bytes.
+	 *
+	 * @param out
+	 *            stream the string is written to
+	 * @param string
+	 *            string for writing
+	 * @throws IOException
+	 *             if the string can't be written
+	 */
+	private static void writeString(final DataOutputStream out, final String string) throws IOException {
+		final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	@Override
+	protected void created(final Session session) {
+		append(sessionRecord(session));
+	}
+
+	@Override
+	protected void extended(final Session session) {
+		final long validUntil = session.getValidUntil();
+
+		synchronized (this) {
+			final Long last = recorded.get(session);
+			if (last != null && validUntil - last <= getTimeout() / 10) {
+				return;
+			}
+		}
+
+		append(record(EXTEND, session, out -> out.writeLong(validUntil)));
+	}
+
+	@Override
+	public void save(final Session session) {
+		append(sessionRecord(session));
+	}
+
+	@Override
+	protected void removed(final Session session) {
+		append(record(REMOVE, session, out -> {
+		}));
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * The log is compacted if it has grown several times larger than the
+	 * live sessions.
+	 */
+	@Override
+	public void removeExpired() {
+		super.removeExpired();
+
+		synchronized (this) {
+			if (log.position() > COMPACTION_RATIO * Math.max(liveSize, log.capacity() / (2 * COMPACTION_RATIO))) {
+				compactQuietly(log.capacity());
+			}
+		}
+	}
+
+	/**
+	 * Interface used to write the content of a record.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	@FunctionalInterface
+	private interface RecordContent {
+
+		/**
+		 * Writes the content of a record.
+		 *
+		 * @param out
+		 *            stream the content is written to
+		 * @throws IOException
+		 *             if the content can't be written
+		 */
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Creates a record of the specified type for the specified session.
+	 *
+	 * @param type
+	 *            type of the record
+	 * @param session
+	 *            session
+	 * @param content
+	 *            content written after the session id
+	 * @return record with its length
+	 */
+	private byte[] record(final byte type, final Session session, final RecordContent content) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(0);
+			out.writeByte(type);
+			writeString(out, session.getSid());
+			content.write(out);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		final byte[] record = bytes.toByteArray();
+		ByteBuffer.wrap(record).putInt(record.length - Integer.BYTES);
+
+		if (type == REMOVE) {
+			synchronized (this) {
+				recorded.remove(session);
+			}
+		} else {
+			final long validUntil = session.getValidUntil();
+			synchronized (this) {
+				recorded.put(session, validUntil);
+			}
+		}
+
+		return record;
+	}
+
+	/**
+	 * Creates a record that stores the whole specified session.
+	 *
+	 * @param session
+	 *            session
+	 * @return record with its length
+	 */
+	private byte[] sessionRecord(final Session session) {
+		final List<Map.Entry<String, String>> parameters;
+		synchronized (session.getMap()) {
+			parameters = new ArrayList<>(session.getMap().entrySet());
+		}
+
+		return record(SESSION, session, out -> {
+			out.writeLong(session.getValidUntil());
+			out.writeInt(parameters.size());
+			for (final Map.Entry<String, String> parameter : parameters) {
+				writeString(out, parameter.getKey());
+				writeString(out, parameter.getValue());
+			}
+		});
+	}
+
+	/**
+	 * Appends the specified record to the log. If the record doesn't fit, the
+	 * log is compacted and grown if needed.
+	 *
+	 * @param record
+	 *            record with its length
+	 */
+	private synchronized void append(final byte[] record) {
+		if (log.remaining() < record.length + Integer.BYTES) {
+			compactQuietly(Math.max(log.capacity(), 2 * (liveSize + record.length + Integer.BYTES)));
+
+			if (log.remaining() < record.length + Integer.BYTES) {
+				System.err.println("Session log is full, session change isn't recorded");
+				return;
+			}
+		}
+
+		log.put(record);
+	}
+
+	/**
+	 * Compacts the log and reports a error if the log can't be written. The
+	 * sessions are still kept in memory.
+	 *
+	 * @param size
+	 *            minimum size of the new log
+	 */
+	private void compactQuietly(final int size) {
+		try {
+			compact(size);
+		} catch (final IOException e) {
+			System.err.println("Couldn't compact the session log: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes the live sessions to a new log and replaces the old log with it.
+	 * The new log is at least twice as large as the live sessions. Must be
+	 * called while holding the lock of this object.
+	 *
+	 * @param size
+	 *            minimum size of the new log
+	 * @throws IOException
+	 *             if the new log can't be written
+	 */
+	private void compact(final int size) throws IOException {
+		final ByteArrayOutputStream live = new ByteArrayOutputStream();
+		for (final Session session : sessions()) {
+			live.write(sessionRecord(session));
+		}
+
+		final Path temporary = Paths.get(path + ".tmp");
+		final int capacity = Math.max(size, 2 * (HEADER_SIZE + live.size()) + Integer.BYTES);
+
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final MappedByteBuffer mapped = channel.map(MapMode.READ_WRITE, 0, capacity);
+			mapped.putInt(MAGIC);
+			mapped.put(live.toByteArray());
+			mapped.force();
+
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log = mapped;
+			liveSize = live.size();
+		}
+	}
+}
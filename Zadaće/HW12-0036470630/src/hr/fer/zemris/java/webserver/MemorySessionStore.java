@@ -0,0 +1,326 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Class that implements {@link ISessionStore} by keeping the sessions in
+ * memory, they are lost when the server stops. Sessions can be looked up,
+ * created and used by multiple threads at once, lookups don't block.
+ * <p>
+ * Expired sessions are removed by {@link #removeExpired()}, which should be
+ * called periodically, and when they are looked up. Sessions are also kept in
+ * a priority queue ordered by the time they were valid until when they were
+ * queued. A session that was used after it was queued is queued again when it
+ * reaches the head of the queue instead of being removed, so the queue holds
+ * one entry per session. If the maximum number of sessions is reached, the
+ * session that wasn't used for the longest time is evicted to make room for a
+ * new one.
+ * <p>
+ * Subclasses can persist the sessions by overriding the methods called when a
+ * session is created, extended, saved or removed.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class MemorySessionStore implements ISessionStore {
+
+	/**
+	 * Class that represents a entry of the expiry queue.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	private static class Expiry implements Comparable<Expiry> {
+
+		/** Queued session */
+		private final Session session;
+
+		/** Time the session was valid until when it was queued */
+		private final long validUntil;
+
+		/**
+		 * Constructs a new {@link Expiry} for the specified session.
+		 *
+		 * @param session
+		 *            queued session
+		 */
+		Expiry(final Session session) {
+			super();
+			this.session = session;
+			this.validUntil = session.getValidUntil();
+		}
+
+		@Override
+		public int compareTo(final Expiry other) {
+			return Long.compare(validUntil, other.validUntil);
+		}
+	}
+
+	/** Sessions under their ids */
+	private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+	/** Expiry queue, guarded by itself */
+	private final PriorityQueue<Expiry> expiries = new PriorityQueue<>();
+
+	/** Time in milliseconds a unused session stays valid */
+	private final long timeout;
+
+	/** Maximum number of sessions or zero if the number isn't limited */
+	private final int maxSessions;
+
+	/** Clock that returns the current time in milliseconds */
+	private final LongSupplier clock;
+
+	/** Number of created sessions */
+	private final AtomicLong created = new AtomicLong();
+
+	/** Number of expired sessions */
+	private final AtomicLong expired = new AtomicLong();
+
+	/** Number of sessions evicted because the maximum was reached */
+	private final AtomicLong evicted = new AtomicLong();
+
+	/**
+	 * Constructs a new {@link MemorySessionStore} with the specified timeout and
+	 * maximum number of sessions.
+	 *
+	 * @param timeout
+	 *            time in milliseconds a unused session stays valid
+	 * @param maxSessions
+	 *            maximum number of sessions or zero if the number isn't
+	 *            limited
+	 * @throws IllegalArgumentException
+	 *             if the timeout isn't positive or the maximum is negative
+	 */
+	public MemorySessionStore(final long timeout, final int maxSessions) {
+		this(timeout, maxSessions, System::currentTimeMillis);
+	}
+
+	/**
+	 * Constructs a new {@link MemorySessionStore} with the specified timeout,
+	 * maximum number of sessions and clock.
+	 *
+	 * @param timeout
+	 *            time in milliseconds a unused session stays valid
+	 * @param maxSessions
+	 *            maximum number of sessions or zero if the number isn't
+	 *            limited
+	 * @param clock
+	 *            clock that returns the current time in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if the timeout isn't positive or the maximum is negative
+	 */
+	MemorySessionStore(final long timeout, final int maxSessions, final LongSupplier clock) {
+		super();
+
+		if (timeout <= 0 || maxSessions < 0) {
+			throw new IllegalArgumentException("Session timeout has to be positive and maximum can't be negative");
+		}
+
+		this.timeout = timeout;
+		this.maxSessions = maxSessions;
+		this.clock = clock;
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * A expired session is removed.
+	 */
+	@Override
+	public Session get(final String sid) {
+		final Session session = sessions.get(sid);
+		if (session == null) {
+			return null;
+		}
+
+		final long now = clock.getAsLong();
+		if (session.getValidUntil() <= now) {
+			if (sessions.remove(sid, session)) {
+				expired.incrementAndGet();
+				removed(session);
+			}
+			return null;
+		}
+
+		session.setValidUntil(now + timeout);
+		if (sessions.get(sid) != session) {
+			return null;
+		}
+
+		extended(session);
+		return session;
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * If the maximum number of sessions is reached, expired sessions are
+	 * removed and if there are none the session that wasn't used for the
+	 * longest time is evicted.
+	 */
+	@Override
+	public Session create(final String sid) {
+		final Session session = new Session(sid, clock.getAsLong() + timeout);
+
+		synchronized (expiries) {
+			if (sessions.putIfAbsent(sid, session) != null) {
+				return null;
+			}
+
+			if (maxSessions > 0 && sessions.size() > maxSessions) {
+				removeExpired();
+
+				while (sessions.size() > maxSessions && evictOldest()) {
+					evicted.incrementAndGet();
+				}
+			}
+
+			expiries.add(new Expiry(session));
+			created(session);
+		}
+
+		created.incrementAndGet();
+		return session;
+	}
+
+	/**
+	 * Adds a session that was stored before, for example by a previous run of
+	 * the server. Expired sessions aren't added.
+	 *
+	 * @param sid
+	 *            session id
+	 * @param validUntil
+	 *            time in milliseconds the session is valid until
+	 * @param parameters
+	 *            persistent parameters of the session
+	 */
+	protected void restore(final String sid, final long validUntil, final Map<String, String> parameters) {
+		if (validUntil <= clock.getAsLong()) {
+			return;
+		}
+
+		final Session session = new Session(sid, validUntil);
+		session.getMap().putAll(parameters);
+
+		synchronized (expiries) {
+			if (sessions.putIfAbsent(sid, session) == null) {
+				expiries.add(new Expiry(session));
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc} <br>
+	 * Sessions are kept in memory, so there is nothing to store.
+	 */
+	@Override
+	public void save(final Session session) {
+	}
+
+	/**
+	 * Called after a session is created, while holding the lock of the expiry
+	 * queue.
+	 *
+	 * @param session
+	 *            created session
+	 */
+	protected void created(final Session session) {
+	}
+
+	/**
+	 * Called after a session is extended because it was used.
+	 *
+	 * @param session
+	 *            extended session
+	 */
+	protected void extended(final Session session) {
+	}
+
+	/**
+	 * Called after a session is removed because it expired or was evicted.
+	 *
+	 * @param session
+	 *            removed session
+	 */
+	protected void removed(final Session session) {
+	}
+
+	/**
+	 * Returns all live sessions.
+	 *
+	 * @return live sessions
+	 */
+	protected Iterable<Session> sessions() {
+		return sessions.values();
+	}
+
+	/**
+	 * @return the time in milliseconds a unused session stays valid
+	 */
+	protected long getTimeout() {
+		return timeout;
+	}
+
+	@Override
+	public void removeExpired() {
+		final long now = clock.getAsLong();
+
+		synchronized (expiries) {
+			Expiry head;
+			while ((head = expiries.peek()) != null && head.validUntil <= now) {
+				expiries.poll();
+
+				if (head.session.getValidUntil() > now) {
+					expiries.add(new Expiry(head.session));
+				} else if (sessions.remove(head.session.getSid(), head.session)) {
+					expired.incrementAndGet();
+					removed(head.session);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the session that wasn't used for the longest time. Must be
+	 * called while holding the lock of the expiry queue.
+	 *
+	 * @return {@code true} if a session was removed
+	 */
+	private boolean evictOldest() {
+		Expiry head;
+		while ((head = expiries.poll()) != null) {
+			if (head.session.getValidUntil() != head.validUntil) {
+				expiries.add(new Expiry(head.session));
+			} else if (sessions.remove(head.session.getSid(), head.session)) {
+				removed(head.session);
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return sessions.size();
+	}
+
+	@Override
+	public long getCreatedSessions() {
+		return created.get();
+	}
+
+	@Override
+	public long getExpiredSessions() {
+		return expired.get();
+	}
+
+	@Override
+	public long getEvictedSessions() {
+		return evicted.get();
+	}
+}
@@ -0,0 +1,213 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import hr.fer.zemris.java.webserver.util.LatencyHistogram;
+
+/**
+ * Class that collects the request metrics of a {@link SmartHTTPServer}: the
+ * number of requests and their latency for every kind of route, the number of
+ * responses for every class of status codes and the number of requests that
+ * are being served. All metrics are updated without locking, so the workers
+ * don't wait for each other.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class MetricsRegistry {
+
+	/**
+	 * Kinds of routes a request can be served by.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	public enum Route {
+
+		/** Static file from the document root */
+		STATIC,
+
+		/** Worker configured in the workers configuration */
+		WORKER,
+
+		/** Worker from the {@code /ext/} path */
+		EXT_WORKER,
+
+		/** Smart script */
+		SCRIPT,
+
+		/** Request that wasn't routed, because it is bad or not allowed */
+		REJECTED;
+
+		/** Name of the route used in the reports */
+		private final String label = name().toLowerCase();
+
+		/**
+		 * @return the name of the route used in the reports
+		 */
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	/** Number of status code classes, from 1xx to 5xx */
+	private static final int STATUS_CLASSES = 5;
+
+	/** Number of served requests for every route */
+	private final LongAdder[] requests = new LongAdder[Route.values().length];
+
+	/** Latencies in nanoseconds for every route */
+	private final LatencyHistogram[] latencies = new LatencyHistogram[Route.values().length];
+
+	/** Number of responses for every status code class */
+	private final LongAdder[] responses = new LongAdder[STATUS_CLASSES];
+
+	/** Number of requests that failed with a exception */
+	private final LongAdder failures = new LongAdder();
+
+	/** Number of requests that are being served */
+	private final LongAdder active = new LongAdder();
+
+	/** Number of connections rejected because the server was overloaded */
+	private final LongAdder rejectedConnections = new LongAdder();
+
+	/** Time in milliseconds the registry was created at */
+	private final long startTime = System.currentTimeMillis();
+
+	/**
+	 * Constructs a new {@link MetricsRegistry} without any recorded requests.
+	 */
+	public MetricsRegistry() {
+		super();
+
+		for (int i = 0; i < requests.length; i++) {
+			requests[i] = new LongAdder();
+			latencies[i] = new LatencyHistogram();
+		}
+
+		for (int i = 0; i < responses.length; i++) {
+			responses[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Records the start of a request.
+	 *
+	 * @return time in nanoseconds the request started at, used to record its
+	 *         end
+	 */
+	public long requestStarted() {
+		active.increment();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the end of a request.
+	 *
+	 * @param route
+	 *            route that served the request or {@code null} if the request
+	 *            failed before it was routed
+	 * @param statusCode
+	 *            status code of the response or zero if there was no response
+	 * @param startTime
+	 *            time returned by {@link #requestStarted()}
+	 * @param failed
+	 *            true if the request failed with a exception, false otherwise
+	 */
+	public void requestFinished(final Route route, final int statusCode, final long startTime,
+			final boolean failed) {
+		final long latency = System.nanoTime() - startTime;
+		active.decrement();
+
+		final int index = (route == null ? Route.REJECTED : route).ordinal();
+		requests[index].increment();
+		latencies[index].record(latency);
+
+		final int statusClass = statusCode / 100 - 1;
+		if (statusClass >= 0 && statusClass < STATUS_CLASSES) {
+			responses[statusClass].increment();
+		}
+
+		if (failed) {
+			failures.increment();
+		}
+	}
+
+	/**
+	 * Records a connection that was rejected because the server was
+	 * overloaded.
+	 */
+	public void connectionRejected() {
+		rejectedConnections.increment();
+	}
+
+	/**
+	 * Returns the number of served requests for the specified route.
+	 *
+	 * @param route
+	 *            route
+	 * @return number of requests
+	 */
+	public long getRequests(final Route route) {
+		return requests[route.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the latencies in nanoseconds of the requests for the specified
+	 * route.
+	 *
+	 * @param route
+	 *            route
+	 * @return latency histogram
+	 */
+	public LatencyHistogram getLatencies(final Route route) {
+		return latencies[route.ordinal()];
+	}
+
+	/**
+	 * Returns the number of responses with a status code from the specified
+	 * class, for example 2 for the 2xx status codes.
+	 *
+	 * @param statusClass
+	 *            class of status codes, from 1 to 5
+	 * @return number of responses
+	 * @throws IllegalArgumentException
+	 *             if the class isn't between 1 and 5
+	 */
+	public long getResponses(final int statusClass) {
+		if (statusClass < 1 || statusClass > STATUS_CLASSES) {
+			throw new IllegalArgumentException("Status code class has to be between 1 and " + STATUS_CLASSES);
+		}
+
+		return responses[statusClass - 1].sum();
+	}
+
+	/**
+	 * @return the number of requests that failed with a exception
+	 */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * @return the number of requests that are being served
+	 */
+	public long getActive() {
+		return active.sum();
+	}
+
+	/**
+	 * @return the number of connections rejected because the server was
+	 *         overloaded
+	 */
+	public long getRejectedConnections() {
+		return rejectedConnections.sum();
+	}
+
+	/**
+	 * @return the time in milliseconds since the registry was created
+	 */
+	public long getUptime() {
+		return System.currentTimeMillis() - startTime;
+	}
+}
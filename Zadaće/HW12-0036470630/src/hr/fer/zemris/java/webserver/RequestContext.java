@@ -1,22 +1,60 @@
 package hr.fer.zemris.java.webserver;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
+import hr.fer.zemris.java.webserver.util.BufferPool;
 import hr.fer.zemris.java.webserver.util.Utility;
 
 /**
  * Class that contains information about HTTP headers. Used to create a HTTP
  * header and to write content to the output stream. Allows usage of a cookie
  * mechanism used for creating sessions with the client.
+ * <p>
+ * If the server keeps the connection open after the response, the content is
+ * framed either with the {@code Content-Length} header, when the length is
+ * known in advance, or with the chunked transfer encoding.
+ * </p>
+ * <p>
+ * Files are written with {@link #write(FileChannel, long, long)} without
+ * loading them into memory. If the channel of the connection is known the
+ * data is transferred by the operating system, otherwise it is copied through
+ * a pooled direct buffer.
+ * </p>
+ * <p>
+ * The server attaches a reusable output buffer to the context with
+ * {@link #setOutputBuffer(ByteBuffer)}. Header, text and bytes are then
+ * collected in the buffer, text is encoded directly into it, and the buffer is
+ * written to the output stream only when it is full, on {@link #flush()} or
+ * when the response is finished. Chunked content is framed in the buffer, so
+ * every written buffer is one chunk. Without a output buffer every write goes
+ * directly to the output stream.
+ * </p>
+ * <p>
+ * Content whose length isn't known in advance and whose MIME type is
+ * compressible is compressed with the content encoding accepted by the client,
+ * set with {@link #setCompression(String, Set)}. The compressed output is then
+ * written as any other content.
+ * </p>
  * 
  * @author Nikola Bukovac
  * @version 1.0
@@ -130,9 +168,57 @@ public class RequestContext {
 	/** Default mime type */
 	public static final String DEFAULT_MIME_TYPE = "text/html";
 
+	/** Name of the gzip content encoding */
+	public static final String GZIP_ENCODING = "gzip";
+
+	/** Name of the deflate content encoding */
+	public static final String DEFLATE_ENCODING = "deflate";
+
+	/** Name of the header field with the content encoding */
+	public static final String CONTENT_ENCODING = "Content-Encoding";
+
+	/** Name of the header field with the fields a response varies by */
+	private static final String VARY = "Vary";
+
+	/** Size of the buffer used by the compressing output stream */
+	private static final int COMPRESSION_BUFFER_SIZE = 4096;
+
 	/** Newline delimiter */
 	private static final String NEWLINE = "\r\n";
 
+	/** Status code of a response without content */
+	private static final int NO_CONTENT_CODE = 204;
+
+	/** Status code of a response to a conditional request without content */
+	private static final int NOT_MODIFIED_CODE = 304;
+
+	/** Newline delimiter as bytes, used for chunk framing */
+	private static final byte[] NEWLINE_BYTES = NEWLINE.getBytes(StandardCharsets.ISO_8859_1);
+
+	/** Chunk that marks the end of chunked content */
+	private static final byte[] LAST_CHUNK = ("0" + NEWLINE + NEWLINE).getBytes(StandardCharsets.ISO_8859_1);
+
+	/** Size of the buffers used for copying files */
+	private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+	/** Pool of direct buffers used for copying files */
+	private static final BufferPool FILE_BUFFERS = new BufferPool(FILE_BUFFER_SIZE, 32, true);
+
+	/**
+	 * Space reserved in the output buffer in front of chunked content for the
+	 * chunk size line, eight hexadecimal digits and a new line
+	 */
+	private static final int CHUNK_PREFIX_SIZE = 8 + NEWLINE_BYTES.length;
+
+	/**
+	 * Space reserved in the output buffer after chunked content for the new
+	 * line that ends the chunk and for the last chunk
+	 */
+	private static final int CHUNK_SUFFIX_SIZE = NEWLINE_BYTES.length + LAST_CHUNK.length;
+
+	/** Minimum size of the output buffer */
+	private static final int MIN_OUTPUT_BUFFER_SIZE = 256;
+
 	// member variables
 
 	/** {@link OutputStream} to which we write */
@@ -168,6 +254,71 @@ public class RequestContext {
 	/** Flag that determine if the header has been generated */
 	private boolean headerGenerated;
 
+	/** Flag that determines if the response has been finished */
+	private boolean finished;
+
+	/** Additional header fields */
+	private final Map<String, String> headers = new LinkedHashMap<>();
+
+	/** Length of the content or -1 if it isn't known in advance */
+	private long contentLength = -1;
+
+	/**
+	 * Flag that determines if the connection stays open after the response,
+	 * {@code null} if the connection isn't managed by this context
+	 */
+	private Boolean keepAlive;
+
+	/** Flag that determines if the content is written in chunks */
+	private boolean chunked;
+
+	/**
+	 * Channel of the connection that {@code outputStream} writes to,
+	 * {@code null} if it isn't known
+	 */
+	private WritableByteChannel outputChannel;
+
+	/** Buffer the output is collected in or {@code null} */
+	private ByteBuffer buffer;
+
+	/** Number of header bytes at the start of the output buffer */
+	private int headerEnd;
+
+	/** Position in the output buffer where the content of the current chunk starts */
+	private int chunkStart;
+
+	/** Encoder used to encode text directly into the output buffer */
+	private CharsetEncoder encoder;
+
+	/** Content encoding accepted by the client or {@code null} */
+	private String acceptedEncoding;
+
+	/** MIME types of the content that can be compressed */
+	private Set<String> compressibleTypes = Collections.emptySet();
+
+	/** Stream that compresses the content or {@code null} */
+	private DeflaterOutputStream compressor;
+
+	/**
+	 * {@link OutputStream} that writes the compressed content as content of
+	 * the response.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	private class ContentStream extends OutputStream {
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			RequestContext.this.write(b, off, len);
+		}
+	}
+
 	/**
 	 * Constructs a new {@link RequestContext} with the specified values.
 	 * 
@@ -239,6 +390,37 @@ public class RequestContext {
 		}
 		secondLine += NEWLINE;
 
+		final StringBuilder fields = new StringBuilder();
+
+		final boolean hasContent = statusCode != NO_CONTENT_CODE && statusCode != NOT_MODIFIED_CODE;
+
+		if (hasContent && contentLength >= 0) {
+			fields.append("Content-Length: " + contentLength + NEWLINE);
+		} else if (hasContent && keepAlive != null && keepAlive) {
+			chunked = true;
+			fields.append("Transfer-Encoding: chunked" + NEWLINE);
+		}
+
+		if (keepAlive != null && !keepAlive) {
+			fields.append("Connection: close" + NEWLINE);
+		}
+
+		final boolean compressible = compressibleTypes.contains(mimeType);
+		final boolean compressed = compressible && hasContent && acceptedEncoding != null && contentLength < 0
+				&& !headers.containsKey(CONTENT_ENCODING);
+
+		if (compressed) {
+			fields.append(CONTENT_ENCODING + ": " + acceptedEncoding + NEWLINE);
+		}
+
+		if (compressible && !headers.containsKey(VARY)) {
+			fields.append(VARY + ": Accept-Encoding" + NEWLINE);
+		}
+
+		for (final Map.Entry<String, String> field : headers.entrySet()) {
+			fields.append(field.getKey() + ": " + field.getValue() + NEWLINE);
+		}
+
 		final StringBuilder cookies = new StringBuilder();
 
 		for (final RCCookie rcCookie : outputCookies) {
@@ -259,17 +441,198 @@ public class RequestContext {
 			cookies.append(NEWLINE);
 		}
 
-		final String header = firstLine + secondLine + cookies.toString() + NEWLINE;
+		final String header = firstLine + secondLine + fields.toString() + cookies.toString() + NEWLINE;
 
-		try {
-			headerGenerated = true;
-			write(header.getBytes(StandardCharsets.ISO_8859_1));
-		} catch (final IOException ignorable) {
+		headerGenerated = true;
+
+		if (buffer != null && header.length() <= buffer.remaining() - CHUNK_PREFIX_SIZE - CHUNK_SUFFIX_SIZE) {
+			putHeader(header);
+		} else {
+			try {
+				outputStream.write(header.getBytes(StandardCharsets.ISO_8859_1));
+			} catch (final IOException ignorable) {
+			}
+		}
+
+		if (buffer != null && chunked) {
+			startChunk();
+		}
+
+		if (compressed) {
+			try {
+				compressor = acceptedEncoding.equals(GZIP_ENCODING)
+						? new GZIPOutputStream(new ContentStream(), COMPRESSION_BUFFER_SIZE, true)
+						: new DeflaterOutputStream(new ContentStream(), true);
+			} catch (final IOException ignorable) {
+			}
 		}
 
 		return header;
 	}
 
+	/**
+	 * Puts the header at the start of the output buffer. Every character is
+	 * put as a single ISO-8859-1 byte, without creating a byte array first.
+	 *
+	 * @param header
+	 *            generated header
+	 */
+	private void putHeader(final String header) {
+		final byte[] array = buffer.array();
+		final int offset = buffer.arrayOffset() + buffer.position();
+
+		for (int i = 0, length = header.length(); i < length; i++) {
+			final char c = header.charAt(i);
+			array[offset + i] = c <= 0xFF ? (byte) c : (byte) '?';
+		}
+
+		buffer.position(buffer.position() + header.length());
+		headerEnd = buffer.position();
+	}
+
+	/**
+	 * Reserves space for the size line of a new chunk in the output buffer and
+	 * for the end of the chunk.
+	 */
+	private void startChunk() {
+		buffer.position(buffer.position() + CHUNK_PREFIX_SIZE);
+		buffer.limit(buffer.capacity() - CHUNK_SUFFIX_SIZE);
+		chunkStart = buffer.position();
+	}
+
+	/**
+	 * Writes the content of the output buffer to the output stream with a
+	 * single write and clears the buffer. Chunked content is framed as one
+	 * chunk, the header in front of the first chunk is moved next to its size
+	 * line.
+	 *
+	 * @param last
+	 *            flag that determines if the last chunk is written after the
+	 *            content
+	 * @throws IOException
+	 *             if a error occurred while writing to the output stream
+	 */
+	private void flushBuffer(final boolean last) throws IOException {
+		final byte[] array = buffer.array();
+		final int offset = buffer.arrayOffset();
+		int start = 0;
+		int end = buffer.position();
+
+		if (chunked) {
+			start = chunkStart;
+
+			if (end > chunkStart) {
+				final String size = Integer.toHexString(end - chunkStart);
+				System.arraycopy(NEWLINE_BYTES, 0, array, offset + start - NEWLINE_BYTES.length, NEWLINE_BYTES.length);
+				start -= NEWLINE_BYTES.length + size.length();
+
+				for (int i = 0; i < size.length(); i++) {
+					array[offset + start + i] = (byte) size.charAt(i);
+				}
+
+				System.arraycopy(NEWLINE_BYTES, 0, array, offset + end, NEWLINE_BYTES.length);
+				end += NEWLINE_BYTES.length;
+			}
+
+			if (last) {
+				System.arraycopy(LAST_CHUNK, 0, array, offset + end, LAST_CHUNK.length);
+				end += LAST_CHUNK.length;
+			}
+
+			if (headerEnd > 0) {
+				System.arraycopy(array, offset, array, offset + start - headerEnd, headerEnd);
+				start -= headerEnd;
+			}
+		}
+
+		if (end > start) {
+			outputStream.write(array, offset + start, end - start);
+		}
+
+		buffer.clear();
+		headerEnd = 0;
+
+		if (chunked && !last) {
+			startChunk();
+		}
+	}
+
+	/**
+	 * Writes everything collected in the output buffer to the output stream
+	 * and flushes the output stream. Compressed content is flushed so that
+	 * the client can decompress everything written so far. The header is written only if it was
+	 * already generated by a write, so it can still be changed before the
+	 * first write.
+	 *
+	 * @throws IOException
+	 *             if a error occurred while writing to the output stream
+	 */
+	public void flush() throws IOException {
+		if (compressor != null) {
+			compressor.flush();
+		}
+
+		if (buffer != null && headerGenerated) {
+			flushBuffer(false);
+		}
+
+		outputStream.flush();
+	}
+
+	/**
+	 * Completes the response. If nothing has been written the header is
+	 * generated for empty content, compressed content is finished, chunked
+	 * content is terminated with the last chunk and the output stream is
+	 * flushed. The response of a {@link IAsyncWebWorker} is completed only
+	 * when its future completes, until then the worker can keep writing from
+	 * any thread. Nothing can be written after the response is finished and
+	 * finishing it again has no effect.
+	 *
+	 * @throws IOException
+	 *             if a error occurred while writing to the output stream
+	 */
+	void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+
+		finished = true;
+
+		if (!headerGenerated) {
+			if (keepAlive != null && contentLength < 0) {
+				contentLength = 0;
+			}
+
+			generateHeader();
+		}
+
+		if (compressor != null) {
+			final DeflaterOutputStream closed = compressor;
+			compressor = null;
+			closed.close();
+		}
+
+		if (buffer != null) {
+			flushBuffer(chunked);
+			chunked = false;
+		} else if (chunked) {
+			chunked = false;
+			outputStream.write(LAST_CHUNK);
+		}
+
+		outputStream.flush();
+	}
+
+	/**
+	 * Returns {@code true} if the connection can be used for another request
+	 * after this response.
+	 *
+	 * @return true if the connection stays open, else false
+	 */
+	boolean isKeepAlive() {
+		return keepAlive != null && keepAlive;
+	}
+
 	/**
 	 * Returns a parameter from the {@code parameters} map under the provided
 	 * {@code name}.
@@ -312,6 +675,43 @@ public class RequestContext {
 		return Collections.unmodifiableSet(persistentParameters.keySet());
 	}
 
+	/**
+	 * Returns the status code of the response.
+	 *
+	 * @return header status code
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return the status text of the response
+	 */
+	String getStatusText() {
+		return statusText;
+	}
+
+	/**
+	 * @return the MIME type of the content
+	 */
+	String getMimeType() {
+		return mimeType;
+	}
+
+	/**
+	 * @return the character encoding of the content
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * @return the additional header fields
+	 */
+	Map<String, String> getHeaders() {
+		return Collections.unmodifiableMap(headers);
+	}
+
 	/**
 	 * Returns a parameter from the {@code temporaryParameters} map under the
 	 * provided {@code name}.
@@ -357,6 +757,19 @@ public class RequestContext {
 		temporaryParameters.remove(name);
 	}
 
+	/**
+	 * Sets the length of the content in bytes. The header will contain the
+	 * {@code Content-Length} field and the content will not be written in
+	 * chunks, so exactly {@code contentLength} bytes have to be written.
+	 *
+	 * @param contentLength
+	 *            content length in bytes
+	 */
+	public void setContentLength(final long contentLength) {
+		Utility.checkIfHeaderGenerated(headerGenerated);
+		this.contentLength = contentLength;
+	}
+
 	/**
 	 * Sets the {@code encoding} to the specified {@code encoding} argument.
 	 * 
@@ -368,6 +781,95 @@ public class RequestContext {
 		this.encoding = encoding;
 	}
 
+	/**
+	 * Sets an additional header field. A previously set field with the same
+	 * name is replaced.
+	 *
+	 * @param name
+	 *            field name
+	 * @param value
+	 *            field value
+	 */
+	public void setHeader(final String name, final String value) {
+		Utility.checkIfHeaderGenerated(headerGenerated);
+		headers.put(name, value);
+	}
+
+	/**
+	 * Sets if the connection stays open after the response. If it does and the
+	 * content length isn't set, the content is written in chunks.
+	 *
+	 * @param keepAlive
+	 *            true if the connection stays open, else false
+	 */
+	void setKeepAlive(final boolean keepAlive) {
+		Utility.checkIfHeaderGenerated(headerGenerated);
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Sets the channel of the connection that the output stream writes to.
+	 * Files are then transferred directly to the channel.
+	 *
+	 * @param outputChannel
+	 *            channel of the connection
+	 */
+	void setOutputChannel(final WritableByteChannel outputChannel) {
+		this.outputChannel = outputChannel;
+	}
+
+	/**
+	 * Sets the buffer the output is collected in before it is written to the
+	 * output stream. The buffer is cleared and can be reused for another
+	 * {@link RequestContext} after this one is finished.
+	 *
+	 * @param buffer
+	 *            output buffer backed by a array
+	 * @throws IllegalArgumentException
+	 *             if the buffer is {@code null}, isn't backed by a array or is
+	 *             too small
+	 */
+	void setOutputBuffer(final ByteBuffer buffer) {
+		Utility.checkIfNull(buffer, "Parameter buffer can't be null");
+		Utility.checkIfHeaderGenerated(headerGenerated);
+
+		if (!buffer.hasArray() || buffer.capacity() < MIN_OUTPUT_BUFFER_SIZE) {
+			throw new IllegalArgumentException(
+					"Output buffer must be backed by a array of at least " + MIN_OUTPUT_BUFFER_SIZE + " bytes");
+		}
+
+		buffer.clear();
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Sets the content encoding accepted by the client and the MIME types of
+	 * the content that can be compressed. Content of a compressible type is
+	 * compressed if its length isn't set and the {@value #CONTENT_ENCODING}
+	 * header field isn't set already.
+	 *
+	 * @param acceptedEncoding
+	 *            {@value #GZIP_ENCODING}, {@value #DEFLATE_ENCODING} or
+	 *            {@code null} if the content shouldn't be compressed
+	 * @param compressibleTypes
+	 *            MIME types of the content that can be compressed
+	 * @throws IllegalArgumentException
+	 *             if the encoding isn't supported or the types are
+	 *             {@code null}
+	 */
+	void setCompression(final String acceptedEncoding, final Set<String> compressibleTypes) {
+		Utility.checkIfHeaderGenerated(headerGenerated);
+		Utility.checkIfNull(compressibleTypes, "Parameter compressibleTypes can't be null");
+
+		if (acceptedEncoding != null && !acceptedEncoding.equals(GZIP_ENCODING)
+				&& !acceptedEncoding.equals(DEFLATE_ENCODING)) {
+			throw new IllegalArgumentException("Content encoding " + acceptedEncoding + " isn't supported");
+		}
+
+		this.acceptedEncoding = acceptedEncoding;
+		this.compressibleTypes = compressibleTypes;
+	}
+
 	/**
 	 * Sets the {@code mimeType} to the specified {@code mimeType} argument
 	 * 
@@ -432,34 +934,290 @@ public class RequestContext {
 	 * 
 	 * @param data
 	 *            byte array data for writing
-	 * @return new {@link RequestContext} with the same values as this
+	 * @return this {@link RequestContext}
 	 * @throws IOException
 	 *             if a error occurred while writing to the output stream
 	 */
 	public RequestContext write(final byte[] data) throws IOException {
+		startContent();
+
+		writeContent(data, 0, data.length);
+		return this;
+	}
+
+	/**
+	 * Writes the remaining bytes of the {@code data} to the
+	 * {@code outputStream}. The position of the {@code data} is moved to its
+	 * limit.
+	 *
+	 * @param data
+	 *            buffer with the data for writing
+	 * @return this {@link RequestContext}
+	 * @throws IOException
+	 *             if a error occurred while writing to the output stream
+	 */
+	public RequestContext write(final ByteBuffer data) throws IOException {
+		startContent();
+
+		if (buffer != null && compressor == null) {
+			while (data.hasRemaining()) {
+				if (!buffer.hasRemaining()) {
+					flushBuffer(false);
+				}
+
+				final int limit = data.limit();
+				data.limit(data.position() + Math.min(data.remaining(), buffer.remaining()));
+				buffer.put(data);
+				data.limit(limit);
+			}
+		} else if (data.hasArray()) {
+			writeContent(data.array(), data.arrayOffset() + data.position(), data.remaining());
+			data.position(data.limit());
+		} else {
+			final byte[] bytes = new byte[data.remaining()];
+			data.get(bytes);
+			writeContent(bytes, 0, bytes.length);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Prepares the context for writing content, the header is generated before
+	 * the first write.
+	 *
+	 * @throws IOException
+	 *             if a error occurred while writing to the output stream
+	 * @throws IllegalStateException
+	 *             if the response is already finished
+	 */
+	private void startContent() throws IOException {
+		if (finished) {
+			throw new IllegalStateException("Response is already finished");
+		}
+
 		if (!headerGenerated) {
 			generateHeader();
 		}
+	}
+
+	/**
+	 * Writes {@code length} bytes of the content, starting at {@code offset},
+	 * through the compressor if the content is compressed. The header has to
+	 * be generated already.
+	 *
+	 * @param data
+	 *            byte array data for writing
+	 * @param offset
+	 *            offset of the first byte
+	 * @param length
+	 *            number of bytes
+	 * @throws IOException
+	 *             if a error occurred while writing to the output stream
+	 */
+	private void writeContent(final byte[] data, final int offset, final int length) throws IOException {
+		if (compressor != null) {
+			compressor.write(data, offset, length);
+		} else {
+			write(data, offset, length);
+		}
+	}
+
+	/**
+	 * Writes {@code length} bytes of the {@code data}, starting at
+	 * {@code offset}, to the output buffer, or directly to the
+	 * {@code outputStream} if there is no output buffer. The header has to be
+	 * generated already.
+	 *
+	 * @param data
+	 *            byte array data for writing
+	 * @param offset
+	 *            offset of the first byte
+	 * @param length
+	 *            number of bytes
+	 * @throws IOException
+	 *             if a error occurred while writing to the output stream
+	 */
+	private void write(final byte[] data, final int offset, final int length) throws IOException {
+		if (buffer != null) {
+			for (int written = 0; written < length;) {
+				if (!buffer.hasRemaining()) {
+					flushBuffer(false);
+				}
+
+				final int count = Math.min(length - written, buffer.remaining());
+				buffer.put(data, offset + written, count);
+				written += count;
+			}
+		} else if (!chunked) {
+			outputStream.write(data, offset, length);
+		} else if (length > 0) {
+			outputStream.write(Integer.toHexString(length).getBytes(StandardCharsets.ISO_8859_1));
+			outputStream.write(NEWLINE_BYTES);
+			outputStream.write(data, offset, length);
+			outputStream.write(NEWLINE_BYTES);
+		}
+	}
+
+	/**
+	 * Writes {@code count} bytes of the {@code file}, starting at
+	 * {@code position}, to the output without loading them into memory.
+	 * Compressed content is copied through the compressor.
+	 *
+	 * @param file
+	 *            file to write
+	 * @param position
+	 *            position of the first byte in the file
+	 * @param count
+	 *            number of bytes to write
+	 * @return this {@link RequestContext}
+	 * @throws IOException
+	 *             if a error occurred while reading the file or writing to the
+	 *             output stream, or if the file ends before {@code count}
+	 *             bytes are written
+	 */
+	public RequestContext write(final FileChannel file, final long position, final long count) throws IOException {
+		startContent();
+
+		if (count <= 0) {
+			return this;
+		}
+
+		if (compressor != null) {
+			copy(file, position, count, Channels.newChannel(compressor));
+			return this;
+		}
+
+		if (buffer != null) {
+			flushBuffer(false);
+		}
+
+		if (chunked) {
+			outputStream.write((Long.toHexString(count) + NEWLINE).getBytes(StandardCharsets.ISO_8859_1));
+		}
+
+		// everything written so far has to reach the connection before the file
+		outputStream.flush();
 
-		outputStream.write(data, 0, data.length);
+		if (outputChannel != null) {
+			transfer(file, position, count, outputChannel);
+		} else {
+			copy(file, position, count, Channels.newChannel(outputStream));
+		}
+
+		if (chunked) {
+			outputStream.write(NEWLINE_BYTES);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Transfers {@code count} bytes of the {@code file}, starting at
+	 * {@code position}, to the {@code target} channel using
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+	 *
+	 * @param file
+	 *            file to transfer
+	 * @param position
+	 *            position of the first byte in the file
+	 * @param count
+	 *            number of bytes to transfer
+	 * @param target
+	 *            channel the bytes are transferred to
+	 * @throws IOException
+	 *             if an error occurs during the transfer or if the file ends
+	 *             before {@code count} bytes are transferred
+	 */
+	private static void transfer(final FileChannel file, final long position, final long count,
+			final WritableByteChannel target) throws IOException {
+		for (long transferred = 0; transferred < count;) {
+			final long bytes = file.transferTo(position + transferred, count - transferred, target);
+
+			if (bytes <= 0) {
+				throw new EOFException("File ended before the whole content was written");
+			}
+
+			transferred += bytes;
+		}
+	}
+
+	/**
+	 * Copies {@code count} bytes of the {@code file}, starting at
+	 * {@code position}, to the {@code target} channel through a pooled direct
+	 * buffer.
+	 *
+	 * @param file
+	 *            file to copy
+	 * @param position
+	 *            position of the first byte in the file
+	 * @param count
+	 *            number of bytes to copy
+	 * @param target
+	 *            channel the bytes are copied to
+	 * @throws IOException
+	 *             if an error occurs while copying or if the file ends before
+	 *             {@code count} bytes are copied
+	 */
+	private static void copy(final FileChannel file, final long position, final long count,
+			final WritableByteChannel target) throws IOException {
+		final ByteBuffer buffer = FILE_BUFFERS.acquire();
+
+		try {
+			for (long copied = 0; copied < count;) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), count - copied));
+
+				if (file.read(buffer, position + copied) <= 0) {
+					throw new EOFException("File ended before the whole content was written");
+				}
 
-		return new RequestContext(outputStream, parameters, persistentParameters, outputCookies);
+				buffer.flip();
+				copied += buffer.remaining();
+
+				while (buffer.hasRemaining()) {
+					target.write(buffer);
+				}
+			}
+		} finally {
+			FILE_BUFFERS.release(buffer);
+		}
 	}
 
 	/**
-	 * Writes the {@code text} to the {@code outputStream}.
+	 * Writes the {@code text} to the {@code outputStream}. If there is a
+	 * output buffer the text is encoded directly into it.
 	 * 
 	 * @param text
 	 *            {@link String} data for writing
-	 * @return new {@link RequestContext} with the same values as this
+	 * @return this {@link RequestContext}
 	 * @throws IOException
 	 *             if a error occurred while writing to the output stream
 	 */
 	public RequestContext write(final String text) throws IOException {
-		if (!headerGenerated) {
-			generateHeader();
+		startContent();
+
+		if (buffer == null || compressor != null || !charset.canEncode()) {
+			final byte[] data = text.getBytes(charset);
+			writeContent(data, 0, data.length);
+			return this;
+		}
+
+		if (encoder == null) {
+			encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		final CharBuffer input = CharBuffer.wrap(text);
+		while (encoder.encode(input, buffer, true).isOverflow()) {
+			flushBuffer(false);
+		}
+
+		while (encoder.flush(buffer).isOverflow()) {
+			flushBuffer(false);
 		}
 
-		return write(text.getBytes(charset));
+		encoder.reset();
+		return this;
 	}
 }
@@ -0,0 +1,358 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import hr.fer.zemris.java.webserver.util.Utility;
+
+/**
+ * Class that caches the responses of {@link ICacheableWebWorker}s in memory.
+ * Responses are cached under the request path and the parameters from the URL
+ * query and expire after the time to live given by their worker. When the
+ * total size of the cached responses exceeds the configured limit the least
+ * recently used responses are removed.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class ResponseCache {
+
+	/**
+	 * Class that represents the key of a cached response, the request path and
+	 * a copy of the parameters from the URL query.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	public static class Key {
+
+		/** Path of the request */
+		private final String path;
+
+		/** Parameters from the URL query */
+		private final Map<String, String> parameters;
+
+		/** Hash code of the key */
+		private final int hash;
+
+		/**
+		 * Constructs a new {@link Key} with the specified values. The
+		 * parameters are copied.
+		 *
+		 * @param path
+		 *            path of the request
+		 * @param parameters
+		 *            parameters from the URL query
+		 */
+		public Key(final String path, final Map<String, String> parameters) {
+			super();
+			Utility.checkIfNull(path, "Parameter path can't be null");
+			Utility.checkIfNull(parameters, "Parameter parameters can't be null");
+
+			this.path = path;
+			this.parameters = parameters.isEmpty() ? Collections.emptyMap() : new HashMap<>(parameters);
+			this.hash = 31 * path.hashCode() + this.parameters.hashCode();
+		}
+
+		/**
+		 * @return the estimated memory used by the key in bytes
+		 */
+		private long weight() {
+			long weight = 2L * path.length();
+
+			for (final Map.Entry<String, String> parameter : parameters.entrySet()) {
+				weight += ENTRY_OVERHEAD / 4 + 2L * (parameter.getKey().length() + parameter.getValue().length());
+			}
+
+			return weight;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof Key)) {
+				return false;
+			}
+
+			final Key other = (Key) obj;
+			return hash == other.hash && path.equals(other.path) && parameters.equals(other.parameters);
+		}
+	}
+
+	/**
+	 * Class that represents one cached response.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	public static class Response {
+
+		/** Status code of the response */
+		private final int statusCode;
+
+		/** Status text of the response */
+		private final String statusText;
+
+		/** MIME type of the content */
+		private final String mimeType;
+
+		/** Character encoding of the content */
+		private final String encoding;
+
+		/** Additional header fields */
+		private final Map<String, String> headers;
+
+		/** Content of the response */
+		private final byte[] content;
+
+		/** Time in nanoseconds when the response expires */
+		private long expires;
+
+		/**
+		 * Constructs a new {@link Response} with the specified values.
+		 *
+		 * @param statusCode
+		 *            status code of the response
+		 * @param statusText
+		 *            status text of the response
+		 * @param mimeType
+		 *            MIME type of the content
+		 * @param encoding
+		 *            character encoding of the content
+		 * @param headers
+		 *            additional header fields
+		 * @param content
+		 *            content of the response
+		 */
+		public Response(final int statusCode, final String statusText, final String mimeType,
+				final String encoding, final Map<String, String> headers, final byte[] content) {
+			super();
+			this.statusCode = statusCode;
+			this.statusText = statusText;
+			this.mimeType = mimeType;
+			this.encoding = encoding;
+			this.headers = headers.isEmpty() ? Collections.emptyMap()
+					: Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+			this.content = content;
+		}
+
+		/**
+		 * Creates a {@link Response} from a finished {@link RequestContext}
+		 * that wrote the whole response, header included, to the
+		 * {@code output}.
+		 *
+		 * @param context
+		 *            finished context
+		 * @param output
+		 *            output stream the context wrote to
+		 * @return response written by the context
+		 */
+		static Response capture(final RequestContext context, final ByteArrayOutputStream output) {
+			final byte[] written = output.toByteArray();
+			int contentStart = written.length;
+
+			for (int i = 3; i < written.length; i++) {
+				if (written[i] == '\n' && written[i - 1] == '\r' && written[i - 2] == '\n'
+						&& written[i - 3] == '\r') {
+					contentStart = i + 1;
+					break;
+				}
+			}
+
+			return new Response(context.getStatusCode(), context.getStatusText(), context.getMimeType(),
+					context.getEncoding(), context.getHeaders(), Arrays.copyOfRange(written, contentStart,
+							written.length));
+		}
+
+		/**
+		 * @return the status code of the response
+		 */
+		public int getStatusCode() {
+			return statusCode;
+		}
+
+		/**
+		 * @return the status text of the response
+		 */
+		public String getStatusText() {
+			return statusText;
+		}
+
+		/**
+		 * @return the MIME type of the content
+		 */
+		public String getMimeType() {
+			return mimeType;
+		}
+
+		/**
+		 * @return the character encoding of the content
+		 */
+		public String getEncoding() {
+			return encoding;
+		}
+
+		/**
+		 * @return the additional header fields
+		 */
+		public Map<String, String> getHeaders() {
+			return headers;
+		}
+
+		/**
+		 * @return the content of the response, which mustn't be modified
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+	}
+
+	/** Estimated memory used by an entry besides its key and content */
+	private static final int ENTRY_OVERHEAD = 256;
+
+	/** Maximum total size of the cached responses in bytes */
+	private final long maxSize;
+
+	/** Maximum size of the content of a cached response */
+	private final long maxResponseSize;
+
+	/** Cached responses in the least recently used order */
+	private final LinkedHashMap<Key, Response> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** Total size of the cached responses in bytes */
+	private long size;
+
+	/**
+	 * Constructs a new {@link ResponseCache} with the specified values.
+	 *
+	 * @param maxSize
+	 *            maximum total size of the cached responses in bytes
+	 * @param maxResponseSize
+	 *            maximum size of the content of a cached response
+	 */
+	public ResponseCache(final long maxSize, final long maxResponseSize) {
+		super();
+		this.maxSize = maxSize;
+		this.maxResponseSize = maxResponseSize;
+	}
+
+	/**
+	 * Returns the estimated memory used by a cached response.
+	 *
+	 * @param key
+	 *            key of the response
+	 * @param response
+	 *            cached response
+	 * @return used memory in bytes
+	 */
+	private static long weight(final Key key, final Response response) {
+		return ENTRY_OVERHEAD + key.weight() + response.content.length;
+	}
+
+	/**
+	 * Removes all responses from the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Returns the cached response for the specified key, or {@code null} if
+	 * there is no response or it has expired.
+	 *
+	 * @param key
+	 *            key of the response
+	 * @return cached response or null
+	 */
+	public Response get(final Key key) {
+		return get(key, System.nanoTime());
+	}
+
+	/**
+	 * Returns the cached response for the specified key, or {@code null} if
+	 * there is no response or it has expired at the specified time.
+	 *
+	 * @param key
+	 *            key of the response
+	 * @param now
+	 *            current value of {@link System#nanoTime()}
+	 * @return cached response or null
+	 */
+	synchronized Response get(final Key key, final long now) {
+		final Response response = entries.get(key);
+
+		if (response == null) {
+			return null;
+		} else if (response.expires - now <= 0) {
+			entries.remove(key);
+			size -= weight(key, response);
+			return null;
+		}
+
+		return response;
+	}
+
+	/**
+	 * Adds the response to the cache and removes the least recently used
+	 * responses while the cache is too large. Responses larger than the
+	 * configured limit aren't cached.
+	 *
+	 * @param key
+	 *            key of the response
+	 * @param response
+	 *            response to add
+	 * @param timeout
+	 *            time to live of the response in seconds
+	 */
+	public void put(final Key key, final Response response, final int timeout) {
+		put(key, response, timeout, System.nanoTime());
+	}
+
+	/**
+	 * Adds the response to the cache at the specified time, like
+	 * {@link #put(Key, Response, int)}.
+	 *
+	 * @param key
+	 *            key of the response
+	 * @param response
+	 *            response to add
+	 * @param timeout
+	 *            time to live of the response in seconds
+	 * @param now
+	 *            current value of {@link System#nanoTime()}
+	 */
+	synchronized void put(final Key key, final Response response, final int timeout, final long now) {
+		final long weight = weight(key, response);
+		if (timeout <= 0 || response.content.length > maxResponseSize || weight > maxSize) {
+			return;
+		}
+
+		response.expires = now + TimeUnit.SECONDS.toNanos(timeout);
+
+		final Response previous = entries.put(key, response);
+		if (previous != null) {
+			size -= weight(key, previous);
+		}
+		size += weight;
+
+		for (final Iterator<Map.Entry<Key, Response>> iterator = entries.entrySet().iterator(); size > maxSize
+				&& iterator.hasNext();) {
+			final Map.Entry<Key, Response> entry = iterator.next();
+			size -= weight(entry.getKey(), entry.getValue());
+			iterator.remove();
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+
+import hr.fer.zemris.java.custom.scripting.exec.DocumentOptimizer;
+import hr.fer.zemris.java.custom.scripting.exec.IExecutableScript;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+
+/**
+ * Class that caches parsed scripts, so a script is only parsed by the
+ * {@link SmartScriptParser} on its first request and after it is changed.
+ * Parsed scripts are optimized by the {@link DocumentOptimizer} and turned
+ * into {@link IExecutableScript}s by the function provided to the constructor,
+ * which either wraps them for interpretation or compiles them. Scripts are
+ * cached under their paths together with the modification time of the file
+ * they were parsed from. The cache can be shared by multiple threads, a
+ * changed script that is requested by multiple threads at once is parsed only
+ * once. Scripts are parsed and compiled by the thread that requested them
+ * first, outside of the locks of the map, so a slow compilation only makes the
+ * requests of the same script wait.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class ScriptCache {
+
+	/**
+	 * Class that represents a executable script, which may still be parsed,
+	 * and the version of the file it is parsed from.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	private static class CachedScript {
+
+		/** Modification time of the parsed file in milliseconds */
+		private final long lastModified;
+
+		/** Task that parses and compiles the script */
+		private final FutureTask<IExecutableScript> script;
+
+		/**
+		 * Constructs a new {@link CachedScript} with the specified values.
+		 *
+		 * @param lastModified
+		 *            modification time of the parsed file in milliseconds
+		 * @param script
+		 *            task that parses and compiles the script
+		 */
+		CachedScript(final long lastModified, final FutureTask<IExecutableScript> script) {
+			super();
+			this.lastModified = lastModified;
+			this.script = script;
+		}
+
+		/**
+		 * Waits until the script is parsed and compiled and returns it.
+		 *
+		 * @return executable script
+		 * @throws IOException
+		 *             if the script can't be read or the thread is
+		 *             interrupted
+		 */
+		IExecutableScript get() throws IOException {
+			try {
+				return script.get();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while the script was parsed");
+			} catch (final ExecutionException e) {
+				final Throwable cause = e.getCause();
+
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IllegalStateException(cause);
+			}
+		}
+	}
+
+	/**
+	 * {@link Reader} that skips the line terminators of the underlying reader,
+	 * so the lines of a script are joined while it is read.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	private static class LineJoiningReader extends FilterReader {
+
+		/**
+		 * Constructs a new {@link LineJoiningReader} over the specified
+		 * reader.
+		 *
+		 * @param in
+		 *            underlying reader
+		 */
+		public LineJoiningReader(final Reader in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int c;
+
+			do {
+				c = in.read();
+			} while (c == '\r' || c == '\n');
+
+			return c;
+		}
+
+		@Override
+		public int read(final char[] cbuf, final int off, final int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+
+			int count = 0;
+
+			while (count == 0) {
+				final int read = in.read(cbuf, off, len);
+				if (read < 0) {
+					return -1;
+				}
+
+				for (int i = off, end = off + read; i < end; i++) {
+					if (cbuf[i] != '\r' && cbuf[i] != '\n') {
+						cbuf[off + count++] = cbuf[i];
+					}
+				}
+			}
+
+			return count;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			long skipped = 0;
+
+			while (skipped < n && read() >= 0) {
+				skipped++;
+			}
+
+			return skipped;
+		}
+	}
+
+	/** Executable scripts under their normalized paths */
+	private final ConcurrentMap<Path, CachedScript> scripts = new ConcurrentHashMap<>();
+
+	/** Function that turns a parsed script into a executable script */
+	private final Function<DocumentNode, IExecutableScript> compiler;
+
+	/**
+	 * Constructs a new {@link ScriptCache} that turns parsed scripts into
+	 * executable scripts with the specified function.
+	 *
+	 * @param compiler
+	 *            function that turns a parsed script into a executable script
+	 */
+	public ScriptCache(final Function<DocumentNode, IExecutableScript> compiler) {
+		super();
+		this.compiler = compiler;
+	}
+
+	/**
+	 * Opens a reader of the script at the specified {@code path}. Lines of the
+	 * script are joined without line terminators.
+	 *
+	 * @param path
+	 *            path of the script
+	 * @return reader of the script
+	 * @throws IOException
+	 *             if the script can't be opened
+	 */
+	static Reader open(final Path path) throws IOException {
+		return new LineJoiningReader(Files.newBufferedReader(path, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads the script at the specified {@code path} and parses it while it is
+	 * read, so the source of the script is never held in memory as a whole.
+	 * Lines of the script are joined without line terminators.
+	 *
+	 * @param path
+	 *            path of the script
+	 * @return parsed script
+	 * @throws IOException
+	 *             if the script can't be read
+	 */
+	private static DocumentNode parse(final Path path) throws IOException {
+		try (Reader reader = open(path)) {
+			return new SmartScriptParser(reader).getDocumentNode();
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Returns the executable script at the specified {@code path}. The script
+	 * is parsed if it isn't cached or if the file was modified after it was
+	 * cached. If the script is being parsed by another thread, this method
+	 * waits for it. A script that fails to parse isn't cached, so the next
+	 * request parses it again, and the script of a deleted file is removed
+	 * from the cache.
+	 *
+	 * @param path
+	 *            path of the script
+	 * @return executable script
+	 * @throws IOException
+	 *             if the script can't be read
+	 */
+	public IExecutableScript get(final Path path) throws IOException {
+		final Path key = path.toAbsolutePath().normalize();
+		final long lastModified;
+		try {
+			lastModified = Files.getLastModifiedTime(key).toMillis();
+		} catch (final NoSuchFileException e) {
+			scripts.remove(key);
+			throw e;
+		}
+		CachedScript cached = scripts.get(key);
+
+		if (cached == null || cached.lastModified != lastModified) {
+			final CachedScript created = new CachedScript(lastModified,
+					new FutureTask<>(() -> compiler.apply(DocumentOptimizer.optimize(parse(key)))));
+
+			// only the entry is replaced while the map is locked, the script
+			// is parsed after that by the thread whose entry was added
+			cached = scripts.compute(key, (k, previous) -> previous != null
+					&& previous.lastModified == lastModified ? previous : created);
+
+			if (cached == created) {
+				created.script.run();
+			}
+		}
+
+		try {
+			return cached.get();
+		} catch (IOException | RuntimeException | Error e) {
+			if (cached.script.isDone()) {
+				scripts.remove(key, cached);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Removes the script at the specified {@code path}, or all scripts in the
+	 * directory at the specified {@code path}, from the cache.
+	 *
+	 * @param path
+	 *            path of a script or directory
+	 */
+	public void invalidate(final Path path) {
+		final Path key = path.toAbsolutePath().normalize();
+		scripts.keySet().removeIf(script -> script.startsWith(key));
+	}
+}
@@ -0,0 +1,68 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class that represents a session of a {@link SmartHTTPServer} client.
+ * Contains the session id, the time the session is valid until and the
+ * persistent parameters of the session.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class Session {
+
+	/** Session id */
+	private final String sid;
+
+	/** Time in milliseconds this session is valid until */
+	private volatile long validUntil;
+
+	/** Map of persistent parameters */
+	private final Map<String, String> map = Collections.synchronizedMap(new HashMap<String, String>());
+
+	/**
+	 * Constructs a new {@link Session} with the specified parameters.
+	 *
+	 * @param sid
+	 *            session id
+	 * @param validUntil
+	 *            time in milliseconds the session is valid until
+	 */
+	Session(final String sid, final long validUntil) {
+		super();
+		this.sid = sid;
+		this.validUntil = validUntil;
+	}
+
+	/**
+	 * @return the session id
+	 */
+	public String getSid() {
+		return sid;
+	}
+
+	/**
+	 * @return the time in milliseconds this session is valid until
+	 */
+	public long getValidUntil() {
+		return validUntil;
+	}
+
+	/**
+	 * @param validUntil
+	 *            the time in milliseconds this session is valid until
+	 */
+	void setValidUntil(final long validUntil) {
+		this.validUntil = validUntil;
+	}
+
+	/**
+	 * @return the map of persistent parameters
+	 */
+	public Map<String, String> getMap() {
+		return map;
+	}
+}
@@ -1,37 +1,73 @@
 package hr.fer.zemris.java.webserver;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalTime;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Random;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hr.fer.zemris.java.custom.scripting.exec.IExecutableScript;
+import hr.fer.zemris.java.custom.scripting.exec.InterpretedScript;
+import hr.fer.zemris.java.custom.scripting.exec.ScriptCompilationException;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptCompiler;
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
-import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.webserver.MetricsRegistry.Route;
 import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+import hr.fer.zemris.java.webserver.util.BufferPool;
+import hr.fer.zemris.java.webserver.util.RateLimiter;
+import hr.fer.zemris.java.webserver.workers.MetricsWorker;
 
 /**
  * Class that represents a implementation of a server that processes HTTP
@@ -44,6 +80,13 @@ import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
  * HTML pages and other mime types that are supported by default browsers such
  * as images, plain text...
  * </p>
+ * <p>
+ * Connections are accepted either by a blocking {@link ServerThread} which
+ * gives every connection its own worker thread, or by a {@link NioServerThread}
+ * which reads requests with a {@link Selector} and only occupies a
+ * worker thread once the request is complete. The front end is chosen with the
+ * {@code server.connector} property.
+ * </p>
  * This program requires one argument and that is the path to the
  * server.properties configuration file, in which all necessary configurations
  * are located.
@@ -55,29 +98,16 @@ public class SmartHTTPServer {
 
 	/**
 	 * Class that processes users request and returns the appropriate response
-	 * based on the users request. Every instance of this class does processes
-	 * one request.
+	 * based on the users request. Every instance of this class processes the
+	 * requests of one connection. HTTP/1.1 connections are kept open until the
+	 * client closes them or stays idle for longer than the keep-alive timeout,
+	 * pipelined requests are served in order.
 	 * 
 	 * @author Nikola Bukovac
 	 * @version 1.0
 	 */
 	private class ClientWorker implements Runnable {
 
-		/** Buffer size for reading and writing from streams */
-		private static final int BUFFER_SIZE = 1024;
-
-		/** Default HTTP method */
-		private static final String DEFAULT_METHOD = "GET";
-
-		/** Acceptable version of HTTP */
-		private static final String VERSION_1 = "HTTP/1.0";
-
-		/** Acceptable version of HTTP */
-		private static final String VERSION_2 = "HTTP/1.1";
-
-		/** Default mime type */
-		private static final String DEFAULT_MIME = "application/octet-stream";
-
 		/** Status code for bad header */
 		private static final int BAD_HEADER_CODE = 400;
 		/** Status text for bad header */
@@ -107,31 +137,75 @@ public class SmartHTTPServer {
 		/** Worker server path */
 		private static final String WORKER_EXTENSION = "/ext/";
 
-		/** Worker package */
-		private static final String WORKER_SPACE = "hr.fer.zemris.java.webserver.workers.";
-
 		/** Session ID */
 		private static final String SID_NAME = "sid";
 
+		/** Header field that controls persistent connections */
+		private static final String CONNECTION = "Connection";
+
+		/** Value of the {@code Connection} field that closes the connection */
+		private static final String CONNECTION_CLOSE = "close";
+
+		/** Name of the header field with the content encodings the client accepts */
+		private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+		/** Status code for a cached file that wasn't modified */
+		private static final int NOT_MODIFIED_CODE = 304;
+		/** Status text for a cached file that wasn't modified */
+		private static final String NOT_MODIFIED_TEXT = "Not Modified";
+
+		/** Status code for partial content */
+		private static final int PARTIAL_CONTENT_CODE = 206;
+
+		/** Status text for partial content */
+		private static final String PARTIAL_CONTENT_TEXT = "Partial Content";
+
+		/** Status code for a range that can't be satisfied */
+		private static final int RANGE_NOT_SATISFIABLE_CODE = 416;
+
+		/** Status text for a range that can't be satisfied */
+		private static final String RANGE_NOT_SATISFIABLE_TEXT = "Range Not Satisfiable";
+
+		/** Name of the header field with the range of the sent content */
+		private static final String CONTENT_RANGE = "Content-Range";
+
+		/** MIME type of a response with multiple ranges */
+		private static final String MULTIPART_BYTERANGES = "multipart/byteranges";
+
+		/** Status code for a client that exceeded its rate limit */
+		private static final int TOO_MANY_REQUESTS_CODE = 429;
+
+		/** Status text for a client that exceeded its rate limit */
+		private static final String TOO_MANY_REQUESTS_TEXT = "Too Many Requests";
+
 		// member variables
 
 		/** {@link Socket} used for connection to server */
 		private final Socket clientSocket;
 
 		/**
-		 * {@link PushbackInputStream} decorator used for reading the user
-		 * request
+		 * {@link NioServerThread} that read the request, {@code null} if the
+		 * connection was accepted by the {@link ServerThread}
 		 */
-		private PushbackInputStream istream;
+		private final NioServerThread nioServer;
+
+		/** Connection whose request was read by the {@link NioServerThread} */
+		private final NioConnection connection;
+
+		/** {@link InputStream} the requests are read from */
+		private InputStream inputStream;
+
+		/** Parser of the requests on the connection */
+		private HttpRequestParser parser;
+
+		/** Address of the client */
+		private InetAddress clientAddress;
 
 		/** {@link OutputStream} used to write the response to */
 		private OutputStream outputStream;
 
-		/** Version of the HTTP */
-		private String version;
-
-		/** HTTP method used to generate the request */
-		private String method;
+		/** Output buffer of this worker, reused for every response */
+		private ByteBuffer outputBuffer;
 
 		/** Parameters parsed from the request */
 		private final Map<String, String> parameters = new HashMap<>();
@@ -142,8 +216,36 @@ public class SmartHTTPServer {
 		/** Cookies */
 		private final List<RCCookie> outputCookies = new ArrayList<>();
 
-		/** Session ID */
-		private String SID;
+		/** Session of the current request */
+		private Session session;
+
+		/** {@link RequestContext} of the current response */
+		private RequestContext context;
+
+		/** Flag that determines if the connection stays open after the response */
+		private boolean keepAlive;
+
+		/** Content encoding accepted by the client or {@code null} */
+		private String acceptedEncoding;
+
+		/** Route that serves the current request or {@code null} */
+		private Route route;
+
+		/** Time in nanoseconds the current request started at, used for metrics */
+		private long startTime;
+
+		/**
+		 * Future of the {@link IAsyncWebWorker} that serves the current
+		 * request or {@code null}
+		 */
+		private CompletableFuture<Void> pending;
+
+		/**
+		 * Flag that determines if the worker holds a permit of the
+		 * {@code admission}, which it keeps until the connection is released,
+		 * also while it waits for a {@link IAsyncWebWorker}
+		 */
+		private boolean admitted;
 
 		/**
 		 * Constructs a new {@link ClientWorker} with the specified
@@ -155,21 +257,49 @@ public class SmartHTTPServer {
 		public ClientWorker(final Socket client) {
 			super();
 			clientSocket = client;
+			nioServer = null;
+			connection = null;
 		}
 
 		/**
-		 * Checks if a new line character combination is encountered and if it
-		 * is returns {@code true} else {@code false}.
-		 * 
-		 * @param buffer
-		 *            byte array containing request header
-		 * @param i
-		 *            position of the first character
-		 * @return true if newline character combination is encountered, else
-		 *         false
+		 * Constructs a new {@link ClientWorker} for a connection whose complete
+		 * request was already read by the {@link NioServerThread}. The
+		 * channel of the connection has to be in blocking mode. If the
+		 * connection stays open after the response it is given back to the
+		 * {@code server}.
+		 *
+		 * @param server
+		 *            {@link NioServerThread} that read the request
+		 * @param connection
+		 *            connection with a complete request
+		 */
+		public ClientWorker(final NioServerThread server, final NioConnection connection) {
+			super();
+			clientSocket = null;
+			nioServer = server;
+			this.connection = connection;
+		}
+
+		/**
+		 * @return the channel of the client connection
+		 */
+		private SocketChannel channel() {
+			return connection != null ? connection.channel : clientSocket.getChannel();
+		}
+
+		/**
+		 * Creates a new {@link RequestContext} for the response to the current
+		 * request.
+		 *
+		 * @return new {@link RequestContext}
 		 */
-		private boolean checkNewline(final byte[] buffer, final int i) {
-			return (buffer[i] == '\r' && buffer[i + 1] == '\n') || (buffer[i] == '\n' && buffer[i + 1] == '\r');
+		private RequestContext createContext() {
+			context = new RequestContext(outputStream, parameters, persistentParameters, outputCookies);
+			context.setKeepAlive(keepAlive);
+			context.setOutputChannel(channel());
+			context.setOutputBuffer(outputBuffer);
+			context.setCompression(acceptedEncoding, compressibleTypes);
+			return context;
 		}
 
 		/**
@@ -177,84 +307,70 @@ public class SmartHTTPServer {
 		 * one the session id is parsed an used for continuing the connection
 		 * between the client and the server. If there isn't a cookie with the
 		 * SID parameter then a new SID is created and given to this connection.
-		 * 
-		 * @param request
-		 *            request header parsed into separate lines
-		 * @param action
-		 *            name of the action that is called
-		 */
-		private void checkSession(final List<String> request, final String action) {
-			String sidCandidate = null;
-			String domain = null;
-			for (final String line : request) {
-				if (!line.startsWith("Cookie:")) {
-					if (line.startsWith("Host:")) {
-						domain = line.split(":")[1].trim();
-					}
-					continue;
-				}
-				final String s = line.substring("Cookie: ".length());
-				final String[] split = s.split(";");
-
-				for (final String cookieValue : split) {
-					if (cookieValue.contains(SID_NAME)) {
-						String value = cookieValue.split("=")[1].trim();
-						value = value.substring(1, value.length() - 1);
-						final long time = LocalTime.now().toSecondOfDay();
-						final SessionMapEntry session = sessions.get(value);
-						if (session != null && session.validUntil > time) {
-							sidCandidate = session.sid;
-						}
-					}
-				}
+		 */
+		private void checkSession() {
+			String domain = parser.getHeader("Host");
+			if (domain != null && domain.indexOf(':') >= 0) {
+				domain = domain.substring(0, domain.indexOf(':'));
 			}
 
-			if (sidCandidate == null) {
-				sidCandidate = generateSID();
-				sessions.put(sidCandidate,
-						new SessionMapEntry(sidCandidate, LocalTime.now().toSecondOfDay() + sessionTimeout));
+			parser.forEachCookie(SID_NAME, sid -> {
+				final Session candidate = sessionStore.get(sid);
+				if (candidate != null) {
+					session = candidate;
+				}
+			});
+
+			while (session == null) {
+				session = sessionStore.create(generateSID());
 			}
 
-			SID = sidCandidate;
-			persistentParameters = sessions.get(SID).map;
-			outputCookies.add(new RCCookie(SID_NAME, SID, null, domain, "/"));
+			persistentParameters = session.getMap();
+			outputCookies.add(new RCCookie(SID_NAME, session.getSid(), null, domain, "/"));
 		}
 
 		/**
 		 * Based on the data found inside the header the appropriate response
 		 * header is created and written to the output stream.
 		 * 
-		 * @param request
-		 *            request header parsed into separate lines
 		 * @throws IOException
 		 *             if an error occurs during writing to the output stream
 		 */
-		private void extractFromHeader(final List<String> request) throws IOException {
-			if (request.isEmpty()) {
+		private void extractFromHeader() throws IOException {
+			if (parser.isBad()) {
 				final RequestContext context = getBadHeaderContext();
 				context.write(BAD_HEADER_TEXT);
 				return;
 			}
 
-			final String firstLine = request.get(0);
-			final String[] split = firstLine.split("\\s+");
-			method = split[0];
-			version = split[2];
+			final String method = parser.getMethod();
+			final String version = parser.getVersion();
 
-			if (!method.equals(DEFAULT_METHOD) || (!version.equals(VERSION_1) && !version.equals(VERSION_2))) {
+			if (method != HttpRequestParser.GET && method != HttpRequestParser.POST
+					|| version != HttpRequestParser.HTTP_1_0 && version != HttpRequestParser.HTTP_1_1) {
 				final RequestContext context = getBadHeaderContext();
 				context.write(BAD_HEADER_TEXT);
 				return;
 			}
 
-			final String[] pathSplit = split[1].split("\\?");
-			checkSession(request, getActionName(pathSplit[0]));
+			keepAlive = keepAliveTimeout > 0 && version == HttpRequestParser.HTTP_1_1
+					&& !parser.headerEquals(CONNECTION, CONNECTION_CLOSE);
+			acceptedEncoding = negotiateEncoding(parser.getHeader(ACCEPT_ENCODING));
 
-			if (pathSplit.length > 1) {
-				extractParameters(pathSplit[1]);
+			if (rateLimiter != null && !rateLimiter.tryAcquire(clientAddress)) {
+				final RequestContext context = createContext();
+				context.setStatusCode(TOO_MANY_REQUESTS_CODE);
+				context.setStatusText(TOO_MANY_REQUESTS_TEXT);
+				context.setHeader(RETRY_AFTER, RETRY_AFTER_SECONDS);
+				context.write(TOO_MANY_REQUESTS_TEXT);
+				return;
 			}
 
-			final Path path = Paths.get(ROOT + pathSplit[0]);
+			final String requestPath = parser.getPath();
+			checkSession();
+			parser.parseParameters(parameters);
+
+			final Path path = Paths.get(ROOT + requestPath);
 
 			if (!path.startsWith(documentRoot)) {
 				final RequestContext context = getBadHeaderContext();
@@ -262,73 +378,45 @@ public class SmartHTTPServer {
 				context.setStatusText(FORBIDDEN_TEXT);
 				context.write(FORBIDDEN_TEXT);
 				return;
-			} else if (workersMap.containsKey(pathSplit[0])) {
-				final RequestContext context = new RequestContext(outputStream, parameters, persistentParameters,
-						outputCookies);
-				setSucessHeader(context);
-				workersMap.get(pathSplit[0]).processRequest(context);
+			} else if (workersMap.containsKey(requestPath)) {
+				route = Route.WORKER;
+				processWorker(workersMap.get(requestPath), createContext());
 				return;
 
 			} else if (path.startsWith(documentRoot.toString() + WORKER_EXTENSION)) {
+				route = Route.EXT_WORKER;
 				processExtWorker(path);
 
-				return;
-			} else if (!Files.exists(path) || Files.isDirectory(path) || !Files.isReadable(path)) {
-				final RequestContext context = getBadHeaderContext();
-				setNotFoundHeader(context);
 				return;
 			}
 
 			final String fileName = path.getFileName().toString();
 			final int pos = fileName.lastIndexOf(".");
 			final String extension = fileName.substring(pos + 1);
-			String mime = mimeTypes.get(extension);
-
-			if (mime == null) {
-				mime = DEFAULT_MIME;
-			}
 
 			if (extension.equals(SMSCR)) {
+				route = Route.SCRIPT;
+				if (!Files.exists(path) || Files.isDirectory(path) || !Files.isReadable(path)) {
+					scriptCache.invalidate(path);
+					final RequestContext context = getBadHeaderContext();
+					setNotFoundHeader(context);
+					return;
+				}
+
 				processScript(path);
 				return;
 			}
 
-			final RequestContext context = new RequestContext(outputStream, parameters, persistentParameters,
-					outputCookies);
-			context.setMimeType(mime);
-			setSucessHeader(context);
-			if (!extension.equals(SMSCR)) {
-				context.write(Files.readAllBytes(path));
-			}
-		}
+			route = Route.STATIC;
+			final StaticFileCache.Entry entry = fileCache.get(path);
 
-		/**
-		 * Parses the parameter from the URL query passed as
-		 * {@code parametersString}. A query is some form of
-		 * {@code name=value&name2=value2}.
-		 * 
-		 * @param parametersString
-		 *            URL query
-		 */
-		private void extractParameters(final String parametersString) {
-			for (final String parameter : parametersString.split("&")) {
-				final String[] parameterSplit = parameter.split("=");
-				parameters.put(parameterSplit[0], parameterSplit[1]);
+			if (entry == null) {
+				final RequestContext context = getBadHeaderContext();
+				setNotFoundHeader(context);
+				return;
 			}
-		}
 
-		/**
-		 * Returns the name of the action that is specified in the URL from the
-		 * request header.
-		 * 
-		 * @param action
-		 *            full action name
-		 * @return action name
-		 */
-		private String getActionName(final String action) {
-			final int dotPos = action.lastIndexOf(".");
-			final int slashPos = action.lastIndexOf("/");
-			return action.substring(slashPos + 1, dotPos != -1 ? dotPos : action.length());
+			processStaticFile(entry);
 		}
 
 		/**
@@ -339,8 +427,7 @@ public class SmartHTTPServer {
 		 *         text
 		 */
 		private RequestContext getBadHeaderContext() {
-			final RequestContext context = new RequestContext(outputStream, parameters, persistentParameters,
-					outputCookies);
+			final RequestContext context = createContext();
 			context.setStatusCode(BAD_HEADER_CODE);
 			context.setStatusText(BAD_HEADER_TEXT);
 			return context;
@@ -348,7 +435,8 @@ public class SmartHTTPServer {
 
 		/**
 		 * Processes a call made to a web worker located in the {@code /ext/}
-		 * folder.
+		 * folder. The worker is taken from the {@link WorkerRegistry}, so its
+		 * class is loaded only on the first request.
 		 * 
 		 * @param path
 		 *            path in the URL
@@ -356,281 +444,1205 @@ public class SmartHTTPServer {
 		 *             if an error occurs during writing to the output stream
 		 */
 		private void processExtWorker(final Path path) throws IOException {
-			final String name = path.getFileName().toString();
-			final RequestContext context = new RequestContext(outputStream, parameters, persistentParameters,
-					outputCookies);
-			try {
-				final Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(WORKER_SPACE + name);
-				final IWebWorker webWorker = (IWebWorker) referenceToClass.newInstance();
-				setSucessHeader(context);
-				webWorker.processRequest(context);
-			} catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+			final IWebWorker webWorker = workerRegistry.get(path.getFileName().toString());
+			final RequestContext context = createContext();
+
+			if (webWorker == null) {
 				setNotFoundHeader(context);
+				return;
 			}
+
+			processWorker(webWorker, context);
 		}
 
 		/**
-		 * Processes a call made to a script located in the {@code /scripts/}
-		 * folder.
-		 * 
-		 * @param path
-		 *            path in the URL
+		 * Lets the specified worker process the request. A
+		 * {@link IAsyncWebWorker} is only started, its future is kept in
+		 * {@code pending} and the response is finished when it completes.
+		 *
+		 * @param webWorker
+		 *            worker that processes the request
+		 * @param context
+		 *            context of the response
 		 * @throws IOException
 		 *             if an error occurs during writing to the output stream
 		 */
-		private void processScript(final Path path) throws IOException {
-			final List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
-			final StringBuilder script = new StringBuilder();
-			lines.forEach(l -> script.append(l));
-			final RequestContext context = new RequestContext(outputStream, parameters, persistentParameters,
-					outputCookies);
-			context.setMimeType(DEFAULT_MIME);
+		private void processWorker(final IWebWorker webWorker, final RequestContext context) throws IOException {
 			setSucessHeader(context);
-			new SmartScriptEngine(new SmartScriptParser(script.toString()).getDocumentNode(), context).execute();
-			final Map<String, String> sessionsMap = sessions.get(SID).map;
 
-			for (final String name : context.getPersistentParameterNames()) {
-				sessionsMap.put(name, context.getPersistentParameter(name));
+			// parameters of a GET request without a body all come from the
+			// URL query, other requests may change state and aren't cached
+			if (responseCache != null && webWorker instanceof ICacheableWebWorker
+					&& parser.getMethod() == HttpRequestParser.GET && !parser.getBody().hasRemaining()) {
+				processCacheableWorker((ICacheableWebWorker) webWorker, context);
+			} else if (webWorker instanceof IAsyncWebWorker) {
+				pending = ((IAsyncWebWorker) webWorker).processRequestAsync(context);
+			} else {
+				webWorker.processRequest(context);
 			}
 		}
 
 		/**
-		 * Reads the header request and parses it into separates lines based on
-		 * the newline character combinations and returns a {@link List} of
-		 * strings.
-		 * 
-		 * @return {@link List} of strings
-		 */
-		private List<String> readRequest() {
-			final List<String> header = new ArrayList<>();
-			final byte[] buffer = new byte[BUFFER_SIZE];
-			int readBytes;
-			int headerSize = 0;
-			boolean headerExtracted = false;
-			try {
-				while (true) {
-					readBytes = istream.read(buffer);
-					if (readBytes == -1) {
-						break;
-					}
-
-					int offset = 0;
-					for (int i = 0; i < readBytes - 1; i++) {
-						if (checkNewline(buffer, i)) {
-							final String line = new String(buffer, offset, i - offset, StandardCharsets.UTF_8).trim();
-
-							if (line.isEmpty()) {
-								headerExtracted = true;
-								headerSize = i + 1;
-								break;
-							}
+		 * Serves a GET request without a body with the response from the
+		 * {@link ResponseCache}, so its parameters are all from the URL query.
+		 * If there is no cached response the worker writes its response to a
+		 * context of its own, which is then cached and copied to the
+		 * {@code context}.
+		 *
+		 * @param webWorker
+		 *            worker that processes the request
+		 * @param context
+		 *            context of the response
+		 * @throws IOException
+		 *             if an error occurs during writing to the output stream
+		 */
+		private void processCacheableWorker(final ICacheableWebWorker webWorker, final RequestContext context)
+				throws IOException {
+			final ResponseCache.Key key = new ResponseCache.Key(parser.getPath(), parameters);
+			final ResponseCache.Response cached = responseCache.get(key);
 
-							header.add(line);
-							i = i + 1;
-							offset = i;
-						}
-					}
+			if (cached != null) {
+				writeResponse(cached, context);
+				return;
+			}
 
-					if (headerExtracted) {
-						istream.unread(buffer, headerSize, readBytes - headerSize - 1);
-						break;
-					}
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final RequestContext capture = new RequestContext(output, parameters, persistentParameters,
+					outputCookies);
+			final int cookies = outputCookies.size();
+			setSucessHeader(capture);
 
-				}
-			} catch (final IOException e) {
-				e.printStackTrace();
+			if (!(webWorker instanceof IAsyncWebWorker)) {
+				webWorker.processRequest(capture);
+				cacheResponse(webWorker, key, capture, output, cookies, context);
+				return;
 			}
 
-			return header;
-		}
-
-		@Override
-		public void run() {
-			try {
-				istream = new PushbackInputStream(clientSocket.getInputStream());
-				outputStream = clientSocket.getOutputStream();
-				try {
-					extractFromHeader(readRequest());
-				} catch (final Exception e) {
-				}
-			} catch (final IOException e) {
-			} finally {
+			pending = ((IAsyncWebWorker) webWorker).processRequestAsync(capture).thenRun(() -> {
 				try {
-					clientSocket.close();
-				} catch (final IOException ignorable) {
+					cacheResponse(webWorker, key, capture, output, cookies, context);
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
 				}
-			}
+			});
 		}
 
 		/**
-		 * Sets file not found status code and status text and writes the header
-		 * to the provided {@link RequestContext} output stream.
-		 * 
+		 * Finishes the response written by a {@link ICacheableWebWorker},
+		 * caches it if it is successful and didn't set any cookies, and copies
+		 * it to the {@code context}.
+		 *
+		 * @param webWorker
+		 *            worker that wrote the response
+		 * @param key
+		 *            key of the response
+		 * @param capture
+		 *            context the worker wrote to
+		 * @param output
+		 *            output stream of the {@code capture} context
+		 * @param cookies
+		 *            number of output cookies before the worker was called
 		 * @param context
-		 *            {@link RequestContext}
+		 *            context of the response
 		 * @throws IOException
 		 *             if an error occurs during writing to the output stream
 		 */
-		private void setNotFoundHeader(final RequestContext context) throws IOException {
-			context.setStatusCode(NOT_FOUND_CODE);
-			context.setStatusText(NOT_FOUND_TEXT);
-			context.write(NOT_FOUND_TEXT);
+		private void cacheResponse(final ICacheableWebWorker webWorker, final ResponseCache.Key key,
+				final RequestContext capture, final ByteArrayOutputStream output, final int cookies,
+				final RequestContext context) throws IOException {
+			capture.finish();
+			final ResponseCache.Response response = ResponseCache.Response.capture(capture, output);
+
+			if (response.getStatusCode() == SUCCESS_CODE && outputCookies.size() == cookies) {
+				responseCache.put(key, response, webWorker.getCacheTimeout());
+			}
+
+			writeResponse(response, context);
 		}
 
 		/**
-		 * Sets success status code and status text to the provided
-		 * {@link RequestContext}.
-		 * 
+		 * Writes the specified response to the {@code context}. Content that
+		 * the client accepts compressed is written without a length, so it can
+		 * be compressed.
+		 *
+		 * @param response
+		 *            response written by a worker
 		 * @param context
-		 *            {@link RequestContext}
+		 *            context of the response
+		 * @throws IOException
+		 *             if an error occurs during writing to the output stream
 		 */
-		private void setSucessHeader(final RequestContext context) {
-			context.setStatusCode(SUCCESS_CODE);
-			context.setStatusText(SUCCESS_TEXT);
-		}
+		private void writeResponse(final ResponseCache.Response response, final RequestContext context)
+				throws IOException {
+			context.setStatusCode(response.getStatusCode());
+			context.setStatusText(response.getStatusText());
+			context.setMimeType(response.getMimeType());
+			context.setEncoding(response.getEncoding());
+
+			for (final Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+				context.setHeader(header.getKey(), header.getValue());
+			}
 
-	}
+			if (acceptedEncoding == null || !compressibleTypes.contains(response.getMimeType())) {
+				context.setContentLength(response.getContent().length);
+			}
 
-	/**
-	 * Class that acts as the server. It accepts request from clients and
-	 * creates new threads that are responsible for further communication with
-	 * the client. Every request gets a new {@link ClientWorker} thread.
-	 * 
-	 * @author Nikola Bukovac
-	 * @version 1.0
-	 */
-	protected class ServerThread extends Thread {
+			context.write(response.getContent());
+		}
 
-		@Override
-		public void run() {
-			ServerSocket serverSocket = null;
-			try {
-				serverSocket = new ServerSocket();
-				serverSocket.bind(new InetSocketAddress(InetAddress.getByName(address), port));
+		/**
+		 * Processes a call made to a script located in the {@code /scripts/}
+		 * folder. The script is parsed only if it isn't in the
+		 * {@link ScriptCache} or was modified after it was cached. With the
+		 * streaming engine the script is executed while it is parsed, on every
+		 * request.
+		 * 
+		 * @param path
+		 *            path in the URL
+		 * @throws IOException
+		 *             if an error occurs during reading the script or writing
+		 *             to the output stream
+		 */
+		private void processScript(final Path path) throws IOException {
+			final IExecutableScript script = streamScripts ? null : scriptCache.get(path);
+			final RequestContext context = createContext();
+			context.setMimeType(DEFAULT_MIME_TYPE);
+			setSucessHeader(context);
 
-				while (true) {
-					final Socket client = serverSocket.accept();
-					final ClientWorker clientWorker = new ClientWorker(client);
-					threadPool.submit(clientWorker);
-				}
-			} catch (final IOException e) {
-			} finally {
-				if (serverSocket != null) {
-					try {
-						serverSocket.close();
-						timer.cancel();
-					} catch (final IOException e) {
-						System.err.println("Couldn't close the server socket");
-					}
+			if (streamScripts) {
+				try (Reader reader = ScriptCache.open(path)) {
+					SmartScriptEngine.execute(reader, context);
+				} catch (final UncheckedIOException e) {
+					throw e.getCause();
 				}
-				threadPool.shutdown();
+			} else {
+				script.execute(context);
 			}
-		}
-	}
-
-	/**
-	 * Class used as a storage for information about established sessions.
-	 * Contains info about every session and stores cookie information as well.
-	 * 
-	 * @author Nikola Bukovac
-	 * @version 1.0
-	 */
-	private static class SessionMapEntry {
 
-		/** Session id */
-		private final String sid;
+			final Map<String, String> sessionsMap = session.getMap();
+			boolean changed = false;
 
-		/** Specifies until this session entry is valid */
-		private final long validUntil;
+			for (final String name : context.getPersistentParameterNames()) {
+				final String value = context.getPersistentParameter(name);
+				changed |= !Objects.equals(value, sessionsMap.put(name, value));
+			}
 
-		/** Map of persistent parameters */
-		private final Map<String, String> map;
+			// most scripts only read the session, saving it would record it
+			// again without any change
+			if (changed) {
+				sessionStore.save(session);
+			}
+		}
 
 		/**
-		 * Constructs a new {@link SessionMapEntry} with the specified
-		 * parameters.
-		 * 
-		 * @param sid
-		 *            session id
-		 * @param validUntil
-		 *            time until this session is valid
+		 * Reads data from the connection until the parser has a complete or a
+		 * bad request. Data read after the request, such as the next pipelined
+		 * request, stays in the parser.
+		 *
+		 * @return true if a request was read, false if the connection was
+		 *         closed before the request was complete
+		 * @throws IOException
+		 *             if an error occurs while reading from the input stream
 		 */
-		SessionMapEntry(final String sid, final long validUntil) {
-			super();
-			this.sid = sid;
-			this.validUntil = validUntil;
-			this.map = Collections.synchronizedMap(new HashMap<String, String>());
-		}
-
-	}
+		private boolean readRequest() throws IOException {
+			while (!parser.parse()) {
+				final ByteBuffer buffer = parser.buffer();
+				final int read = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(),
+						buffer.remaining());
+
+				if (read == -1) {
+					return false;
+				}
 
-	/** Length of the generated session id */
-	private static final int SID_LENGTH = 30;
+				buffer.position(buffer.position() + read);
+			}
 
-	/**
-	 * Program entry point
-	 * 
-	 * @param args
-	 *            requires one argument containing the file path to the
-	 *            server.properties configuration file.
-	 */
-	public static void main(final String[] args) {
-		if (args.length != 1) {
-			System.err.println("Config file isn't provided");
+			return true;
 		}
 
-		final SmartHTTPServer smartHTTPServer = new SmartHTTPServer(args[0]);
-		smartHTTPServer.start();
-	}
+		/**
+		 * Returns the content encoding that should be used for the response,
+		 * based on the value of the {@code Accept-Encoding} header field. Gzip
+		 * is preferred to deflate if the client accepts both equally.
+		 *
+		 * @param acceptEncoding
+		 *            value of the header field or {@code null}
+		 * @return {@code gzip}, {@code deflate} or {@code null} if the content
+		 *         shouldn't be compressed
+		 */
+		private String negotiateEncoding(final String acceptEncoding) {
+			if (acceptEncoding == null || compressibleTypes.isEmpty()) {
+				return null;
+			}
 
-	/** Server address */
-	private String address;
+			String encoding = null;
+			double bestQuality = 0;
 
-	/** Port the server application listens */
-	private int port;
+			for (final String coding : acceptEncoding.split(",")) {
+				final String[] parts = coding.split(";");
+				final String name = parts[0].trim().toLowerCase();
+				double quality = 1;
 
-	/** Number of worker threads */
-	private int workerThreads;
+				for (int i = 1; i < parts.length; i++) {
+					final String parameter = parts[i].trim();
 
-	/** Session timeout limit */
-	private int sessionTimeout;
+					if (parameter.startsWith("q=")) {
+						try {
+							quality = Double.parseDouble(parameter.substring(2));
+						} catch (final NumberFormatException e) {
+							quality = 0;
+						}
+					}
+				}
 
-	/** Supported mime types */
-	private final Map<String, String> mimeTypes = new HashMap<>();
+				if (!name.equals(RequestContext.GZIP_ENCODING) && !name.equals(RequestContext.DEFLATE_ENCODING)) {
+					continue;
+				}
 
-	/** Supported workers */
-	private final Map<String, IWebWorker> workersMap = new HashMap<>();
+				if (quality > bestQuality || quality == bestQuality && name.equals(RequestContext.GZIP_ENCODING)) {
+					encoding = quality > 0 ? name : encoding;
+					bestQuality = quality;
+				}
+			}
 
-	/** {@link ServerThread} that serves clients */
-	private ServerThread serverThread;
+			return encoding;
+		}
 
-	/** {@link ExecutorService} thread pool */
-	private ExecutorService threadPool;
+		/**
+		 * Returns the ranges of the file requested with the {@code Range}
+		 * header field. The ranges are ignored if the {@code If-Range} header
+		 * field doesn't match the current version of the file.
+		 *
+		 * @param entry
+		 *            cached file
+		 * @return requested ranges, a empty list if none of them can be
+		 *         satisfied or {@code null} if the whole file should be sent
+		 */
+		private List<ByteRange> getRanges(final StaticFileCache.Entry entry) {
+			final String range = parser.getHeader("Range");
 
-	/** Servers root folder */
-	private Path documentRoot;
+			if (range == null || parser.getMethod() != HttpRequestParser.GET) {
+				return null;
+			}
 
-	/** Map containing session information */
-	private volatile Map<String, SessionMapEntry> sessions = new HashMap<>();
+			final String ifRange = parser.getHeader("If-Range");
 
-	/** {@link Random} used to generate session ids */
-	private final Random sessionRandom = new Random();
+			if (ifRange != null && !ifRange.equals(entry.getETag())
+					&& !ifRange.equals(entry.getLastModifiedText())) {
+				return null;
+			}
 
-	/**
-	 * {@link TimerTask} used for removing expired session information from the
-	 * {@code sessions} map
+			return ByteRange.parse(range, entry.getSize());
+		}
+
+		/**
+		 * Writes the requested ranges of the file as partial content. A
+		 * single range is sent as the content, multiple ranges are sent as
+		 * parts of a {@code multipart/byteranges} content. If none of the
+		 * ranges can be satisfied only the size of the file is sent.
+		 *
+		 * @param entry
+		 *            cached file
+		 * @param ranges
+		 *            requested ranges
+		 * @param context
+		 *            context of the response
+		 * @throws IOException
+		 *             if an error occurs while reading the file or writing to
+		 *             the output stream
+		 */
+		private void processRanges(final StaticFileCache.Entry entry, final List<ByteRange> ranges,
+				final RequestContext context) throws IOException {
+			final long size = entry.getSize();
+
+			if (ranges.isEmpty()) {
+				context.setStatusCode(RANGE_NOT_SATISFIABLE_CODE);
+				context.setStatusText(RANGE_NOT_SATISFIABLE_TEXT);
+				context.setHeader(CONTENT_RANGE, ByteRange.BYTES_UNIT + " */" + size);
+				context.setContentLength(0);
+				return;
+			}
+
+			context.setStatusCode(PARTIAL_CONTENT_CODE);
+			context.setStatusText(PARTIAL_CONTENT_TEXT);
+
+			final String[] partHeaders = new String[ranges.size()];
+			String end = null;
+
+			if (ranges.size() == 1) {
+				context.setHeader(CONTENT_RANGE, ranges.get(0).toContentRange(size));
+				context.setContentLength(ranges.get(0).getLength());
+			} else {
+				final String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+				long length = 0;
+
+				for (int i = 0; i < partHeaders.length; i++) {
+					partHeaders[i] = "\r\n--" + boundary + "\r\nContent-Type: " + entry.getMimeType() + "\r\n"
+							+ CONTENT_RANGE + ": " + ranges.get(i).toContentRange(size) + "\r\n\r\n";
+					length += partHeaders[i].length() + ranges.get(i).getLength();
+				}
+
+				end = "\r\n--" + boundary + "--\r\n";
+				context.setMimeType(MULTIPART_BYTERANGES + "; boundary=" + boundary);
+				context.setContentLength(length + end.length());
+			}
+
+			try (FileChannel file = entry.getContent() == null
+					? FileChannel.open(entry.getPath(), StandardOpenOption.READ) : null) {
+				for (int i = 0; i < partHeaders.length; i++) {
+					final ByteRange range = ranges.get(i);
+
+					if (partHeaders[i] != null) {
+						context.write(partHeaders[i]);
+					}
+
+					if (file != null) {
+						context.write(file, range.getStart(), range.getLength());
+					} else {
+						context.write(ByteBuffer.wrap(entry.getContent(), (int) range.getStart(),
+								(int) range.getLength()));
+					}
+				}
+			}
+
+			if (end != null) {
+				context.write(end);
+			}
+		}
+
+		/**
+		 * Checks if the client already has the current version of the cached
+		 * file, based on the {@code If-None-Match} header field or, if that
+		 * one isn't sent, the {@code If-Modified-Since} header field.
+		 *
+		 * @param entry
+		 *            cached file
+		 * @param eTag
+		 *            entity tag of the content that would be sent
+		 * @return true if the file wasn't modified, else false
+		 */
+		private boolean isNotModified(final StaticFileCache.Entry entry, final String eTag) {
+			final String ifNoneMatch = parser.getHeader("If-None-Match");
+
+			if (ifNoneMatch != null) {
+				for (final String tag : ifNoneMatch.split(",")) {
+					final String trimmed = tag.trim();
+
+					if (trimmed.equals("*") || trimmed.equals(eTag) || trimmed.equals("W/" + eTag)) {
+						return true;
+					}
+				}
+
+				return false;
+			}
+
+			final String ifModifiedSince = parser.getHeader("If-Modified-Since");
+
+			if (ifModifiedSince != null) {
+				try {
+					final long since = ZonedDateTime.parse(ifModifiedSince, StaticFileCache.HTTP_DATE).toEpochSecond();
+					return entry.getLastModified() / 1000 <= since;
+				} catch (final DateTimeParseException ignorable) {
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Writes the cached file as the content of the response, with its
+		 * length sent in the {@code Content-Length} header. The compressed
+		 * content is sent if the client accepts gzip and the file has it.
+		 * Files whose content isn't cached are streamed from disk. If the
+		 * client already has the current version of the file only the header
+		 * is sent. If the client requested ranges of the file only those are
+		 * sent, uncompressed.
+		 *
+		 * @param entry
+		 *            cached file
+		 * @throws IOException
+		 *             if an error occurs while reading the file or writing to
+		 *             the output stream
+		 */
+		private void processStaticFile(final StaticFileCache.Entry entry) throws IOException {
+			final List<ByteRange> ranges = getRanges(entry);
+			final byte[] compressed = ranges == null && RequestContext.GZIP_ENCODING.equals(acceptedEncoding)
+					? entry.getCompressedContent() : null;
+			final String eTag = compressed != null ? entry.getCompressedETag() : entry.getETag();
+
+			final RequestContext context = createContext();
+			context.setMimeType(entry.getMimeType());
+			context.setHeader("ETag", eTag);
+			context.setHeader("Last-Modified", entry.getLastModifiedText());
+			context.setHeader("Accept-Ranges", ByteRange.BYTES_UNIT);
+
+			if (isNotModified(entry, eTag)) {
+				context.setStatusCode(NOT_MODIFIED_CODE);
+				context.setStatusText(NOT_MODIFIED_TEXT);
+				return;
+			}
+
+			if (ranges != null) {
+				processRanges(entry, ranges, context);
+				return;
+			}
+
+			setSucessHeader(context);
+
+			if (compressed != null) {
+				context.setHeader(RequestContext.CONTENT_ENCODING, RequestContext.GZIP_ENCODING);
+				context.setContentLength(compressed.length);
+				context.write(compressed);
+				return;
+			}
+
+			context.setContentLength(entry.getSize());
+
+			if (entry.getContent() != null) {
+				context.write(entry.getContent());
+				return;
+			}
+
+			try (FileChannel file = FileChannel.open(entry.getPath(), StandardOpenOption.READ)) {
+				context.write(file, 0, entry.getSize());
+			}
+		}
+
+		/**
+		 * Resets the state left from the previous request on this connection.
+		 */
+		private void resetRequest() {
+			parameters.clear();
+			outputCookies.clear();
+			persistentParameters = null;
+			session = null;
+			context = null;
+			keepAlive = false;
+			acceptedEncoding = null;
+			route = null;
+		}
+
+		/**
+		 * Serves the requests on the connection. If a request is served by a
+		 * {@link IAsyncWebWorker} that hasn't completed, the thread is
+		 * released and the worker is submitted again when the future
+		 * completes, keeping its output buffer and connection until then.
+		 */
+		@Override
+		public void run() {
+			boolean suspended = false;
+
+			try {
+				boolean next;
+
+				if (pending != null) {
+					completeRequest(failureOf(pending));
+					parser.next();
+					next = keepAlive && connection == null;
+				} else {
+					open();
+					next = true;
+				}
+
+				while (next) {
+					if (connection == null && !readRequest()) {
+						keepAlive = false;
+						break;
+					}
+
+					if (!serve()) {
+						suspended = true;
+						// the worker can be resumed on another thread right away,
+						// so nothing may be touched after this
+						pending.whenComplete((result, error) -> resume());
+						return;
+					}
+
+					parser.next();
+					next = keepAlive && connection == null;
+				}
+
+				if (keepAlive) {
+					nioServer.resume(connection);
+				}
+			} catch (final IOException e) {
+				keepAlive = false;
+			} finally {
+				if (!suspended) {
+					close();
+				}
+			}
+		}
+
+		/**
+		 * Prepares the connection for reading requests and acquires the
+		 * output buffer.
+		 *
+		 * @throws IOException
+		 *             if the streams of the connection can't be opened
+		 */
+		private void open() throws IOException {
+			outputBuffer = outputBuffers.acquire();
+
+			clientAddress = channel().socket().getInetAddress();
+
+			if (connection != null) {
+				parser = connection.parser;
+				outputStream = Channels.newOutputStream(connection.channel);
+			} else {
+				if (keepAliveTimeout > 0) {
+					clientSocket.setSoTimeout(keepAliveTimeout * 1000);
+				}
+				parser = new HttpRequestParser();
+				inputStream = clientSocket.getInputStream();
+				outputStream = clientSocket.getOutputStream();
+			}
+		}
+
+		/**
+		 * Serves the parsed request and completes its response. If the request
+		 * can't be served the connection won't be kept open. The response to a
+		 * request served by a {@link IAsyncWebWorker} whose future hasn't
+		 * completed yet is completed later.
+		 *
+		 * @return true if the response is completed, false if it waits for
+		 *         the future in {@code pending}
+		 */
+		private boolean serve() {
+			resetRequest();
+			startTime = metrics == null ? 0 : metrics.requestStarted();
+			Throwable failure = null;
+
+			try {
+				extractFromHeader();
+			} catch (final Exception e) {
+				failure = e;
+			}
+
+			if (failure == null && pending != null) {
+				if (!pending.isDone()) {
+					return false;
+				}
+
+				failure = failureOf(pending);
+			}
+
+			completeRequest(failure);
+			return true;
+		}
+
+		/**
+		 * Finishes the response to the current request, unless serving the
+		 * request failed, and records the request in the metrics. The
+		 * connection is closed after a failed request.
+		 *
+		 * @param failure
+		 *            exception that serving the request failed with or
+		 *            {@code null}
+		 */
+		private void completeRequest(Throwable failure) {
+			pending = null;
+
+			if (failure == null && context != null) {
+				try {
+					context.finish();
+				} catch (final Exception e) {
+					failure = e;
+				}
+			}
+
+			if (failure != null) {
+				keepAlive = false;
+			}
+
+			if (metrics != null) {
+				metrics.requestFinished(route, context == null ? 0 : context.getStatusCode(), startTime,
+						failure != null);
+			}
+		}
+
+		/**
+		 * Returns the exception the specified completed future failed with.
+		 *
+		 * @param future
+		 *            completed future
+		 * @return exception or {@code null} if the future completed normally
+		 */
+		private Throwable failureOf(final CompletableFuture<Void> future) {
+			try {
+				future.join();
+				return null;
+			} catch (CompletionException | CancellationException e) {
+				return e;
+			}
+		}
+
+		/**
+		 * Submits this worker to the {@code resumePool} after the
+		 * {@link IAsyncWebWorker} that serves the current request completed.
+		 * The worker was admitted already and still holds its permit, so it
+		 * doesn't wait for admission and the response that is already
+		 * computed is never rejected. If the server is stopping the connection
+		 * is closed.
+		 */
+		private void resume() {
+			try {
+				resumePool.execute(this);
+			} catch (final RejectedExecutionException e) {
+				keepAlive = false;
+				close();
+			}
+		}
+
+		/**
+		 * Releases the output buffer and the admission permit and closes the
+		 * connection unless it stays open for the next request.
+		 */
+		private void close() {
+			outputBuffers.release(outputBuffer);
+			outputBuffer = null;
+
+			if (!keepAlive) {
+				closeClient(channel());
+			}
+
+			if (admitted) {
+				admitted = false;
+				admission.release();
+			}
+		}
+
+		/**
+		 * Sets file not found status code and status text and writes the header
+		 * to the provided {@link RequestContext} output stream.
+		 * 
+		 * @param context
+		 *            {@link RequestContext}
+		 * @throws IOException
+		 *             if an error occurs during writing to the output stream
+		 */
+		private void setNotFoundHeader(final RequestContext context) throws IOException {
+			context.setStatusCode(NOT_FOUND_CODE);
+			context.setStatusText(NOT_FOUND_TEXT);
+			context.write(NOT_FOUND_TEXT);
+		}
+
+		/**
+		 * Sets success status code and status text to the provided
+		 * {@link RequestContext}.
+		 * 
+		 * @param context
+		 *            {@link RequestContext}
+		 */
+		private void setSucessHeader(final RequestContext context) {
+			context.setStatusCode(SUCCESS_CODE);
+			context.setStatusText(SUCCESS_TEXT);
+		}
+
+	}
+
+	/**
+	 * Class that acts as the server. It accepts request from clients and
+	 * creates new threads that are responsible for further communication with
+	 * the client. Every request gets a new {@link ClientWorker} thread.
+	 * 
+	 * @author Nikola Bukovac
+	 * @version 1.0
 	 */
-	private final TimerTask sessionRemover = new TimerTask() {
+	protected class ServerThread extends Thread {
+
+		@Override
+		public void run() {
+			ServerSocketChannel serverSocket = null;
+			try {
+				// accepting through a channel gives every socket a channel that
+				// files can be transferred to
+				serverSocket = ServerSocketChannel.open();
+				serverSocket.bind(new InetSocketAddress(InetAddress.getByName(address), port));
+
+				while (true) {
+					final SocketChannel client = serverSocket.accept();
+
+					if (admitConnection()) {
+						execute(new ClientWorker(client.socket()), true);
+					} else {
+						reject(client);
+					}
+				}
+			} catch (final IOException e) {
+			} finally {
+				if (serverSocket != null) {
+					try {
+						serverSocket.close();
+						timer.cancel();
+					} catch (final IOException e) {
+						System.err.println("Couldn't close the server socket");
+					}
+				}
+				threadPool.shutdown();
+				resumePool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Class that acts as the server when the non-blocking connection front end
+	 * is configured. A single thread multiplexes all client connections with a
+	 * {@link Selector} and reads requests as they arrive. Only complete
+	 * requests are handed to a {@link ClientWorker} in the thread pool, so idle
+	 * and slow clients don't occupy worker threads. The thread never waits for
+	 * a free worker, if the server is overloaded and the overload policy is to
+	 * wait, connections with a complete request wait in a queue and are
+	 * submitted again on the next selections.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	protected class NioServerThread extends Thread {
+
+		/** Time in milliseconds between two checks for idle connections */
+		private static final long IDLE_CHECK_INTERVAL = 1000;
+
+		/** Time in milliseconds between two submissions of waiting connections */
+		private static final long RETRY_INTERVAL = 10;
+
+		/** Connections given back by the workers after a response */
+		private final Queue<NioConnection> resumed = new ConcurrentLinkedQueue<>();
+
+		/**
+		 * Connections with a complete request waiting for a free worker, in
+		 * the order their requests were read
+		 */
+		private final Queue<NioConnection> waiting = new ArrayDeque<>();
+
+		/** {@link Selector} that multiplexes the connections */
+		private volatile Selector selector;
+
+		/**
+		 * Accepts a new client connection and registers it with the
+		 * {@code selector} for reading.
+		 *
+		 * @param serverChannel
+		 *            channel on which the server listens
+		 * @param selector
+		 *            {@link Selector} that multiplexes the connections
+		 * @throws IOException
+		 *             if an error occurs while accepting the connection
+		 */
+		private void accept(final ServerSocketChannel serverChannel, final Selector selector) throws IOException {
+			final SocketChannel channel = serverChannel.accept();
+
+			if (channel == null) {
+				return;
+			} else if (!admitConnection()) {
+				reject(channel);
+				return;
+			}
+
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, new NioConnection(channel));
+		}
+
+		/**
+		 * Closes the connections that have been idle for longer than the
+		 * keep-alive timeout.
+		 */
+		private void closeIdle() {
+			final long limit = System.currentTimeMillis() - keepAliveTimeout * 1000L;
+
+			for (final SelectionKey key : selector.keys()) {
+				final Object attachment = key.attachment();
+
+				if (attachment instanceof NioConnection && ((NioConnection) attachment).lastActivity < limit) {
+					close(key);
+				}
+			}
+		}
+
+		/**
+		 * Closes the connection attached to the {@code key}.
+		 *
+		 * @param key
+		 *            key of the connection
+		 */
+		private void close(final SelectionKey key) {
+			key.cancel();
+			closeClient((SocketChannel) key.channel());
+		}
+
+		/**
+		 * Switches the connection back to blocking mode and submits its request
+		 * to the thread pool. If there is no free worker, or other connections
+		 * already wait for one, the connection waits in {@code waiting}. The
+		 * key of the connection has to be deregistered from the selector
+		 * before this method is called.
+		 *
+		 * @param connection
+		 *            connection with a complete request
+		 */
+		private void dispatch(final NioConnection connection) {
+			try {
+				connection.channel.configureBlocking(true);
+			} catch (final IOException e) {
+				closeClient(connection.channel);
+				return;
+			}
+
+			if (!waiting.isEmpty() || !execute(new ClientWorker(this, connection), false)) {
+				waiting.add(connection);
+			}
+		}
+
+		/**
+		 * Submits the waiting connections in order until there is no free
+		 * worker.
+		 */
+		private void dispatchWaiting() {
+			NioConnection connection;
+
+			while ((connection = waiting.peek()) != null && execute(new ClientWorker(this, connection), false)) {
+				waiting.poll();
+			}
+		}
+
+		/**
+		 * Reads the available data of the connection attached to the
+		 * {@code key}. If the request is complete, or is a bad request, the key
+		 * is cancelled and the connection is added to {@code completed}.
+		 *
+		 * @param key
+		 *            key of the connection
+		 * @param completed
+		 *            connections with a complete request
+		 */
+		private void read(final SelectionKey key, final List<NioConnection> completed) {
+			final NioConnection connection = (NioConnection) key.attachment();
+
+			try {
+				connection.lastActivity = System.currentTimeMillis();
+
+				if (connection.channel.read(connection.parser.buffer()) == -1) {
+					close(key);
+				} else if (connection.parser.parse()) {
+					key.cancel();
+					completed.add(connection);
+				}
+			} catch (final IOException e) {
+				close(key);
+			}
+		}
+
+		/**
+		 * Registers the connections given back by the workers with the
+		 * selector. Connections that already contain a complete pipelined
+		 * request are dispatched right away.
+		 *
+		 * @throws IOException
+		 *             if an error occurs while registering a connection
+		 */
+		private void registerResumed() throws IOException {
+			NioConnection connection;
+
+			while ((connection = resumed.poll()) != null) {
+				connection.lastActivity = System.currentTimeMillis();
+
+				if (connection.parser.parse()) {
+					dispatch(connection);
+					continue;
+				}
+
+				try {
+					connection.channel.configureBlocking(false);
+					connection.channel.register(selector, SelectionKey.OP_READ, connection);
+				} catch (final ClosedChannelException e) {
+				}
+			}
+		}
+
+		/**
+		 * Gives a connection that stays open after a response back to this
+		 * thread, which waits for its next request.
+		 *
+		 * @param connection
+		 *            connection whose response is completed
+		 */
+		void resume(final NioConnection connection) {
+			resumed.add(connection);
+			selector.wakeup();
+		}
 
 		@Override
 		public void run() {
-			final long time = LocalTime.now().toSecondOfDay();
-			for (final SessionMapEntry session : sessions.values()) {
-				if (session.validUntil >= time) {
-					sessions.remove(session);
+			try (Selector selector = Selector.open(); ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+				this.selector = selector;
+				serverChannel.configureBlocking(false);
+				serverChannel.bind(new InetSocketAddress(InetAddress.getByName(address), port));
+				serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+				final List<NioConnection> completed = new ArrayList<>();
+				long lastIdleCheck = System.currentTimeMillis();
+
+				while (true) {
+					selector.select(waiting.isEmpty() ? IDLE_CHECK_INTERVAL : RETRY_INTERVAL);
+					dispatchWaiting();
+					registerResumed();
+
+					if (keepAliveTimeout > 0 && System.currentTimeMillis() - lastIdleCheck >= IDLE_CHECK_INTERVAL) {
+						closeIdle();
+						lastIdleCheck = System.currentTimeMillis();
+					}
+
+					final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+
+					while (iterator.hasNext()) {
+						final SelectionKey key = iterator.next();
+						iterator.remove();
+
+						if (!key.isValid()) {
+							continue;
+						}
+
+						if (key.isAcceptable()) {
+							accept(serverChannel, selector);
+						} else if (key.isReadable()) {
+							read(key, completed);
+						}
+					}
+
+					if (!completed.isEmpty()) {
+						// cancelled keys are deregistered on the next selection,
+						// only then can the channels go back to blocking mode
+						selector.selectNow();
+						completed.forEach(this::dispatch);
+						completed.clear();
+					}
 				}
+			} catch (final IOException e) {
+				System.err.println("Non-blocking server stopped: " + e.getMessage());
+			} finally {
+				timer.cancel();
+				threadPool.shutdown();
+				resumePool.shutdown();
 			}
 		}
+	}
+
+	/**
+	 * Class that stores the state of one client connection handled by the
+	 * {@link NioServerThread} while its request is being read.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	private static class NioConnection {
+
+		/** Client {@link SocketChannel} */
+		private final SocketChannel channel;
+
+		/** Parser of the requests on the connection */
+		private final HttpRequestParser parser = new HttpRequestParser();
+
+		/** Time in milliseconds of the last activity on the connection */
+		private long lastActivity = System.currentTimeMillis();
+
+		/**
+		 * Constructs a new {@link NioConnection} for the specified channel.
+		 *
+		 * @param channel
+		 *            client {@link SocketChannel}
+		 */
+		NioConnection(final SocketChannel channel) {
+			super();
+			this.channel = channel;
+		}
+	}
+
+	/** Length of the generated session id */
+	private static final int SID_LENGTH = 30;
+
+	/** Default mime type */
+	private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+	/** Name of the blocking connection front end */
+	private static final String BLOCKING_CONNECTOR = "blocking";
+
+	/** Name of the non-blocking connection front end */
+	private static final String NIO_CONNECTOR = "nio";
+
+	/** Name of the session store that keeps sessions in memory */
+	private static final String MEMORY_STORE = "memory";
+
+	/** Name of the session store that keeps sessions in a memory mapped file */
+	private static final String MAPPED_STORE = "mapped";
+
+	/** Name of the worker mode that runs workers on a fixed thread pool */
+	private static final String POOL_MODE = "pool";
+
+	/** Name of the worker mode that runs every worker on its own virtual thread */
+	private static final String VIRTUAL_MODE = "virtual";
+
+	/** Name of the script engine that interprets parsed scripts */
+	private static final String INTERPRETER_ENGINE = "interpreter";
+
+	/** Name of the script engine that compiles parsed scripts to Java classes */
+	private static final String COMPILER_ENGINE = "compiler";
+
+	/** Name of the script engine that executes scripts while they are parsed */
+	private static final String STREAMING_ENGINE = "streaming";
+
+	/** Prefix of the keys in the mime configuration that aren't file extensions */
+	private static final String COMPRESS_PREFIX = "compress.";
+
+	/** Key of the compressible MIME types in the mime configuration */
+	private static final String COMPRESS_TYPES = COMPRESS_PREFIX + "types";
+
+	/** Name of the overload policy that rejects new connections */
+	private static final String REJECT_OVERLOAD = "reject";
+
+	/** Name of the overload policy that waits for a free worker */
+	private static final String WAIT_OVERLOAD = "wait";
+
+	/** Name of the header field that tells a client when to retry */
+	private static final String RETRY_AFTER = "Retry-After";
+
+	/** Number of seconds a rejected client should wait before retrying */
+	private static final String RETRY_AFTER_SECONDS = "1";
+
+	/** Response sent to a connection that the overloaded server rejected */
+	private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\n"
+			+ RETRY_AFTER + ": " + RETRY_AFTER_SECONDS + "\r\nConnection: close\r\n\r\n")
+					.getBytes(StandardCharsets.ISO_8859_1);
+
+	/** Time in milliseconds between two removals of full rate limit buckets */
+	private static final long RATE_LIMIT_CLEANUP_INTERVAL = 60 * 1000;
+
+	/** Worker package */
+	private static final String WORKER_SPACE = "hr.fer.zemris.java.webserver.workers.";
+
+	/** Size of the output buffer of a {@link ClientWorker} */
+	private static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Program entry point
+	 * 
+	 * @param args
+	 *            requires one argument containing the file path to the
+	 *            server.properties configuration file.
+	 */
+	public static void main(final String[] args) {
+		if (args.length != 1) {
+			System.err.println("Config file isn't provided");
+		}
+
+		final SmartHTTPServer smartHTTPServer = new SmartHTTPServer(args[0]);
+		smartHTTPServer.start();
+	}
+
+	/** Server address */
+	private String address;
+
+	/** Port the server application listens */
+	private int port;
+
+	/** Number of worker threads */
+	private int workerThreads;
+
+	/** Flag that determines if the non-blocking connection front end is used */
+	private boolean nonBlocking;
+
+	/** Flag that determines if scripts are executed while they are parsed */
+	private boolean streamScripts;
+
+	/** Time in seconds an idle persistent connection stays open */
+	private int keepAliveTimeout;
+
+	/** Supported mime types */
+	private final Map<String, String> mimeTypes = new HashMap<>();
+
+	/** MIME types of the content that is compressed */
+	private final Set<String> compressibleTypes = new HashSet<>();
+
+	/** Supported workers */
+	private final Map<String, IWebWorker> workersMap = new HashMap<>();
+
+	/** Registry of the worker instances, including the {@code /ext/} workers */
+	private final WorkerRegistry workerRegistry = new WorkerRegistry(WORKER_SPACE, getClass().getClassLoader());
+
+	/** {@link ServerThread} or {@link NioServerThread} that serves clients */
+	private Thread serverThread;
+
+	/** {@link ExecutorService} thread pool */
+	private ExecutorService threadPool;
+
+	/**
+	 * Executor that runs the workers resumed after a {@link IAsyncWebWorker}
+	 * completed, it never rejects them while the server runs
+	 */
+	private ExecutorService resumePool;
+
+	/** Flag that determines if every worker runs on its own virtual thread */
+	private boolean virtualThreads;
+
+	/**
+	 * Limits the number of workers running at once on virtual threads, or
+	 * {@code null} if the number isn't limited
+	 */
+	private Semaphore admission;
+
+	/**
+	 * Maximum number of connections waiting for a worker thread, zero if the
+	 * number isn't limited
+	 */
+	private int queueSize;
+
+	/**
+	 * Flag that determines if new connections are rejected when the server
+	 * is overloaded, instead of waiting for a free worker
+	 */
+	private boolean rejectOverload;
+
+	/** Maximum number of open client connections, zero if it isn't limited */
+	private int maxConnections;
+
+	/** Number of open client connections, only counted if they are limited */
+	private final AtomicInteger openConnections = new AtomicInteger();
+
+	/** Limits the request rate of every client address or {@code null} */
+	private RateLimiter<InetAddress> rateLimiter;
+
+	/** Servers root folder */
+	private Path documentRoot;
+
+	/** Cache of static files from the {@code documentRoot} */
+	private StaticFileCache fileCache;
+
+	/** Cache of executable scripts */
+	private ScriptCache scriptCache;
+
+	/** Cache of {@link ICacheableWebWorker} responses or {@code null} */
+	private ResponseCache responseCache;
+
+	/** Store of the client sessions */
+	private ISessionStore sessionStore;
+
+	/** Pool of the {@link ClientWorker} output buffers */
+	private BufferPool outputBuffers;
+
+	/** Registry of the request metrics or {@code null} if metrics are disabled */
+	private MetricsRegistry metrics;
+
+	/** {@link Random} used to generate session ids */
+	private final Random sessionRandom = new Random();
+
+	/**
+	 * {@link TimerTask} used for removing expired sessions from the
+	 * {@code sessionStore}
+	 */
+	private final TimerTask sessionRemover = new TimerTask() {
+
+		@Override
+		public void run() {
+			sessionStore.removeExpired();
+		}
 	};
 
 	/** {@link Timer} used to schedule removal of expired sessions */
@@ -650,10 +1662,37 @@ public class SmartHTTPServer {
 			address = properties.getProperty("server.address");
 			port = Integer.parseInt(properties.getProperty("server.port"));
 			workerThreads = Integer.parseInt(properties.getProperty("server.workerThreads"));
+			outputBuffers = new BufferPool(OUTPUT_BUFFER_SIZE, workerThreads, false);
+			virtualThreads = VIRTUAL_MODE.equals(properties.getProperty("server.workerMode", POOL_MODE).trim());
+			final int maxConcurrentWorkers = Integer
+					.parseInt(properties.getProperty("server.maxConcurrentWorkers", "0").trim());
+			admission = virtualThreads && maxConcurrentWorkers > 0 ? new Semaphore(maxConcurrentWorkers) : null;
+			queueSize = Integer.parseInt(properties.getProperty("server.queueSize", "0").trim());
+			rejectOverload = REJECT_OVERLOAD.equals(properties.getProperty("server.overload", WAIT_OVERLOAD).trim());
+			maxConnections = Integer.parseInt(properties.getProperty("server.maxConnections", "0").trim());
+			final double rateLimit = Double.parseDouble(properties.getProperty("server.rateLimit", "0").trim());
+			final int rateBurst = Integer.parseInt(properties.getProperty("server.rateBurst", "1").trim());
+			rateLimiter = rateLimit > 0 ? new RateLimiter<>(rateLimit, rateBurst) : null;
+			keepAliveTimeout = Integer.parseInt(properties.getProperty("server.keepAliveTimeout", "0").trim());
+			nonBlocking = NIO_CONNECTOR.equals(properties.getProperty("server.connector", BLOCKING_CONNECTOR).trim());
 			documentRoot = Paths.get(properties.getProperty("server.documentRoot"));
-			sessionTimeout = Integer.parseInt(properties.getProperty("session.timeout"));
+			final int sessionTimeout = Integer.parseInt(properties.getProperty("session.timeout"));
+			final int maxSessions = Integer.parseInt(properties.getProperty("session.maxSessions", "0").trim());
+			sessionStore = createSessionStore(sessionTimeout * 1000L, maxSessions,
+					properties.getProperty("session.store", MEMORY_STORE).trim(), properties.getProperty("session.file"),
+					Integer.parseInt(properties.getProperty("session.fileSize", "1048576").trim()));
+			final String scriptEngine = properties.getProperty("script.engine", INTERPRETER_ENGINE).trim();
+			final boolean compileScripts = COMPILER_ENGINE.equals(scriptEngine);
+			streamScripts = STREAMING_ENGINE.equals(scriptEngine);
+			scriptCache = new ScriptCache(compileScripts ? SmartHTTPServer::compileScript : InterpretedScript::new);
+			final long cacheSize = Long.parseLong(properties.getProperty("cache.maxSize", "0").trim());
+			final long cacheFileSize = Long.parseLong(properties.getProperty("cache.maxFileSize", "0").trim());
+			final long responseCacheSize = Long.parseLong(properties.getProperty("cache.responseMaxSize", "0").trim());
+			final long responseSize = Long.parseLong(properties.getProperty("cache.responseMaxEntrySize", "0").trim());
+			responseCache = responseCacheSize > 0 ? new ResponseCache(responseCacheSize, responseSize) : null;
 			final String mimeConfig = properties.getProperty("server.mimeConfig");
 			final String workersConfig = properties.getProperty("server.workers");
+			final String metricsPath = properties.getProperty("metrics.path", "").trim();
 
 			properties.clear();
 			properties.load(new BufferedReader(new InputStreamReader(new FileInputStream(new File(mimeConfig)))));
@@ -661,9 +1700,22 @@ public class SmartHTTPServer {
 
 			while (mimeProps.hasMoreElements()) {
 				final String s = (String) mimeProps.nextElement();
-				mimeTypes.put(s, properties.getProperty(s));
+
+				if (!s.startsWith(COMPRESS_PREFIX)) {
+					mimeTypes.put(s, properties.getProperty(s));
+				}
 			}
 
+			for (final String type : properties.getProperty(COMPRESS_TYPES, "").split(",")) {
+				if (!type.trim().isEmpty()) {
+					compressibleTypes.add(type.trim());
+				}
+			}
+
+			fileCache = new StaticFileCache(documentRoot, cacheSize, cacheFileSize, this::getMimeType,
+					compressibleTypes);
+			fileCache.addInvalidationListener(scriptCache::invalidate);
+
 			properties.clear();
 			properties.load(new BufferedReader(new InputStreamReader(new FileInputStream(new File(workersConfig)))));
 			final Enumeration<?> workerProps = properties.propertyNames();
@@ -671,14 +1723,20 @@ public class SmartHTTPServer {
 			while (workerProps.hasMoreElements()) {
 				final String path = (String) workerProps.nextElement();
 				final String fqcn = properties.getProperty(path);
-				final Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(fqcn);
-				final IWebWorker webWorker = (IWebWorker) referenceToClass.newInstance();
-				workersMap.put(path, webWorker);
+
+				try {
+					workersMap.put(path, workerRegistry.load(fqcn));
+				} catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+					System.err.println("Couldn't create a instance of IWebWorker " + fqcn + " for " + path + ": " + e);
+				}
+			}
+
+			if (!metricsPath.isEmpty()) {
+				metrics = new MetricsRegistry();
+				workersMap.put(metricsPath, new MetricsWorker(metrics, sessionStore));
 			}
 
 		} catch (final IOException ignorable) {
-		} catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
-			System.err.println("Couldn't create a instance of IWebWorker" + e.getMessage());
 		}
 	}
 
@@ -699,14 +1757,262 @@ public class SmartHTTPServer {
 	}
 
 	/**
-	 * Starts the {@link SmartHTTPServer} and its {@link ServerThread} if the
-	 * {@code serverThread} is {@code null}.
+	 * Creates the configured {@link ISessionStore}. If the memory mapped store
+	 * can't be created the sessions are kept only in memory.
+	 *
+	 * @param timeout
+	 *            time in milliseconds a unused session stays valid
+	 * @param maxSessions
+	 *            maximum number of sessions or zero if the number isn't
+	 *            limited
+	 * @param store
+	 *            name of the store
+	 * @param file
+	 *            path of the session file used by the memory mapped store
+	 * @param fileSize
+	 *            initial size of the session file
+	 * @return session store
+	 */
+	private static ISessionStore createSessionStore(final long timeout, final int maxSessions, final String store,
+			final String file, final int fileSize) {
+		if (MAPPED_STORE.equals(store)) {
+			try {
+				return new MappedSessionStore(timeout, maxSessions, Paths.get(file), fileSize);
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Couldn't open the session file, sessions will be kept in memory: " + e);
+			}
+		}
+
+		return new MemorySessionStore(timeout, maxSessions);
+	}
+
+	/**
+	 * Creates a executor that runs every task on a new virtual thread. Virtual
+	 * threads are only available on Java 21 and newer, so the executor is
+	 * looked up reflectively. On older runtimes a cached thread pool is used
+	 * instead, which also gives every running task its own thread.
+	 *
+	 * @return executor that runs every task on its own thread
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (final ReflectiveOperationException e) {
+			System.err.println("Virtual threads aren't supported, a cached thread pool will be used instead");
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * Creates the fixed pool of worker threads. If the queue of waiting
+	 * connections is limited and full, new connections are either rejected
+	 * or the calling thread waits for space in the queue, depending on the
+	 * overload policy. The non-blocking front end never waits, so the pool
+	 * always rejects for it and it retries later itself.
+	 *
+	 * @return pool of worker threads
+	 */
+	private ExecutorService newWorkerPool() {
+		if (queueSize <= 0) {
+			return Executors.newFixedThreadPool(workerThreads);
+		}
+
+		return new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(queueSize),
+				rejectOverload || nonBlocking ? new ThreadPoolExecutor.AbortPolicy() : SmartHTTPServer::waitForQueue);
+	}
+
+	/**
+	 * Waits until there is space in the queue of the pool and queues the
+	 * task. Used as the rejection handler of the worker pool when new
+	 * connections wait for a free worker.
+	 *
+	 * @param task
+	 *            task for queueing
+	 * @param pool
+	 *            pool whose queue is full
+	 * @throws RejectedExecutionException
+	 *             if the pool is shut down or the thread is interrupted
+	 */
+	private static void waitForQueue(final Runnable task, final ThreadPoolExecutor pool) {
+		if (pool.isShutdown()) {
+			throw new RejectedExecutionException("Worker pool is shut down");
+		}
+
+		try {
+			pool.getQueue().put(task);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException(e);
+		}
+	}
+
+	/**
+	 * Submits the specified worker to the {@code threadPool}. If the server
+	 * is overloaded, because the queue of the pool is full or too many
+	 * workers are running on virtual threads, the connection is rejected with
+	 * a 503 response if the overload policy is to reject. Otherwise the
+	 * calling thread waits for a free worker, unless it may not wait, then the
+	 * worker isn't submitted and has to be submitted again later.
+	 *
+	 * @param clientWorker
+	 *            worker for submitting
+	 * @param mayWait
+	 *            flag that determines if the calling thread may wait for a
+	 *            free worker
+	 * @return true if the worker is submitted or the connection rejected,
+	 *         false if the worker has to be submitted again later
+	 */
+	private boolean execute(final ClientWorker clientWorker, final boolean mayWait) {
+		try {
+			if (admission != null) {
+				if (!rejectOverload && mayWait) {
+					admission.acquireUninterruptibly();
+				} else if (!admission.tryAcquire()) {
+					throw new RejectedExecutionException("Too many running workers");
+				}
+
+				// the worker releases the permit when it releases the connection
+				clientWorker.admitted = true;
+			}
+
+			try {
+				threadPool.execute(clientWorker);
+			} catch (final RejectedExecutionException e) {
+				if (clientWorker.admitted) {
+					clientWorker.admitted = false;
+					admission.release();
+				}
+				throw e;
+			}
+		} catch (final RejectedExecutionException e) {
+			if (!rejectOverload && !mayWait && !threadPool.isShutdown()) {
+				return false;
+			}
+
+			reject(clientWorker.channel());
+		}
+
+		return true;
+	}
+
+	/**
+	 * Counts a new client connection if the number of connections is
+	 * limited. The connection is counted even if it isn't admitted, it has to
+	 * be closed with {@link #closeClient(SocketChannel)} in any case.
+	 *
+	 * @return true if the connection is admitted, false if there are too
+	 *         many open connections
+	 */
+	private boolean admitConnection() {
+		return maxConnections <= 0 || openConnections.incrementAndGet() <= maxConnections;
+	}
+
+	/**
+	 * Closes the specified client connection if it is open and stops
+	 * counting it.
+	 *
+	 * @param channel
+	 *            channel of the connection
+	 */
+	private void closeClient(final SocketChannel channel) {
+		if (!channel.isOpen()) {
+			return;
+		}
+
+		try {
+			channel.close();
+		} catch (final IOException ignorable) {
+		}
+
+		if (maxConnections > 0) {
+			openConnections.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Rejects the specified client connection because the server is
+	 * overloaded. A 503 response is sent without reading the request and the
+	 * connection is closed.
+	 *
+	 * @param channel
+	 *            channel of the connection in blocking mode
+	 */
+	private void reject(final SocketChannel channel) {
+		if (metrics != null) {
+			metrics.connectionRejected();
+		}
+
+		try {
+			channel.write(ByteBuffer.wrap(SERVICE_UNAVAILABLE));
+		} catch (final IOException ignorable) {
+		}
+
+		closeClient(channel);
+	}
+
+	/**
+	 * Compiles the specified parsed script with the {@link SmartScriptCompiler}.
+	 * If the script can't be compiled it is interpreted instead.
+	 *
+	 * @param documentNode
+	 *            parsed script
+	 * @return executable script
+	 */
+	private static IExecutableScript compileScript(final DocumentNode documentNode) {
+		try {
+			return SmartScriptCompiler.compile(documentNode);
+		} catch (final ScriptCompilationException e) {
+			System.err.println("Couldn't compile the script, it will be interpreted: " + e.getMessage());
+			return new InterpretedScript(documentNode);
+		}
+	}
+
+	/**
+	 * Returns the mime type for the specified file name based on its
+	 * extension, or {@code application/octet-stream} if the extension isn't
+	 * supported.
+	 *
+	 * @param fileName
+	 *            name of the file
+	 * @return mime type of the file
+	 */
+	private String getMimeType(final String fileName) {
+		final String mime = mimeTypes.get(fileName.substring(fileName.lastIndexOf(".") + 1));
+		return mime == null ? DEFAULT_MIME_TYPE : mime;
+	}
+
+	/**
+	 * Starts the {@link SmartHTTPServer} and its {@link ServerThread}, or
+	 * {@link NioServerThread} if the non-blocking connection front end is
+	 * configured, if the {@code serverThread} is {@code null}.
 	 */
 	protected synchronized void start() {
 		if (serverThread == null) {
-			serverThread = new ServerThread();
+			serverThread = nonBlocking ? new NioServerThread() : new ServerThread();
 			timer.scheduleAtFixedRate(sessionRemover, 0, 300 * 1000);
-			threadPool = Executors.newFixedThreadPool(workerThreads);
+			try {
+				fileCache.startWatching();
+			} catch (final IOException e) {
+				// without the invalidations changed files would be served
+				// stale, so every file is read from the disk again
+				System.err.println("Couldn't watch the document root, static files won't be cached");
+				fileCache = new StaticFileCache(documentRoot, 0, 0, this::getMimeType, compressibleTypes);
+			}
+			threadPool = virtualThreads ? newVirtualThreadExecutor() : newWorkerPool();
+			// a full queue would reject or block resumed workers, so they get
+			// their own threads then
+			resumePool = virtualThreads || queueSize <= 0 ? threadPool : Executors.newCachedThreadPool();
+
+			if (rateLimiter != null) {
+				timer.scheduleAtFixedRate(new TimerTask() {
+
+					@Override
+					public void run() {
+						rateLimiter.removeIdle();
+					}
+				}, RATE_LIMIT_CLEANUP_INTERVAL, RATE_LIMIT_CLEANUP_INTERVAL);
+			}
 			serverThread.start();
 		}
 	}
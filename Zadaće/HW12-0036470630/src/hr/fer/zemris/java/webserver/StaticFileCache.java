@@ -0,0 +1,519 @@
+package hr.fer.zemris.java.webserver;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Class that caches static files from the servers document root in memory.
+ * For every requested file the cache keeps its MIME type, size, modification
+ * time and entity tag, and for files that aren't larger than the configured
+ * limit also their content. When the total size of the cached content exceeds
+ * the configured limit the least recently used entries are removed.
+ * <p>
+ * Cached content of a compressible MIME type is also kept compressed with
+ * gzip, if that makes it smaller, so it can be sent to clients that accept
+ * gzip without compressing it on every request.
+ * </p>
+ * <p>
+ * Entries are invalidated by a {@link WatchService} that watches the document
+ * root and all its subdirectories, so changed files are read from the disk
+ * again on their next request. Other caches of files from the document root
+ * can be notified of the same changes with
+ * {@link #addInvalidationListener(Consumer)}.
+ * </p>
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class StaticFileCache {
+
+	/**
+	 * Class that represents one cached file.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	public static class Entry {
+
+		/** Path of the file */
+		private final Path path;
+
+		/** Content of the file, {@code null} if the file is too large */
+		private final byte[] content;
+
+		/**
+		 * Content of the file compressed with gzip, {@code null} if the
+		 * content isn't compressed
+		 */
+		private final byte[] compressedContent;
+
+		/** MIME type of the file */
+		private final String mimeType;
+
+		/** Size of the file in bytes */
+		private final long size;
+
+		/** Time of the last modification in milliseconds */
+		private final long lastModified;
+
+		/** Entity tag of this version of the file */
+		private final String eTag;
+
+		/** Entity tag of the compressed content of this version of the file */
+		private final String compressedETag;
+
+		/**
+		 * Constructs a new {@link Entry} with the specified values.
+		 *
+		 * @param path
+		 *            path of the file
+		 * @param content
+		 *            content of the file, {@code null} if it isn't cached
+		 * @param compressedContent
+		 *            content of the file compressed with gzip, {@code null} if
+		 *            it isn't compressed
+		 * @param mimeType
+		 *            MIME type of the file
+		 * @param size
+		 *            size of the file in bytes
+		 * @param lastModified
+		 *            time of the last modification in milliseconds
+		 */
+		Entry(final Path path, final byte[] content, final byte[] compressedContent, final String mimeType,
+				final long size, final long lastModified) {
+			super();
+			this.path = path;
+			this.content = content;
+			this.compressedContent = compressedContent;
+			this.mimeType = mimeType;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.eTag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+			this.compressedETag = eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+		}
+
+		/**
+		 * Returns the content of the file compressed with gzip, or
+		 * {@code null} if the content isn't cached, its type isn't
+		 * compressible or compressing doesn't make it smaller.
+		 *
+		 * @return compressed content or null
+		 */
+		public byte[] getCompressedContent() {
+			return compressedContent;
+		}
+
+		/**
+		 * Returns the entity tag of the compressed content of this version of
+		 * the file.
+		 *
+		 * @return entity tag of the compressed content
+		 */
+		public String getCompressedETag() {
+			return compressedETag;
+		}
+
+		/**
+		 * Returns the content of the file, or {@code null} if the file is too
+		 * large to be cached and has to be read from the disk.
+		 *
+		 * @return file content or null
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+
+		/**
+		 * Returns the entity tag of this version of the file.
+		 *
+		 * @return entity tag
+		 */
+		public String getETag() {
+			return eTag;
+		}
+
+		/**
+		 * Returns the time of the last modification in milliseconds.
+		 *
+		 * @return time of the last modification
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Returns the time of the last modification formatted for the
+		 * {@code Last-Modified} header.
+		 *
+		 * @return formatted time of the last modification
+		 */
+		public String getLastModifiedText() {
+			return HTTP_DATE.format(Instant.ofEpochMilli(lastModified));
+		}
+
+		/**
+		 * Returns the MIME type of the file.
+		 *
+		 * @return MIME type
+		 */
+		public String getMimeType() {
+			return mimeType;
+		}
+
+		/**
+		 * Returns the path of the file.
+		 *
+		 * @return file path
+		 */
+		public Path getPath() {
+			return path;
+		}
+
+		/**
+		 * Returns the size of the file in bytes.
+		 *
+		 * @return file size
+		 */
+		public long getSize() {
+			return size;
+		}
+	}
+
+	/** Format of dates in HTTP headers */
+	public static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME
+			.withZone(ZoneOffset.UTC);
+
+	/** Estimated memory used by an entry besides its content */
+	private static final int ENTRY_OVERHEAD = 256;
+
+	/** Root directory that is watched for changes */
+	private final Path documentRoot;
+
+	/** Maximum total size of the cached entries in bytes */
+	private final long maxSize;
+
+	/** Maximum size of a file whose content is cached */
+	private final long maxFileSize;
+
+	/** Function that returns the MIME type of a file name */
+	private final Function<String, String> mimeResolver;
+
+	/** MIME types whose content is also cached compressed */
+	private final Set<String> compressibleTypes;
+
+	/** Cached entries in the least recently used order */
+	private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** Total size of the cached entries in bytes */
+	private long size;
+
+	/**
+	 * Number of invalidations, used to drop entries that were read while
+	 * their file was changed
+	 */
+	private long generation;
+
+	/** Watched directories under their {@link WatchKey}s */
+	private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+
+	/** Listeners notified of the changed files and directories */
+	private final List<Consumer<Path>> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Constructs a new {@link StaticFileCache} with the specified values.
+	 *
+	 * @param documentRoot
+	 *            root directory from which files are served
+	 * @param maxSize
+	 *            maximum total size of the cached entries in bytes
+	 * @param maxFileSize
+	 *            maximum size of a file whose content is cached
+	 * @param mimeResolver
+	 *            function that returns the MIME type of a file name
+	 * @param compressibleTypes
+	 *            MIME types whose content is also cached compressed
+	 */
+	public StaticFileCache(final Path documentRoot, final long maxSize, final long maxFileSize,
+			final Function<String, String> mimeResolver, final Set<String> compressibleTypes) {
+		super();
+		this.documentRoot = documentRoot.toAbsolutePath().normalize();
+		this.maxSize = maxSize;
+		this.maxFileSize = maxFileSize;
+		this.mimeResolver = mimeResolver;
+		this.compressibleTypes = compressibleTypes;
+	}
+
+	/**
+	 * Returns the estimated memory used by the {@code entry}.
+	 *
+	 * @param entry
+	 *            cached entry
+	 * @return used memory in bytes
+	 */
+	private static long weight(final Entry entry) {
+		return ENTRY_OVERHEAD + (entry.content == null ? 0 : entry.content.length)
+				+ (entry.compressedContent == null ? 0 : entry.compressedContent.length);
+	}
+
+	/**
+	 * Compresses the {@code content} with gzip.
+	 *
+	 * @param content
+	 *            content of a file
+	 * @return compressed content or {@code null} if it isn't smaller than the
+	 *         content
+	 * @throws IOException
+	 *             if the content can't be compressed
+	 */
+	private static byte[] compress(final byte[] content) throws IOException {
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2 + 32);
+
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed) {
+			{
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		}) {
+			gzip.write(content);
+		}
+
+		return compressed.size() < content.length ? compressed.toByteArray() : null;
+	}
+
+	/**
+	 * Adds a listener that is notified of every file or directory in the
+	 * document root that the watcher reports as changed. If the watcher
+	 * misses events the listener is notified of the document root itself.
+	 *
+	 * @param listener
+	 *            listener notified of the changed paths
+	 */
+	public void addInvalidationListener(final Consumer<Path> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+		generation++;
+	}
+
+	/**
+	 * Returns the cached entry for the file at the specified {@code path}. If
+	 * the file isn't cached it is read from the disk and added to the cache.
+	 * {@code null} is returned if the file doesn't exist, is a directory or
+	 * can't be read.
+	 *
+	 * @param path
+	 *            path of the file
+	 * @return entry for the file or null
+	 */
+	public Entry get(final Path path) {
+		final Path key = path.toAbsolutePath().normalize();
+		final long readGeneration;
+
+		synchronized (this) {
+			final Entry entry = entries.get(key);
+
+			if (entry != null) {
+				return entry;
+			}
+
+			readGeneration = generation;
+		}
+
+		final Entry entry;
+		try {
+			final BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+
+			if (!attributes.isRegularFile() || !Files.isReadable(key)) {
+				return null;
+			}
+
+			final byte[] content = attributes.size() <= maxFileSize ? Files.readAllBytes(key) : null;
+			final String mimeType = mimeResolver.apply(key.getFileName().toString());
+			final byte[] compressedContent = content != null && compressibleTypes.contains(mimeType)
+					? compress(content) : null;
+			entry = new Entry(key, content, compressedContent, mimeType, attributes.size(),
+					attributes.lastModifiedTime().toMillis());
+		} catch (final IOException e) {
+			return null;
+		}
+
+		put(key, entry, readGeneration);
+		return entry;
+	}
+
+	/**
+	 * Removes the entries of the file or directory at the specified
+	 * {@code path} from the cache.
+	 *
+	 * @param path
+	 *            path of a file or directory
+	 */
+	public synchronized void invalidate(final Path path) {
+		final Path key = path.toAbsolutePath().normalize();
+		generation++;
+
+		for (final Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+			final Entry entry = iterator.next();
+
+			if (entry.path.startsWith(key)) {
+				size -= weight(entry);
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Adds the {@code entry} to the cache unless the cache was invalidated
+	 * after the entry was read, and removes the least recently used entries
+	 * while the cache is too large.
+	 *
+	 * @param key
+	 *            normalized path of the file
+	 * @param entry
+	 *            entry to add
+	 * @param readGeneration
+	 *            number of invalidations before the entry was read
+	 */
+	private synchronized void put(final Path key, final Entry entry, final long readGeneration) {
+		if (readGeneration != generation || weight(entry) > maxSize) {
+			return;
+		}
+
+		final Entry previous = entries.put(key, entry);
+		if (previous != null) {
+			size -= weight(previous);
+		}
+		size += weight(entry);
+
+		for (final Iterator<Entry> iterator = entries.values().iterator(); size > maxSize && iterator.hasNext();) {
+			size -= weight(iterator.next());
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Registers the {@code directory} and all its subdirectories with the
+	 * {@code watcher}.
+	 *
+	 * @param watcher
+	 *            {@link WatchService} used for watching
+	 * @param directory
+	 *            directory to register
+	 * @throws IOException
+	 *             if a directory can't be registered
+	 */
+	private void register(final WatchService watcher, final Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
+					throws IOException {
+				final WatchKey key = dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+				synchronized (watchedDirectories) {
+					watchedDirectories.put(key, dir);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Starts a daemon thread that watches the document root for changes and
+	 * invalidates the entries of changed files.
+	 *
+	 * @throws IOException
+	 *             if the document root can't be watched
+	 */
+	public void startWatching() throws IOException {
+		final WatchService watcher = FileSystems.getDefault().newWatchService();
+		register(watcher, documentRoot);
+
+		final Thread thread = new Thread(() -> watch(watcher), "static-file-cache-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Processes the events of the {@code watcher} until the thread is
+	 * interrupted.
+	 *
+	 * @param watcher
+	 *            {@link WatchService} with registered directories
+	 */
+	private void watch(final WatchService watcher) {
+		while (true) {
+			final WatchKey key;
+			try {
+				key = watcher.take();
+			} catch (final InterruptedException e) {
+				return;
+			}
+
+			final Path directory;
+			synchronized (watchedDirectories) {
+				directory = watchedDirectories.get(key);
+			}
+
+			for (final WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == OVERFLOW || directory == null) {
+					clear();
+					listeners.forEach(listener -> listener.accept(documentRoot));
+					continue;
+				}
+
+				final Path changed = directory.resolve((Path) event.context());
+				invalidate(changed);
+				listeners.forEach(listener -> listener.accept(changed));
+
+				if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+					try {
+						register(watcher, changed);
+					} catch (final NoSuchFileException ignorable) {
+					} catch (final IOException e) {
+						System.err.println("Couldn't watch directory " + changed + ": " + e.getMessage());
+					}
+				}
+			}
+
+			if (!key.reset()) {
+				synchronized (watchedDirectories) {
+					watchedDirectories.remove(key);
+				}
+			}
+		}
+	}
+}
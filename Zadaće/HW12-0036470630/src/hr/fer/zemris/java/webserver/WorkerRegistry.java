@@ -0,0 +1,141 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class that loads {@link IWebWorker}s by the names of their classes and
+ * keeps their instances, so every worker class is loaded and instantiated only
+ * once. Workers are either loaded by their fully qualified class names from
+ * the workers configuration when the server starts, or by their simple names
+ * from the worker package when they are first requested through the
+ * {@code /ext/} path. Names that don't resolve to a worker are remembered as
+ * well, so a missing worker isn't looked up again on every request. The
+ * registry can be shared by multiple threads.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class WorkerRegistry {
+
+	/** Maximum number of remembered names that don't resolve to a worker */
+	private static final int MAX_MISSING = 1024;
+
+	/** Marks a class name that doesn't resolve to a worker */
+	private static final IWebWorker MISSING = context -> {
+	};
+
+	/** Workers under their fully qualified class names */
+	private final ConcurrentMap<String, IWebWorker> workers = new ConcurrentHashMap<>();
+
+	/** Number of remembered names that don't resolve to a worker */
+	private final AtomicInteger missing = new AtomicInteger();
+
+	/** Package prefix of the workers requested by their simple names */
+	private final String workerPackage;
+
+	/** {@link ClassLoader} used to load the worker classes */
+	private final ClassLoader classLoader;
+
+	/**
+	 * Constructs a new {@link WorkerRegistry} that resolves simple names in
+	 * the specified package.
+	 *
+	 * @param workerPackage
+	 *            package prefix of the workers requested by their simple
+	 *            names, ending with a dot
+	 * @param classLoader
+	 *            {@link ClassLoader} used to load the worker classes
+	 */
+	public WorkerRegistry(final String workerPackage, final ClassLoader classLoader) {
+		super();
+		this.workerPackage = workerPackage;
+		this.classLoader = classLoader;
+	}
+
+	/**
+	 * Returns the worker with the specified fully qualified class name,
+	 * loading and instantiating its class if it wasn't loaded before. Used to
+	 * load the configured workers when the server starts, so a worker that
+	 * can't be loaded is reported right away.
+	 *
+	 * @param className
+	 *            fully qualified class name of the worker
+	 * @return worker instance
+	 * @throws ReflectiveOperationException
+	 *             if the class can't be loaded or instantiated
+	 * @throws ClassCastException
+	 *             if the class doesn't implement {@link IWebWorker}
+	 */
+	public IWebWorker load(final String className) throws ReflectiveOperationException {
+		final IWebWorker worker = workers.get(className);
+		if (worker != null && worker != MISSING) {
+			return worker;
+		}
+
+		final IWebWorker created = classLoader.loadClass(className).asSubclass(IWebWorker.class).getConstructor()
+				.newInstance();
+		final IWebWorker previous = workers.putIfAbsent(className, created);
+
+		if (previous == null) {
+			return created;
+		} else if (previous != MISSING) {
+			return previous;
+		}
+
+		workers.replace(className, MISSING, created);
+		return workers.get(className);
+	}
+
+	/**
+	 * Returns the worker with the specified simple class name from the worker
+	 * package, or {@code null} if there is no such worker.
+	 *
+	 * @param name
+	 *            simple class name of the worker
+	 * @return worker instance or {@code null}
+	 */
+	public IWebWorker get(final String name) {
+		if (!isClassName(name)) {
+			return null;
+		}
+
+		final String className = workerPackage + name;
+		final IWebWorker worker = workers.get(className);
+
+		if (worker != null) {
+			return worker == MISSING ? null : worker;
+		}
+
+		try {
+			return load(className);
+		} catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+			if (missing.get() < MAX_MISSING && workers.putIfAbsent(className, MISSING) == null) {
+				missing.incrementAndGet();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if the specified name is a valid simple class name.
+	 *
+	 * @param name
+	 *            name for checking
+	 * @return true if the name is a valid simple class name, else false
+	 */
+	private static boolean isClassName(final String name) {
+		if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+			return false;
+		}
+
+		for (int i = 1, length = name.length(); i < length; i++) {
+			if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
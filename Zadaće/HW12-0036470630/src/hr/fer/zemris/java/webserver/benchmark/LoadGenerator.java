@@ -0,0 +1,468 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import hr.fer.zemris.java.webserver.SmartHTTPServer;
+import hr.fer.zemris.java.webserver.util.LatencyHistogram;
+
+/**
+ * Program that generates load on a running {@link SmartHTTPServer} and reports
+ * its throughput and latency percentiles. Every connection thread keeps a
+ * persistent connection open and requests the configured paths in turn, so
+ * static files, workers and scripts can be measured together.
+ * <p>
+ * In the closed loop mode every connection sends the next request as soon as
+ * it receives the response, which measures the highest throughput. In the open
+ * loop mode requests are scheduled at a fixed rate and their latency is
+ * measured from the time they were scheduled, so a stalled server can't hide
+ * its stalls by delaying the requests that would have measured them.
+ * <p>
+ * Arguments are given as {@code key=value} pairs:
+ * <ul>
+ * <li>{@code address} and {@code port} of the server, by default
+ * 127.0.0.1:5721, only loopback addresses are accepted</li>
+ * <li>{@code mode}, {@code closed} or {@code open}</li>
+ * <li>{@code connections}, number of connections</li>
+ * <li>{@code warmup} and {@code duration} in seconds</li>
+ * <li>{@code rate}, requests per second in the open loop mode</li>
+ * <li>{@code paths}, comma separated paths that are requested</li>
+ * </ul>
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class LoadGenerator {
+
+	/** Name of the closed loop mode */
+	private static final String CLOSED_MODE = "closed";
+
+	/** Name of the open loop mode */
+	private static final String OPEN_MODE = "open";
+
+	/** Paths requested if none are configured */
+	private static final String DEFAULT_PATHS = "/index.html,/ext/HelloWorker?name=Ivo,/scripts/osnovni.smscr";
+
+	/** Number of nanoseconds in a microsecond */
+	private static final double NANOS_PER_MICRO = 1000.0;
+
+	/** Address of the server */
+	private final InetSocketAddress server;
+
+	/** Requested paths */
+	private final String[] paths;
+
+	/** Number of connections */
+	private final int connections;
+
+	/**
+	 * Time in nanoseconds between two scheduled requests in the open loop
+	 * mode, or zero in the closed loop mode
+	 */
+	private final long interval;
+
+	/** Latencies of the requests of every path */
+	private final LatencyHistogram[] histograms;
+
+	/** Number of failed requests */
+	private final AtomicLong errors = new AtomicLong();
+
+	/** Number of the next scheduled request in the open loop mode */
+	private final AtomicLong schedule = new AtomicLong();
+
+	/** Time in nanoseconds the requests are scheduled from */
+	private volatile long start;
+
+	/** Time in nanoseconds after which the latencies are recorded */
+	private volatile long recordFrom;
+
+	/** Time in nanoseconds at which the connections stop sending requests */
+	private volatile long end;
+
+	/**
+	 * Constructs a new {@link LoadGenerator} with the specified values.
+	 *
+	 * @param server
+	 *            address of the server
+	 * @param paths
+	 *            requested paths
+	 * @param connections
+	 *            number of connections
+	 * @param rate
+	 *            requests per second in the open loop mode or zero in the
+	 *            closed loop mode
+	 * @throws IllegalArgumentException
+	 *             if there are no paths, no connections or the rate is
+	 *             negative
+	 */
+	public LoadGenerator(final InetSocketAddress server, final String[] paths, final int connections,
+			final double rate) {
+		super();
+
+		if (paths.length == 0 || connections <= 0 || rate < 0) {
+			throw new IllegalArgumentException("Load needs at least one path, one connection and a valid rate");
+		}
+
+		this.server = server;
+		this.paths = paths;
+		this.connections = connections;
+		interval = rate == 0 ? 0 : Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+		histograms = new LatencyHistogram[paths.length];
+
+		for (int i = 0; i < paths.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Program entry point
+	 *
+	 * @param args
+	 *            {@code key=value} pairs described in the class documentation
+	 * @throws Exception
+	 *             if the connection threads are interrupted
+	 */
+	public static void main(final String[] args) throws Exception {
+		final Map<String, String> options = new HashMap<>();
+		for (final String arg : args) {
+			final int split = arg.indexOf('=');
+			if (split < 0) {
+				System.err.println("Argument " + arg + " isn't a key=value pair");
+				return;
+			}
+			options.put(arg.substring(0, split).trim(), arg.substring(split + 1).trim());
+		}
+
+		final String mode = options.getOrDefault("mode", CLOSED_MODE);
+		if (!CLOSED_MODE.equals(mode) && !OPEN_MODE.equals(mode)) {
+			System.err.println("Mode has to be " + CLOSED_MODE + " or " + OPEN_MODE);
+			return;
+		}
+
+		final InetAddress address = InetAddress.getByName(options.getOrDefault("address", "127.0.0.1"));
+		if (!address.isLoopbackAddress()) {
+			System.err.println("Address " + address.getHostAddress() + " isn't a loopback address");
+			return;
+		}
+
+		final InetSocketAddress server = new InetSocketAddress(address,
+				Integer.parseInt(options.getOrDefault("port", "5721")));
+		final String[] paths = options.getOrDefault("paths", DEFAULT_PATHS).split(",");
+		final int connections = Integer.parseInt(options.getOrDefault("connections", "16"));
+		final double rate = OPEN_MODE.equals(mode) ? Double.parseDouble(options.getOrDefault("rate", "1000")) : 0;
+		final int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+		final int duration = Integer.parseInt(options.getOrDefault("duration", "10"));
+
+		System.out.printf("%s loop, %d connections%s, %d s warm up, %d s measured%n", mode, connections,
+				rate == 0 ? "" : String.format(", %.0f requests/s", rate), warmup, duration);
+
+		final LoadGenerator generator = new LoadGenerator(server, paths, connections, rate);
+		generator.run(warmup, duration);
+		generator.report(duration);
+	}
+
+	/**
+	 * Runs the connection threads for the specified time. Latencies are only
+	 * recorded after the warm up, so the server's JIT compiler and caches can
+	 * settle first.
+	 *
+	 * @param warmup
+	 *            warm up time in seconds
+	 * @param duration
+	 *            measured time in seconds
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the connection threads
+	 */
+	public void run(final int warmup, final int duration) throws InterruptedException {
+		start = System.nanoTime();
+		recordFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+		end = recordFrom + TimeUnit.SECONDS.toNanos(duration);
+
+		final List<Thread> threads = new ArrayList<>(connections);
+		for (int i = 0; i < connections; i++) {
+			final int first = i % paths.length;
+			final Thread thread = new Thread(() -> runConnection(first), "load-" + i);
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Prints the throughput and the latency percentiles of every path and of
+	 * all paths together.
+	 *
+	 * @param duration
+	 *            measured time in seconds
+	 */
+	public void report(final int duration) {
+		final LatencyHistogram total = new LatencyHistogram();
+
+		System.out.printf("%-40s %10s %10s %10s %10s %10s %10s%n", "path", "req/s", "mean us", "p50 us", "p99 us",
+				"p999 us", "max us");
+
+		for (int i = 0; i < paths.length; i++) {
+			total.add(histograms[i]);
+			printRow(paths[i], histograms[i], duration);
+		}
+
+		printRow("total", total, duration);
+		System.out.println("errors: " + errors.get());
+	}
+
+	/**
+	 * Prints a row of the report.
+	 *
+	 * @param name
+	 *            name of the row
+	 * @param histogram
+	 *            recorded latencies
+	 * @param duration
+	 *            measured time in seconds
+	 */
+	private static void printRow(final String name, final LatencyHistogram histogram, final int duration) {
+		System.out.printf("%-40s %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n", name,
+				(double) histogram.getCount() / duration, histogram.getMean() / NANOS_PER_MICRO,
+				histogram.getValueAtPercentile(50) / NANOS_PER_MICRO,
+				histogram.getValueAtPercentile(99) / NANOS_PER_MICRO,
+				histogram.getValueAtPercentile(99.9) / NANOS_PER_MICRO, histogram.getMax() / NANOS_PER_MICRO);
+	}
+
+	/**
+	 * Sends requests over a persistent connection until the end of the
+	 * measurement. A connection closed by the server is opened again.
+	 *
+	 * @param first
+	 *            index of the first requested path
+	 */
+	private void runConnection(final int first) {
+		Connection connection = null;
+		int path = first;
+
+		while (true) {
+			final long scheduled = nextRequestTime();
+			if (scheduled >= end) {
+				break;
+			}
+
+			try {
+				if (connection == null) {
+					connection = new Connection(server);
+				}
+
+				final boolean open = connection.exchange(paths[path]);
+				if (scheduled >= recordFrom) {
+					histograms[path].record(System.nanoTime() - scheduled);
+				}
+
+				if (!open) {
+					connection.close();
+					connection = null;
+				}
+			} catch (final IOException e) {
+				errors.incrementAndGet();
+				if (connection != null) {
+					connection.close();
+					connection = null;
+				}
+			}
+
+			path = (path + 1) % paths.length;
+		}
+
+		if (connection != null) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Returns the time the next request is sent at. In the open loop mode the
+	 * method waits until the time of the next scheduled request.
+	 *
+	 * @return time in nanoseconds the request is sent at
+	 */
+	private long nextRequestTime() {
+		if (interval == 0) {
+			return System.nanoTime();
+		}
+
+		final long scheduled = start + schedule.getAndIncrement() * interval;
+		long wait;
+		while (scheduled < end && (wait = scheduled - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(wait);
+		}
+
+		return scheduled;
+	}
+
+	/**
+	 * Class that represents a persistent HTTP/1.1 connection to the server.
+	 *
+	 * @author Nikola Bukovac
+	 * @version 1.0
+	 */
+	private static class Connection {
+
+		/** Socket of the connection */
+		private final Socket socket;
+
+		/** Input stream of the socket */
+		private final InputStream input;
+
+		/** Output stream of the socket */
+		private final OutputStream output;
+
+		/** Line of the response that is being read */
+		private final StringBuilder line = new StringBuilder();
+
+		/**
+		 * Opens a new connection to the specified server.
+		 *
+		 * @param server
+		 *            address of the server
+		 * @throws IOException
+		 *             if the connection can't be opened
+		 */
+		Connection(final InetSocketAddress server) throws IOException {
+			super();
+			socket = new Socket();
+			socket.setTcpNoDelay(true);
+			socket.connect(server);
+			input = new BufferedInputStream(socket.getInputStream());
+			output = socket.getOutputStream();
+		}
+
+		/**
+		 * Requests the specified path and reads the whole response.
+		 *
+		 * @param path
+		 *            requested path
+		 * @return true if the server keeps the connection open, false
+		 *         otherwise
+		 * @throws IOException
+		 *             if the response can't be read or isn't successful
+		 */
+		boolean exchange(final String path) throws IOException {
+			output.write(("GET " + path + " HTTP/1.1\r\nHost: " + socket.getInetAddress().getHostAddress()
+					+ "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+			output.flush();
+
+			final String status = readLine();
+			if (!status.startsWith("HTTP/1.1 2")) {
+				throw new IOException("Request failed: " + status);
+			}
+
+			long contentLength = -1;
+			boolean chunked = false;
+			boolean open = true;
+
+			for (String header = readLine(); !header.isEmpty(); header = readLine()) {
+				final int split = header.indexOf(':');
+				if (split < 0) {
+					continue;
+				}
+
+				final String name = header.substring(0, split).trim();
+				final String value = header.substring(split + 1).trim();
+
+				if (name.equalsIgnoreCase("Content-Length")) {
+					contentLength = Long.parseLong(value);
+				} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+					chunked = value.equalsIgnoreCase("chunked");
+				} else if (name.equalsIgnoreCase("Connection")) {
+					open = !value.equalsIgnoreCase("close");
+				}
+			}
+
+			if (chunked) {
+				long size;
+				while ((size = Long.parseLong(readLine().trim(), 16)) > 0) {
+					skip(size);
+					readLine();
+				}
+				readLine();
+			} else if (contentLength >= 0) {
+				skip(contentLength);
+			} else {
+				while (input.read() != -1) {
+				}
+				open = false;
+			}
+
+			return open;
+		}
+
+		/**
+		 * Reads a line of the response without its line terminator.
+		 *
+		 * @return read line
+		 * @throws IOException
+		 *             if the connection was closed
+		 */
+		private String readLine() throws IOException {
+			line.setLength(0);
+
+			int b;
+			while ((b = input.read()) != '\n') {
+				if (b == -1) {
+					throw new EOFException("Connection closed by the server");
+				}
+				if (b != '\r') {
+					line.append((char) b);
+				}
+			}
+
+			return line.toString();
+		}
+
+		/**
+		 * Skips the specified number of bytes of the response.
+		 *
+		 * @param count
+		 *            number of bytes
+		 * @throws IOException
+		 *             if the connection was closed
+		 */
+		private void skip(long count) throws IOException {
+			while (count > 0) {
+				final long skipped = input.skip(count);
+				if (skipped <= 0) {
+					if (input.read() == -1) {
+						throw new EOFException("Connection closed by the server");
+					}
+					count--;
+				} else {
+					count -= skipped;
+				}
+			}
+		}
+
+		/**
+		 * Closes the connection.
+		 */
+		void close() {
+			try {
+				socket.close();
+			} catch (final IOException ignorable) {
+			}
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hr.fer.zemris.java.custom.scripting.benchmark.Benchmark;
+import hr.fer.zemris.java.webserver.HttpRequestParser;
+
+/**
+ * Program used to compare the {@link HttpRequestParser} with the way the
+ * server used to read requests, a line at a time into {@link String}s that
+ * were then split. Both ways read the request from memory and extract what the
+ * server needs: the method, version, path, parameters, the {@code Connection}
+ * and {@code Accept-Encoding} fields and the session cookie.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class RequestParserBenchmark {
+
+	/** Size of the buffer used by the previous way of reading requests */
+	private static final int BUFFER_SIZE = 1024;
+
+	/** Parser reused between requests */
+	private static final ThreadLocal<HttpRequestParser> PARSER = ThreadLocal.withInitial(HttpRequestParser::new);
+
+	/**
+	 * Program entry point
+	 *
+	 * @param args
+	 *            not used
+	 * @throws Exception
+	 *             if a request can't be read
+	 */
+	public static void main(final String[] args) throws Exception {
+		final Map<String, String> requests = new LinkedHashMap<>();
+		requests.put("simple", "GET /index.html HTTP/1.1\r\nHost: localhost:5721\r\n\r\n");
+		requests.put("browser", "GET /ext/EchoParams?name=Ivo&age=42&city=Zagreb HTTP/1.1\r\n"
+				+ "Host: localhost:5721\r\nConnection: keep-alive\r\n"
+				+ "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko)\r\n"
+				+ "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+				+ "Accept-Encoding: gzip, deflate\r\nAccept-Language: hr,en-US;q=0.7,en;q=0.3\r\n"
+				+ "Cookie: theme=dark; sid=\"123456789012345678901234567890\"; lang=hr\r\n\r\n");
+
+		final StringBuilder large = new StringBuilder("GET /scripts/osnovni.smscr HTTP/1.1\r\nHost: localhost\r\n");
+		for (int i = 0; i < 40; i++) {
+			large.append("X-Field-" + i + ": " + String.format("%080d", i) + "\r\n");
+		}
+		large.append("Cookie: sid=\"123456789012345678901234567890\"\r\n\r\n");
+		requests.put("large", large.toString());
+
+		final Benchmark benchmark = new Benchmark(2000, 500, 5);
+
+		for (final Map.Entry<String, String> request : requests.entrySet()) {
+			final byte[] data = request.getValue().getBytes(StandardCharsets.ISO_8859_1);
+			final Benchmark.Result lines = benchmark.measure(request.getKey() + " lines", () -> readLines(data));
+			final Benchmark.Result parser = benchmark.measure(request.getKey() + " parser", () -> parse(data));
+
+			System.out.println(lines);
+			System.out.println(parser);
+			System.out.printf("%-40s %12.2fx%n", request.getKey() + " speedup",
+					lines.getBestNanos() / parser.getBestNanos());
+		}
+	}
+
+	/**
+	 * Reads the request with a reused {@link HttpRequestParser}, the way a
+	 * connection reads its requests.
+	 *
+	 * @param data
+	 *            request
+	 * @return number of extracted values, so the work can't be optimized away
+	 */
+	private static int parse(final byte[] data) {
+		final HttpRequestParser parser = PARSER.get();
+
+		for (int offset = 0; !parser.parse();) {
+			final ByteBuffer buffer = parser.buffer();
+			final int length = Math.min(buffer.remaining(), data.length - offset);
+			buffer.put(data, offset, length);
+			offset += length;
+		}
+
+		if (parser.isBad()) {
+			throw new IllegalStateException("Request wasn't parsed: " + parser.getError());
+		}
+
+		final Map<String, String> parameters = new HashMap<>();
+		final String[] sid = new String[1];
+		parser.parseParameters(parameters);
+		parser.forEachCookie("sid", value -> sid[0] = value);
+
+		final int extracted = parser.getMethod().length() + parser.getVersion().length() + parser.getPath().length()
+				+ parameters.size() + (parser.headerEquals("Connection", "close") ? 1 : 0)
+				+ (parser.getHeader("Accept-Encoding") == null ? 0 : 1) + (sid[0] == null ? 0 : 1);
+
+		parser.next();
+		return extracted;
+	}
+
+	/**
+	 * Reads the request the way the server used to: into a {@link List} of
+	 * lines, splitting the request line, the query and the cookies.
+	 *
+	 * @param data
+	 *            request
+	 * @return number of extracted values, so the work can't be optimized away
+	 * @throws IOException
+	 *             if the request can't be read
+	 */
+	private static int readLines(final byte[] data) throws IOException {
+		final PushbackInputStream istream = new PushbackInputStream(new ByteArrayInputStream(data), BUFFER_SIZE);
+		final List<String> request = readRequest(istream);
+
+		final String[] split = request.get(0).split("\\s+");
+		final String method = split[0];
+		final String version = split[2];
+		final String[] pathSplit = split[1].split("\\?");
+
+		final Map<String, String> parameters = new HashMap<>();
+		if (pathSplit.length > 1) {
+			for (final String parameter : pathSplit[1].split("&")) {
+				final String[] parameterSplit = parameter.split("=");
+				parameters.put(parameterSplit[0], parameterSplit[1]);
+			}
+		}
+
+		String sid = null;
+		for (final String line : request) {
+			if (!line.startsWith("Cookie:")) {
+				continue;
+			}
+
+			for (final String cookieValue : line.substring("Cookie: ".length()).split(";")) {
+				if (cookieValue.contains("sid")) {
+					final String value = cookieValue.split("=")[1].trim();
+					sid = value.substring(1, value.length() - 1);
+				}
+			}
+		}
+
+		return method.length() + version.length() + pathSplit[0].length() + parameters.size()
+				+ ("close".equalsIgnoreCase(getHeader(request, "Connection")) ? 1 : 0)
+				+ (getHeader(request, "Accept-Encoding") == null ? 0 : 1) + (sid == null ? 0 : 1);
+	}
+
+	/**
+	 * Reads the request header into separate lines, as the server used to.
+	 *
+	 * @param istream
+	 *            stream the request is read from
+	 * @return lines of the request header
+	 * @throws IOException
+	 *             if the request can't be read
+	 */
+	private static List<String> readRequest(final PushbackInputStream istream) throws IOException {
+		final List<String> header = new ArrayList<>();
+		final ByteArrayOutputStream line = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		int readBytes;
+
+		while ((readBytes = istream.read(buffer, 0, BUFFER_SIZE)) != -1) {
+			int offset = 0;
+
+			for (int i = 0; i < readBytes; i++) {
+				if (buffer[i] != '\n') {
+					continue;
+				}
+
+				line.write(buffer, offset, i - offset);
+				offset = i + 1;
+				final String text = new String(line.toByteArray(), StandardCharsets.UTF_8).trim();
+				line.reset();
+
+				if (!text.isEmpty()) {
+					header.add(text);
+				} else if (!header.isEmpty()) {
+					istream.unread(buffer, offset, readBytes - offset);
+					return header;
+				}
+			}
+
+			line.write(buffer, offset, readBytes - offset);
+		}
+
+		return header;
+	}
+
+	/**
+	 * Returns the value of a header field, as the server used to.
+	 *
+	 * @param request
+	 *            lines of the request header
+	 * @param name
+	 *            name of the header field
+	 * @return value of the header field or null
+	 */
+	private static String getHeader(final List<String> request, final String name) {
+		final int length = name.length();
+
+		for (int i = 1, size = request.size(); i < size; i++) {
+			final String line = request.get(i);
+
+			if (line.length() > length && line.charAt(length) == ':'
+					&& line.regionMatches(true, 0, name, 0, length)) {
+				return line.substring(length + 1).trim();
+			}
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,87 @@
+package hr.fer.zemris.java.webserver.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class that keeps a bounded pool of equally sized {@link ByteBuffer}s, so
+ * buffers used for copying data don't have to be allocated for every request.
+ * Buffers are taken from the pool with {@link #acquire()} and have to be
+ * returned with {@link #release(ByteBuffer)} when they aren't used anymore.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class BufferPool {
+
+	/** Size of every buffer in bytes */
+	private final int bufferSize;
+
+	/** Maximum number of buffers kept in the pool */
+	private final int maxPooled;
+
+	/** Flag that determines if the buffers are direct */
+	private final boolean direct;
+
+	/** Buffers that are currently not used */
+	private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+	/** Number of buffers in the {@code pool} */
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	/**
+	 * Constructs a new {@link BufferPool} with the specified values.
+	 *
+	 * @param bufferSize
+	 *            size of every buffer in bytes
+	 * @param maxPooled
+	 *            maximum number of buffers kept in the pool
+	 * @param direct
+	 *            true if the buffers should be direct, else false
+	 */
+	public BufferPool(final int bufferSize, final int maxPooled, final boolean direct) {
+		super();
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+		this.direct = direct;
+	}
+
+	/**
+	 * Returns a cleared buffer from the pool, or a new one if the pool is
+	 * empty.
+	 *
+	 * @return cleared buffer
+	 */
+	public ByteBuffer acquire() {
+		final ByteBuffer buffer = pool.poll();
+
+		if (buffer == null) {
+			return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+		}
+
+		pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns the buffer to the pool. The buffer is dropped if the pool is
+	 * full or if it wasn't acquired from this pool.
+	 *
+	 * @param buffer
+	 *            buffer that isn't used anymore
+	 */
+	public void release(final ByteBuffer buffer) {
+		if (buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+			return;
+		}
+
+		if (pooled.incrementAndGet() <= maxPooled) {
+			pool.add(buffer);
+		} else {
+			pooled.decrementAndGet();
+		}
+	}
+}
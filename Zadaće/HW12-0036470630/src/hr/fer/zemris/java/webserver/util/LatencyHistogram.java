@@ -0,0 +1,175 @@
+package hr.fer.zemris.java.webserver.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class that records a distribution of latencies in a fixed number of buckets,
+ * in the way HdrHistogram does. Every power of two above the first is split
+ * into 128 linear sub-buckets, so a recorded value is known with a relative
+ * error of less than one percent while the whole range of {@code long} values
+ * needs less than eight thousand buckets. Values can be recorded by multiple
+ * threads at once without locking.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class LatencyHistogram {
+
+	/** Number of bits used for the sub-buckets of a power of two */
+	private static final int SUB_BUCKET_BITS = 8;
+
+	/** Number of sub-buckets of the first power of two */
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/** Number of sub-buckets of every following power of two */
+	private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+	/** Number of buckets needed for all {@code long} values */
+	private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT
+			+ SUB_BUCKET_COUNT;
+
+	/** Number of recorded values in every bucket */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	/** Number of recorded values */
+	private final AtomicLong totalCount = new AtomicLong();
+
+	/** Sum of the recorded values */
+	private final AtomicLong totalSum = new AtomicLong();
+
+	/** Largest recorded value */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records the specified value. Negative values are recorded as zero.
+	 *
+	 * @param value
+	 *            value for recording
+	 */
+	public void record(final long value) {
+		final long recorded = Math.max(value, 0);
+
+		counts.incrementAndGet(indexOf(recorded));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(recorded);
+
+		long current;
+		while ((current = max.get()) < recorded && !max.compareAndSet(current, recorded)) {
+		}
+	}
+
+	/**
+	 * Adds all values recorded by the specified histogram to this histogram.
+	 *
+	 * @param other
+	 *            histogram whose values are added
+	 */
+	public void add(final LatencyHistogram other) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			final long count = other.counts.get(i);
+			if (count != 0) {
+				counts.addAndGet(i, count);
+			}
+		}
+
+		totalCount.addAndGet(other.getCount());
+		totalSum.addAndGet(other.totalSum.get());
+
+		final long otherMax = other.getMax();
+		long current;
+		while ((current = max.get()) < otherMax && !max.compareAndSet(current, otherMax)) {
+		}
+	}
+
+	/**
+	 * Returns the value below which the specified percentage of the recorded
+	 * values falls. The returned value is the largest value of its bucket, so
+	 * it is never smaller than the actual value.
+	 *
+	 * @param percentile
+	 *            percentage between 0 and 100
+	 * @return value at the percentile or zero if nothing was recorded
+	 * @throws IllegalArgumentException
+	 *             if the percentage isn't between 0 and 100
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile has to be between 0 and 100");
+		}
+
+		final long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+
+		final long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestValueOf(i), getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * @return the largest recorded value
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the average of the recorded values or zero if nothing was
+	 *         recorded
+	 */
+	public double getMean() {
+		final long count = getCount();
+		return count == 0 ? 0 : (double) totalSum.get() / count;
+	}
+
+	/**
+	 * Returns the index of the bucket the specified value is recorded in.
+	 *
+	 * @param value
+	 *            non-negative value
+	 * @return index of the bucket
+	 */
+	private static int indexOf(final long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+
+		final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+	}
+
+	/**
+	 * Returns the largest value recorded in the bucket with the specified
+	 * index.
+	 *
+	 * @param index
+	 *            index of the bucket
+	 * @return largest value of the bucket
+	 */
+	private static long highestValueOf(final int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+
+		final int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+		final long subBucket = index % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
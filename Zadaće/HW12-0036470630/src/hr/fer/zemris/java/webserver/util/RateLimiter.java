@@ -0,0 +1,112 @@
+package hr.fer.zemris.java.webserver.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class that limits the rate of events for every key with a token bucket. A
+ * bucket holds up to {@code burst} tokens and is refilled at the configured
+ * rate, every event takes one token. The bucket is kept as the time at which
+ * it will be full again, the generic cell rate algorithm, so taking a token is
+ * a single compare-and-set and the buckets of different keys never contend.
+ * Full buckets carry no information and are removed by
+ * {@link #removeIdle()}.
+ *
+ * @param <K>
+ *            type of the keys
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class RateLimiter<K> {
+
+	/** Time in nanoseconds needed to refill one token */
+	private final long interval;
+
+	/** Time in nanoseconds needed to refill a empty bucket */
+	private final long capacity;
+
+	/** Times in nanoseconds at which the buckets will be full again */
+	private final ConcurrentMap<K, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructs a new {@link RateLimiter} with the specified values.
+	 *
+	 * @param rate
+	 *            number of tokens refilled every second
+	 * @param burst
+	 *            maximum number of tokens in a bucket
+	 * @throws IllegalArgumentException
+	 *             if the rate or the burst isn't positive
+	 */
+	public RateLimiter(final double rate, final int burst) {
+		super();
+
+		if (rate <= 0 || burst <= 0) {
+			throw new IllegalArgumentException("Rate and burst have to be positive");
+		}
+
+		interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+		capacity = interval * burst;
+	}
+
+	/**
+	 * Takes a token from the bucket of the specified key.
+	 *
+	 * @param key
+	 *            key of the bucket
+	 * @return true if a token was taken, false if the bucket is empty
+	 */
+	public boolean tryAcquire(final K key) {
+		return tryAcquire(key, System.nanoTime());
+	}
+
+	/**
+	 * Takes a token from the bucket of the specified key at the specified
+	 * time.
+	 *
+	 * @param key
+	 *            key of the bucket
+	 * @param now
+	 *            current value of {@link System#nanoTime()}
+	 * @return true if a token was taken, false if the bucket is empty
+	 */
+	boolean tryAcquire(final K key, final long now) {
+		AtomicLong bucket = buckets.get(key);
+
+		if (bucket == null) {
+			bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+		}
+
+		while (true) {
+			final long full = bucket.get();
+			// only differences of nanoTime values are meaningful, they can
+			// overflow
+			final long next = (full - now > 0 ? full : now) + interval;
+
+			if (next - now > capacity) {
+				return false;
+			} else if (bucket.compareAndSet(full, next)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Removes the buckets that are full. Should be called periodically.
+	 */
+	public void removeIdle() {
+		removeIdle(System.nanoTime());
+	}
+
+	/**
+	 * Removes the buckets that are full at the specified time.
+	 *
+	 * @param now
+	 *            current value of {@link System#nanoTime()}
+	 */
+	void removeIdle(final long now) {
+		buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+	}
+}
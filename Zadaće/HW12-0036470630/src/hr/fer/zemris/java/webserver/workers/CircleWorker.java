@@ -4,25 +4,56 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
 
 import javax.imageio.ImageIO;
 
+import hr.fer.zemris.java.webserver.IAsyncWebWorker;
+import hr.fer.zemris.java.webserver.ICacheableWebWorker;
 import hr.fer.zemris.java.webserver.IWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
 
 /**
  * Class that implements {@link IWebWorker} and writes a image with a circle to
- * the {@link RequestContext}s output stream.
+ * the {@link RequestContext}s output stream. The image is rendered
+ * asynchronously, so the server thread isn't held while it is rendered. The
+ * image doesn't depend on the request, so it is served from the response cache
+ * after it is rendered once.
  * 
  * @author Nikola Bukovac
  * @version 1.0
  *
  */
-public class CircleWorker implements IWebWorker {
+public class CircleWorker implements IAsyncWebWorker, ICacheableWebWorker {
+
+	/** Number of seconds a rendered image is cached */
+	private static final int CACHE_TIMEOUT = 3600;
 
 	@Override
-	public void processRequest(final RequestContext context) {
+	public CompletableFuture<Void> processRequestAsync(final RequestContext context) {
 		context.setMimeType("image/png");
+
+		return CompletableFuture.supplyAsync(CircleWorker::render).thenAccept(image -> {
+			try {
+				context.write(image);
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	@Override
+	public int getCacheTimeout() {
+		return CACHE_TIMEOUT;
+	}
+
+	/**
+	 * Renders the image with a circle.
+	 *
+	 * @return image encoded as PNG
+	 */
+	private static byte[] render() {
 		final BufferedImage bim = new BufferedImage(200, 200, BufferedImage.TYPE_3BYTE_BGR);
 
 		final Graphics2D g2d = bim.createGraphics();
@@ -32,11 +63,11 @@ public class CircleWorker implements IWebWorker {
 		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		try {
 			ImageIO.write(bim, "png", bos);
-			context.write(bos.toByteArray());
 		} catch (final IOException e) {
-			System.out.println(
-					"Writing to the output stream has been interrupted because of an exception " + e.getMessage());
+			throw new UncheckedIOException(e);
 		}
+
+		return bos.toByteArray();
 	}
 
 }
@@ -0,0 +1,183 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import hr.fer.zemris.java.webserver.ISessionStore;
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.MetricsRegistry;
+import hr.fer.zemris.java.webserver.MetricsRegistry.Route;
+import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.util.LatencyHistogram;
+import hr.fer.zemris.java.webserver.util.Utility;
+
+/**
+ * Class that implements {@link IWebWorker} and writes the metrics collected
+ * by a {@link MetricsRegistry} and the state of the sessions to the
+ * {@link RequestContext}s output stream. The metrics are written as plain
+ * text, one metric per line, or as a JSON object if the {@code format}
+ * parameter is {@code json}. Latencies are written in microseconds.
+ *
+ * @author Nikola Bukovac
+ * @version 1.0
+ */
+public class MetricsWorker implements IWebWorker {
+
+	/** Value of the {@code format} parameter that selects JSON */
+	private static final String JSON_FORMAT = "json";
+
+	/** Percentiles written for every route */
+	private static final double[] PERCENTILES = { 50, 99, 99.9 };
+
+	/** Names of the written percentiles */
+	private static final String[] PERCENTILE_NAMES = { "p50", "p99", "p999" };
+
+	/** Number of nanoseconds in a microsecond */
+	private static final double NANOS_PER_MICRO = 1000.0;
+
+	/** Registry whose metrics are written */
+	private final MetricsRegistry metrics;
+
+	/** Store whose sessions are reported */
+	private final ISessionStore sessionStore;
+
+	/**
+	 * Constructs a new {@link MetricsWorker} that writes the metrics of the
+	 * specified registry and session store.
+	 *
+	 * @param metrics
+	 *            registry whose metrics are written
+	 * @param sessionStore
+	 *            store whose sessions are reported
+	 * @throws IllegalArgumentException
+	 *             if any of the arguments is {@code null}
+	 */
+	public MetricsWorker(final MetricsRegistry metrics, final ISessionStore sessionStore) {
+		super();
+		Utility.checkIfNull(metrics, "Metrics registry can't be null");
+		Utility.checkIfNull(sessionStore, "Session store can't be null");
+		this.metrics = metrics;
+		this.sessionStore = sessionStore;
+	}
+
+	@Override
+	public void processRequest(final RequestContext context) {
+		final boolean json = JSON_FORMAT.equals(context.getParameter("format"));
+		context.setMimeType(json ? "application/json" : "text/plain");
+		context.setHeader("Cache-Control", "no-cache");
+
+		try {
+			context.write(json ? toJson() : toText());
+		} catch (final IOException e) {
+			System.out.println(
+					"Writing to the output stream has been interrupted because of an exception " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes the metrics as plain text, one {@code name value} pair per line.
+	 *
+	 * @return metrics as plain text
+	 */
+	private String toText() {
+		final StringBuilder sb = new StringBuilder();
+		line(sb, "uptime_ms", metrics.getUptime());
+		line(sb, "requests_active", metrics.getActive());
+		line(sb, "requests_failed", metrics.getFailures());
+		line(sb, "connections_rejected", metrics.getRejectedConnections());
+
+		for (int statusClass = 1; statusClass <= 5; statusClass++) {
+			line(sb, "responses_" + statusClass + "xx", metrics.getResponses(statusClass));
+		}
+
+		for (final Route route : Route.values()) {
+			final String prefix = "route_" + route.getLabel() + "_";
+			final LatencyHistogram latencies = metrics.getLatencies(route);
+
+			line(sb, prefix + "requests", metrics.getRequests(route));
+			sb.append(prefix).append("latency_mean_us ")
+					.append(String.format(Locale.ROOT, "%.1f", latencies.getMean() / NANOS_PER_MICRO)).append('\n');
+
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				line(sb, prefix + "latency_" + PERCENTILE_NAMES[i] + "_us", micros(latencies, PERCENTILES[i]));
+			}
+
+			line(sb, prefix + "latency_max_us", (long) (latencies.getMax() / NANOS_PER_MICRO));
+		}
+
+		line(sb, "sessions_live", sessionStore.size());
+		line(sb, "sessions_created", sessionStore.getCreatedSessions());
+		line(sb, "sessions_expired", sessionStore.getExpiredSessions());
+		line(sb, "sessions_evicted", sessionStore.getEvictedSessions());
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the metrics as a JSON object.
+	 *
+	 * @return metrics as JSON
+	 */
+	private String toJson() {
+		final StringBuilder sb = new StringBuilder("{");
+		sb.append("\"uptimeMs\":").append(metrics.getUptime());
+		sb.append(",\"requestsActive\":").append(metrics.getActive());
+		sb.append(",\"requestsFailed\":").append(metrics.getFailures());
+		sb.append(",\"connectionsRejected\":").append(metrics.getRejectedConnections());
+
+		sb.append(",\"responses\":{");
+		for (int statusClass = 1; statusClass <= 5; statusClass++) {
+			sb.append(statusClass > 1 ? "," : "").append("\"").append(statusClass).append("xx\":")
+					.append(metrics.getResponses(statusClass));
+		}
+
+		sb.append("},\"routes\":{");
+		for (final Route route : Route.values()) {
+			final LatencyHistogram latencies = metrics.getLatencies(route);
+
+			sb.append(route.ordinal() > 0 ? "," : "").append("\"").append(route.getLabel()).append("\":{");
+			sb.append("\"requests\":").append(metrics.getRequests(route));
+			sb.append(",\"latencyUs\":{\"mean\":")
+					.append(String.format(Locale.ROOT, "%.1f", latencies.getMean() / NANOS_PER_MICRO));
+
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				sb.append(",\"").append(PERCENTILE_NAMES[i]).append("\":").append(micros(latencies, PERCENTILES[i]));
+			}
+
+			sb.append(",\"max\":").append((long) (latencies.getMax() / NANOS_PER_MICRO)).append("}}");
+		}
+
+		sb.append("},\"sessions\":{");
+		sb.append("\"live\":").append(sessionStore.size());
+		sb.append(",\"created\":").append(sessionStore.getCreatedSessions());
+		sb.append(",\"expired\":").append(sessionStore.getExpiredSessions());
+		sb.append(",\"evicted\":").append(sessionStore.getEvictedSessions());
+		return sb.append("}}").toString();
+	}
+
+	/**
+	 * Appends a {@code name value} line.
+	 *
+	 * @param sb
+	 *            builder the line is appended to
+	 * @param name
+	 *            name of the metric
+	 * @param value
+	 *            value of the metric
+	 */
+	private static void line(final StringBuilder sb, final String name, final long value) {
+		sb.append(name).append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Returns the latency at the specified percentile in microseconds.
+	 *
+	 * @param latencies
+	 *            latencies in nanoseconds
+	 * @param percentile
+	 *            percentile
+	 * @return latency in microseconds
+	 */
+	private static long micros(final LatencyHistogram latencies, final double percentile) {
+		return (long) (latencies.getValueAtPercentile(percentile) / NANOS_PER_MICRO);
+	}
+}
@@ -0,0 +1,235 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ArrayObjectMultistackTests {
+
+	private static final String[] KEYS = { "i", "j", "k", "l" };
+
+	private static final Object[] VALUES = { Integer.valueOf(3), Integer.valueOf(-7), Double.valueOf(2.5),
+			Double.valueOf(-0.0), "12", "1.5", "abc", null };
+
+	@Test
+	public void testPeekedPrimitiveKeepsMutation() {
+		final ArrayObjectMultistack stack = new ArrayObjectMultistack();
+		stack.push("i", 5);
+
+		final ValueWrapper wrapper = stack.peek("i");
+		wrapper.increment(Integer.valueOf(3));
+
+		assertSame(wrapper, stack.peek("i"));
+		assertEquals(Integer.valueOf(8), stack.peek("i").getValue());
+		assertEquals(8.0, stack.peekDouble("i"), 0);
+		assertSame(wrapper, stack.pop("i"));
+	}
+
+	@Test
+	public void testPeekedPrimitiveBelowTopIsNotChanged() {
+		final ArrayObjectMultistack stack = new ArrayObjectMultistack();
+		stack.push("i", 1.5);
+		stack.push("i", 2);
+		stack.peek("i").increment(Integer.valueOf(1));
+
+		assertEquals(Integer.valueOf(3), stack.pop("i").getValue());
+		assertEquals(Double.valueOf(1.5), stack.pop("i").getValue());
+	}
+
+	@Test
+	public void testPrimitivesArePoppedWithTheirType() {
+		final ArrayObjectMultistack stack = new ArrayObjectMultistack();
+		stack.push("i", 4);
+		stack.push("i", 4.0);
+
+		assertEquals(Double.valueOf(4.0), stack.pop("i").getValue());
+		assertEquals(Integer.valueOf(4), stack.pop("i").getValue());
+	}
+
+	@Test
+	public void testPushedWrapperIsReturned() {
+		final ArrayObjectMultistack stack = new ArrayObjectMultistack();
+		final ValueWrapper wrapper = new ValueWrapper("text");
+		stack.push("i", wrapper);
+
+		assertSame(wrapper, stack.peek("i"));
+		assertSame(wrapper, stack.pop("i"));
+		assertTrue(stack.isEmpty());
+	}
+
+	@Test
+	public void testDoubleOfWrappedString() {
+		final ArrayObjectMultistack stack = new ArrayObjectMultistack();
+		stack.push("i", new ValueWrapper("7"));
+		stack.push("i", new ValueWrapper("2.5"));
+
+		assertEquals(2.5, stack.peekDouble("i"), 0);
+		assertEquals(2.5, stack.popDouble("i"), 0);
+		assertEquals(7, stack.popDouble("i"), 0);
+		assertTrue(stack.isEmpty());
+	}
+
+	@Test
+	public void testPopDoubleOfWrappedTextRemovesIt() {
+		final ArrayObjectMultistack stack = new ArrayObjectMultistack();
+		stack.push("i", 1);
+		stack.push("i", new ValueWrapper("abc"));
+
+		try {
+			stack.peekDouble("i");
+			fail();
+		} catch (final NumberFormatException expected) {
+		}
+		assertEquals("abc", stack.peek("i").getValue());
+
+		// like ObjectMultistack, the value is popped before it is converted
+		try {
+			stack.popDouble("i");
+			fail();
+		} catch (final NumberFormatException expected) {
+		}
+		assertEquals(Integer.valueOf(1), stack.pop("i").getValue());
+		assertTrue(stack.isEmpty());
+	}
+
+	@Test
+	public void testDoubleOfWrappedNullIsZero() {
+		final ArrayObjectMultistack stack = new ArrayObjectMultistack();
+		stack.push("i", new ValueWrapper(null));
+
+		assertEquals(0, stack.popDouble("i"), 0);
+	}
+
+	@Test
+	public void testStacksGrowFromZeroDepth() {
+		final ArrayObjectMultistack stack = new ArrayObjectMultistack(0, 0);
+
+		for (int i = 0; i < 100; i++) {
+			if (i % 3 == 0) {
+				stack.push("i", i);
+			} else if (i % 3 == 1) {
+				stack.push("i", i + 0.5);
+			} else {
+				stack.push("i", new ValueWrapper(Integer.toString(i)));
+			}
+		}
+
+		for (int i = 99; i >= 0; i--) {
+			assertEquals(i % 3 == 1 ? i + 0.5 : i, stack.popDouble("i"), 0);
+		}
+		assertTrue(stack.isEmpty());
+	}
+
+	@Test
+	public void testEmptiedStackIsReused() {
+		final ArrayObjectMultistack stack = new ArrayObjectMultistack(1, 1);
+		stack.push("i", 1);
+		stack.pop("i");
+		assertTrue(stack.isEmpty());
+
+		stack.push("i", 2);
+		assertFalse(stack.isEmpty());
+		assertEquals(Integer.valueOf(2), stack.peek("i").getValue());
+	}
+
+	@Test(expected = EmptyStackException.class)
+	public void testPopOfMissingKey() {
+		new ArrayObjectMultistack().pop("i");
+	}
+
+	@Test(expected = EmptyStackException.class)
+	public void testPopDoubleOfEmptiedStack() {
+		final ArrayObjectMultistack stack = new ArrayObjectMultistack();
+		stack.push("i", 1);
+		stack.popDouble("i");
+		stack.popDouble("i");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullKey() {
+		new ArrayObjectMultistack().push(null, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullWrapper() {
+		new ArrayObjectMultistack().push("i", null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeDepth() {
+		new ArrayObjectMultistack(1, -1);
+	}
+
+	/**
+	 * Runs the operation on one of the stacks and returns its result or the
+	 * class and message of the exception it threw.
+	 */
+	private static String run(final IObjectMultistack stack, final int operation, final String key,
+			final Object value) {
+		try {
+			switch (operation) {
+			case 0:
+				stack.push(key, new ValueWrapper(value));
+				return "push";
+			case 1:
+				stack.push(key, value instanceof Integer ? (Integer) value : 0);
+				return "push";
+			case 2:
+				stack.push(key, value instanceof Double ? (Double) value : 0.25);
+				return "push";
+			case 3:
+				return describe(stack.pop(key).getValue());
+			case 4:
+				return describe(stack.peek(key).getValue());
+			case 5:
+				return Double.toString(stack.popDouble(key));
+			case 6:
+				return Double.toString(stack.peekDouble(key));
+			case 7:
+				stack.peek(key).increment(value);
+				return "increment";
+			default:
+				return Boolean.toString(stack.isEmpty());
+			}
+		} catch (final RuntimeException e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+
+	private static String describe(final Object value) {
+		return value == null ? "null" : value.getClass().getSimpleName() + " " + value;
+	}
+
+	@Test
+	public void testSameResultsAsObjectMultistack() {
+		final Random random = new Random(42);
+		final IObjectMultistack expected = new ObjectMultistack();
+		final IObjectMultistack actual = new ArrayObjectMultistack(0, 0);
+
+		for (int i = 0; i < 20_000; i++) {
+			// pushes are more likely than pops, so the stacks get deep
+			final int operation = random.nextInt(10) < 4 ? random.nextInt(3) : 3 + random.nextInt(6);
+			final String key = KEYS[random.nextInt(KEYS.length)];
+			final Object value = VALUES[random.nextInt(VALUES.length)];
+
+			assertEquals("operation " + i, run(expected, operation, key, value), run(actual, operation, key, value));
+		}
+
+		for (final String key : KEYS) {
+			String result;
+			do {
+				result = run(expected, 3, key, null);
+				assertEquals(result, run(actual, 3, key, null));
+			} while (!result.startsWith(EmptyStackException.class.getName()));
+		}
+		assertTrue(expected.isEmpty());
+		assertTrue(actual.isEmpty());
+	}
+}
@@ -0,0 +1,143 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ByteRangeTests {
+
+	private static final long SIZE = 1000;
+
+	/**
+	 * Checks that the ranges have the specified pairs of start and end
+	 * positions.
+	 */
+	private static void assertRanges(final List<ByteRange> ranges, final long... bounds) {
+		assertEquals(bounds.length / 2, ranges.size());
+
+		for (int i = 0; i < ranges.size(); i++) {
+			assertEquals(bounds[2 * i], ranges.get(i).getStart());
+			assertEquals(bounds[2 * i + 1], ranges.get(i).getEnd());
+		}
+	}
+
+	@Test
+	public void testSingleRange() {
+		final List<ByteRange> ranges = ByteRange.parse("bytes=0-499", SIZE);
+
+		assertRanges(ranges, 0, 499);
+		assertEquals(500, ranges.get(0).getLength());
+		assertEquals("bytes 0-499/1000", ranges.get(0).toContentRange(SIZE));
+	}
+
+	@Test
+	public void testEndBeyondSizeIsClamped() {
+		assertRanges(ByteRange.parse("bytes=900-5000", SIZE), 900, 999);
+	}
+
+	@Test
+	public void testOpenEndedRange() {
+		assertRanges(ByteRange.parse("bytes=990-", SIZE), 990, 999);
+		assertRanges(ByteRange.parse("bytes=0-", SIZE), 0, 999);
+	}
+
+	@Test
+	public void testSuffixRange() {
+		assertRanges(ByteRange.parse("bytes=-10", SIZE), 990, 999);
+	}
+
+	@Test
+	public void testSuffixRangeLargerThanFile() {
+		assertRanges(ByteRange.parse("bytes=-5000", SIZE), 0, 999);
+	}
+
+	@Test
+	public void testEmptySuffixIsNotSatisfiable() {
+		assertTrue(ByteRange.parse("bytes=-0", SIZE).isEmpty());
+	}
+
+	@Test
+	public void testRangesOfEmptyFileAreNotSatisfiable() {
+		assertTrue(ByteRange.parse("bytes=-10", 0).isEmpty());
+		assertTrue(ByteRange.parse("bytes=0-", 0).isEmpty());
+	}
+
+	@Test
+	public void testStartBeyondSizeIsNotSatisfiable() {
+		assertTrue(ByteRange.parse("bytes=1000-1001", SIZE).isEmpty());
+		assertTrue(ByteRange.parse("bytes=5000-", SIZE).isEmpty());
+	}
+
+	@Test
+	public void testUnsatisfiableRangesAreDropped() {
+		assertRanges(ByteRange.parse("bytes=5000-6000, 10-19", SIZE), 10, 19);
+	}
+
+	@Test
+	public void testOverlappingRangesAreMerged() {
+		assertRanges(ByteRange.parse("bytes=0-99, 50-149, 140-199", SIZE), 0, 199);
+		assertRanges(ByteRange.parse("bytes=0-499, 100-199", SIZE), 0, 499);
+		assertRanges(ByteRange.parse("bytes=500-, -600", SIZE), 400, 999);
+	}
+
+	@Test
+	public void testAdjacentRangesAreMerged() {
+		assertRanges(ByteRange.parse("bytes=0-99, 100-199", SIZE), 0, 199);
+	}
+
+	@Test
+	public void testSeparateRangesAreSorted() {
+		assertRanges(ByteRange.parse("bytes=500-599, 0-99, -1", SIZE), 0, 99, 500, 599, 999, 999);
+	}
+
+	@Test
+	public void testRangesWithOneByteGapAreNotMerged() {
+		assertRanges(ByteRange.parse("bytes=0-99,101-199", SIZE), 0, 99, 101, 199);
+	}
+
+	@Test
+	public void testWhitespaceAndUnitCase() {
+		assertRanges(ByteRange.parse(" Bytes = 0 - 9 ,  20 - 29 ", SIZE), 0, 9, 20, 29);
+		assertRanges(ByteRange.parse("bytes=0-9,", SIZE), 0, 9);
+	}
+
+	@Test
+	public void testOtherUnitIsIgnored() {
+		assertNull(ByteRange.parse("items=0-9", SIZE));
+		assertNull(ByteRange.parse("0-9", SIZE));
+	}
+
+	@Test
+	public void testInvalidRangesAreIgnored() {
+		assertNull(ByteRange.parse("bytes=9-0", SIZE));
+		assertNull(ByteRange.parse("bytes=10", SIZE));
+		assertNull(ByteRange.parse("bytes=a-b", SIZE));
+		assertNull(ByteRange.parse("bytes=-", SIZE));
+		assertNull(ByteRange.parse("bytes=--5", SIZE));
+	}
+
+	@Test
+	public void testSixteenRangesAreAccepted() {
+		final StringBuilder value = new StringBuilder("bytes=");
+		for (int i = 0; i < 16; i++) {
+			value.append(i == 0 ? "" : ",").append(20 * i).append('-').append(20 * i + 9);
+		}
+
+		assertEquals(16, ByteRange.parse(value.toString(), SIZE).size());
+	}
+
+	@Test
+	public void testMoreThanSixteenRangesAreIgnored() {
+		final StringBuilder value = new StringBuilder("bytes=");
+		for (int i = 0; i < 17; i++) {
+			value.append(i == 0 ? "" : ",").append(20 * i).append('-').append(20 * i + 9);
+		}
+
+		assertNull(ByteRange.parse(value.toString(), SIZE));
+	}
+}
@@ -0,0 +1,312 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class HttpRequestParserTests {
+
+	private static final String FORM_POST = "POST /ext/EchoParams?q=1 HTTP/1.1\r\n"
+			+ "Host: localhost\r\n"
+			+ "Cookie: sid=\"abc\"; other=x\r\n"
+			+ "Content-Type: application/x-www-form-urlencoded; charset=UTF-8\r\n"
+			+ "Content-Length: 15\r\n"
+			+ "\r\n"
+			+ "a=1&b=x+y%21&c=";
+
+	private static byte[] bytes(final String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String repeat(final char c, final int count) {
+		final char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	/**
+	 * Writes the data to the buffer of the parser in as many reads as the
+	 * buffer needs and parses it after every read, like a connection does.
+	 * Returns the index after the written data once a request is complete,
+	 * or -1 if all data is written and the request isn't complete.
+	 */
+	private static int feed(final HttpRequestParser parser, final byte[] data, final int from, final int to) {
+		for (int i = from; i < to;) {
+			final ByteBuffer buffer = parser.buffer();
+			final int length = Math.min(buffer.remaining(), to - i);
+			buffer.put(data, i, length);
+			i += length;
+
+			if (parser.parse()) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private static HttpRequestParser parse(final String request) {
+		final HttpRequestParser parser = new HttpRequestParser();
+		final byte[] data = bytes(request);
+		assertTrue(feed(parser, data, 0, data.length) >= 0);
+		return parser;
+	}
+
+	private static Map<String, String> parameters(final HttpRequestParser parser) {
+		final Map<String, String> parameters = new HashMap<>();
+		parser.parseParameters(parameters);
+		return parameters;
+	}
+
+	private static void assertFormPost(final HttpRequestParser parser) {
+		assertFalse(parser.isBad());
+		assertEquals("POST", parser.getMethod());
+		assertEquals("/ext/EchoParams", parser.getPath());
+		assertEquals("q=1", parser.getQuery());
+		assertEquals("HTTP/1.1", parser.getVersion());
+		assertEquals("localhost", parser.getHeader("host"));
+		assertEquals(4, parser.getFieldCount());
+
+		final List<String> sids = new ArrayList<>();
+		parser.forEachCookie("sid", sids::add);
+		assertEquals(Arrays.asList("abc"), sids);
+
+		final Map<String, String> parameters = parameters(parser);
+		assertEquals(4, parameters.size());
+		assertEquals("1", parameters.get("q"));
+		assertEquals("1", parameters.get("a"));
+		assertEquals("x y!", parameters.get("b"));
+		assertEquals("", parameters.get("c"));
+	}
+
+	@Test
+	public void testRequestSplitAtEveryByte() {
+		final byte[] data = bytes(FORM_POST);
+
+		for (int split = 1; split < data.length; split++) {
+			final HttpRequestParser parser = new HttpRequestParser();
+
+			assertEquals("split at " + split, -1, feed(parser, data, 0, split));
+			assertEquals("split at " + split, data.length, feed(parser, data, split, data.length));
+			assertFormPost(parser);
+		}
+	}
+
+	@Test
+	public void testRequestReadByteByByte() {
+		final byte[] data = bytes(FORM_POST);
+		final HttpRequestParser parser = new HttpRequestParser();
+
+		for (int i = 0; i < data.length - 1; i++) {
+			assertEquals(-1, feed(parser, data, i, i + 1));
+		}
+
+		assertEquals(data.length, feed(parser, data, data.length - 1, data.length));
+		assertFormPost(parser);
+	}
+
+	@Test
+	public void testPipelinedRequests() {
+		final HttpRequestParser parser = parse("GET /first.html HTTP/1.1\r\nHost: a\r\n\r\n"
+				+ "GET /second.html?x=%41 HTTP/1.0\r\nHost: b\r\n\r\n");
+
+		assertEquals("/first.html", parser.getPath());
+		assertNull(parser.getQuery());
+		assertEquals("a", parser.getHeader("Host"));
+
+		parser.next();
+		assertTrue(parser.hasData());
+		assertTrue(parser.parse());
+		assertEquals("/second.html", parser.getPath());
+		assertEquals("HTTP/1.0", parser.getVersion());
+		assertEquals("b", parser.getHeader("Host"));
+		assertEquals("A", parameters(parser).get("x"));
+
+		parser.next();
+		assertFalse(parser.hasData());
+	}
+
+	@Test
+	public void testPipelinedRequestAfterLargeBody() {
+		final String body = "a=" + repeat('x', 40000);
+		final byte[] data = bytes("POST /form HTTP/1.1\r\n"
+				+ "Content-Type: application/x-www-form-urlencoded\r\n"
+				+ "Content-Length: " + body.length() + "\r\n\r\n" + body
+				+ "GET /next HTTP/1.1\r\n\r\n");
+		final HttpRequestParser parser = new HttpRequestParser();
+
+		final int written = feed(parser, data, 0, data.length);
+		assertTrue(written >= 0);
+		assertEquals(body.length(), parser.getBody().remaining());
+		assertEquals(40000, parameters(parser).get("a").length());
+
+		// the buffer holds only the first request, the rest is read after it
+		parser.next();
+		assertEquals(data.length, parser.parse() ? written : feed(parser, data, written, data.length));
+		assertEquals("GET", parser.getMethod());
+		assertEquals("/next", parser.getPath());
+		assertEquals(0, parser.getBody().remaining());
+	}
+
+	@Test
+	public void testHeaderTooLarge() {
+		final HttpRequestParser parser = parse("GET / HTTP/1.1\r\nX-Long: "
+				+ repeat('a', HttpRequestParser.DEFAULT_MAX_HEADER_SIZE) + "\r\n\r\n");
+
+		assertTrue(parser.isBad());
+		assertEquals("Request header is too large", parser.getError());
+	}
+
+	@Test
+	public void testHeaderTooLargeWithoutLineEnd() {
+		final HttpRequestParser parser = parse("GET /" + repeat('a', HttpRequestParser.DEFAULT_MAX_HEADER_SIZE));
+
+		assertTrue(parser.isBad());
+		assertEquals("Request header is too large", parser.getError());
+	}
+
+	@Test
+	public void testHeaderAtLimit() {
+		final String request = "GET / HTTP/1.1\r\nX: " + repeat('a', 41) + "\r\n\r\n";
+		assertEquals(64, request.length());
+
+		final HttpRequestParser parser = new HttpRequestParser(64, 16);
+		final byte[] data = bytes(request);
+		assertEquals(data.length, feed(parser, data, 0, data.length));
+		assertFalse(parser.isBad());
+		assertEquals(41, parser.getHeader("X").length());
+	}
+
+	@Test
+	public void testBodyTooLarge() {
+		final HttpRequestParser parser = new HttpRequestParser(1024, 16);
+		final byte[] data = bytes("POST / HTTP/1.1\r\nContent-Length: 17\r\n\r\n");
+
+		assertEquals(data.length, feed(parser, data, 0, data.length));
+		assertTrue(parser.isBad());
+		assertEquals("Request body is too large", parser.getError());
+	}
+
+	@Test
+	public void testBodyAtLimit() {
+		final HttpRequestParser parser = new HttpRequestParser(1024, 16);
+		final byte[] data = bytes("POST / HTTP/1.1\r\nContent-Length: 16\r\n\r\n0123456789abcdef");
+
+		assertEquals(data.length, feed(parser, data, 0, data.length));
+		assertFalse(parser.isBad());
+		assertEquals(16, parser.getBody().remaining());
+	}
+
+	@Test
+	public void testHugeContentLength() {
+		final HttpRequestParser parser = parse("POST / HTTP/1.1\r\nContent-Length: 99999999999999999999\r\n\r\n");
+
+		assertTrue(parser.isBad());
+	}
+
+	@Test
+	public void testInvalidContentLength() {
+		assertTrue(parse("POST / HTTP/1.1\r\nContent-Length: 12a\r\n\r\n").isBad());
+		assertTrue(parse("POST / HTTP/1.1\r\nContent-Length: -1\r\n\r\n").isBad());
+		assertTrue(parse("POST / HTTP/1.1\r\nContent-Length:\r\n\r\n").isBad());
+	}
+
+	@Test
+	public void testChunkedBodyIsBad() {
+		final HttpRequestParser parser = parse("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n");
+
+		assertTrue(parser.isBad());
+		assertEquals("Request body must have a Content-Length", parser.getError());
+	}
+
+	@Test
+	public void testInvalidRequestLineAndFields() {
+		assertTrue(parse("GET /\r\n\r\n").isBad());
+		assertTrue(parse("GET / HTTP/1.1 extra\r\n\r\n").isBad());
+		assertTrue(parse("GET / HTTP/1.1\r\nNo colon\r\n\r\n").isBad());
+		assertTrue(parse("GET / HTTP/1.1\r\nName : value\r\n\r\n").isBad());
+		assertTrue(parse("GET / HTTP/1.1\r\n folded: value\r\n\r\n").isBad());
+	}
+
+	@Test
+	public void testLeadingEmptyLinesAndBareLineFeeds() {
+		final HttpRequestParser parser = parse("\r\n\nGET /a HTTP/1.1\nHost:  b \n\n");
+
+		assertFalse(parser.isBad());
+		assertEquals("/a", parser.getPath());
+		assertEquals("b", parser.getHeader("Host"));
+	}
+
+	@Test
+	public void testPercentDecoding() {
+		final Map<String, String> parameters = parameters(
+				parse("GET /?name=Ivo%20Ivi%C4%87&plus=a+b%2Bc&%3D=%26&empty&=x HTTP/1.1\r\n\r\n"));
+
+		assertEquals("Ivo Ivić", parameters.get("name"));
+		assertEquals("a b+c", parameters.get("plus"));
+		assertEquals("&", parameters.get("="));
+		assertEquals("", parameters.get("empty"));
+		assertEquals("x", parameters.get(""));
+	}
+
+	@Test
+	public void testMalformedEscapesAreKept() {
+		final Map<String, String> parameters = parameters(
+				parse("GET /?a=%zz&b=%4&c=100%&d=%&e=%4g HTTP/1.1\r\n\r\n"));
+
+		assertEquals("%zz", parameters.get("a"));
+		assertEquals("%4", parameters.get("b"));
+		assertEquals("100%", parameters.get("c"));
+		assertEquals("%", parameters.get("d"));
+		assertEquals("%4g", parameters.get("e"));
+	}
+
+	@Test
+	public void testPostWithoutContentLength() {
+		final HttpRequestParser parser = parse("POST /form HTTP/1.1\r\n"
+				+ "Content-Type: application/x-www-form-urlencoded\r\n\r\n"
+				+ "GET /next HTTP/1.1\r\n\r\n");
+
+		assertFalse(parser.isBad());
+		assertEquals(0, parser.getBody().remaining());
+		assertTrue(parameters(parser).isEmpty());
+
+		// the data after the header isn't a body, but the next request
+		parser.next();
+		assertTrue(parser.parse());
+		assertEquals("/next", parser.getPath());
+	}
+
+	@Test
+	public void testPostWaitsForWholeBody() {
+		final HttpRequestParser parser = new HttpRequestParser();
+		final byte[] data = bytes(FORM_POST);
+
+		assertEquals(-1, feed(parser, data, 0, data.length - 1));
+		assertEquals(data.length, feed(parser, data, data.length - 1, data.length));
+		assertFormPost(parser);
+	}
+
+	@Test
+	public void testBodyOfOtherTypeIsNotDecoded() {
+		final HttpRequestParser parser = parse("POST /?q=1 HTTP/1.1\r\nContent-Type: text/plain\r\n"
+				+ "Content-Length: 3\r\n\r\na=1");
+
+		final Map<String, String> parameters = parameters(parser);
+		assertEquals(1, parameters.size());
+		assertEquals("1", parameters.get("q"));
+		assertEquals(3, parser.getBody().remaining());
+	}
+}
@@ -0,0 +1,207 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class MappedSessionStoreTests {
+
+	private static final long TIMEOUT = 10 * 60 * 1000;
+
+	private static final int SIZE = 4096;
+
+	private Path directory;
+	private Path log;
+
+	@Before
+	public void init() throws IOException {
+		directory = Files.createTempDirectory("sessions");
+		log = directory.resolve("sessions.log");
+	}
+
+	@After
+	public void clean() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (final Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	private MappedSessionStore open(final int maxSessions, final int size) throws IOException {
+		return new MappedSessionStore(TIMEOUT, maxSessions, log, size);
+	}
+
+	private static Session create(final ISessionStore store, final String sid, final String value) {
+		final Session session = store.create(sid);
+		session.getMap().put("value", value);
+		store.save(session);
+		return session;
+	}
+
+	/**
+	 * Returns the position in the log after the last complete record, found
+	 * by following the record lengths.
+	 */
+	private int endOfRecords() throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(log));
+		buffer.getInt();
+
+		int length;
+		while ((length = buffer.getInt()) > 0) {
+			buffer.position(buffer.position() + length);
+		}
+
+		return buffer.position() - Integer.BYTES;
+	}
+
+	private void truncate(final long size) throws IOException {
+		try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+			channel.truncate(size);
+		}
+	}
+
+	@Test
+	public void testSessionsAreRestored() throws IOException {
+		final MappedSessionStore store = open(0, SIZE);
+		create(store, "first", "1");
+		final Session second = create(store, "second", "2");
+		second.getMap().put("other", "čćž");
+		store.save(second);
+
+		final MappedSessionStore reopened = open(0, SIZE);
+
+		assertEquals(2, reopened.size());
+		assertEquals("1", reopened.get("first").getMap().get("value"));
+		assertEquals("2", reopened.get("second").getMap().get("value"));
+		assertEquals("čćž", reopened.get("second").getMap().get("other"));
+		assertEquals(second.getValidUntil(), reopened.get("second").getValidUntil(), 5000);
+	}
+
+	@Test
+	public void testRestoredStoreKeepsRecording() throws IOException {
+		create(open(0, SIZE), "first", "1");
+
+		final MappedSessionStore reopened = open(0, SIZE);
+		create(reopened, "second", "2");
+
+		final MappedSessionStore third = open(0, SIZE);
+		assertEquals(2, third.size());
+		assertEquals("1", third.get("first").getMap().get("value"));
+		assertEquals("2", third.get("second").getMap().get("value"));
+	}
+
+	@Test
+	public void testEvictedSessionsAreNotRestored() throws IOException {
+		final MappedSessionStore store = open(2, SIZE);
+		create(store, "first", "1");
+		create(store, "second", "2");
+		create(store, "third", "3");
+
+		final MappedSessionStore reopened = open(2, SIZE);
+		assertEquals(2, reopened.size());
+		for (final String sid : new String[] { "first", "second", "third" }) {
+			assertEquals(store.get(sid) == null, reopened.get(sid) == null);
+		}
+	}
+
+	@Test
+	public void testRestoreStopsAtTruncatedRecord() throws IOException {
+		final MappedSessionStore store = open(0, SIZE);
+		create(store, "first", "1");
+		create(store, "second", "2");
+		final int end = endOfRecords();
+
+		// the last record stores the parameter of the second session
+		truncate(end - 3);
+
+		final MappedSessionStore reopened = open(0, SIZE);
+		assertEquals(2, reopened.size());
+		assertEquals("1", reopened.get("first").getMap().get("value"));
+		assertNull(reopened.get("second").getMap().get("value"));
+
+		// the reopened log is valid and complete again
+		create(reopened, "third", "3");
+		final MappedSessionStore third = open(0, SIZE);
+		assertEquals(3, third.size());
+		assertEquals("3", third.get("third").getMap().get("value"));
+	}
+
+	@Test
+	public void testRestoreStopsAtTruncatedRecordLength() throws IOException {
+		final MappedSessionStore store = open(0, SIZE);
+		create(store, "first", "1");
+		final int end = endOfRecords();
+		create(store, "second", "2");
+
+		truncate(end + 2);
+
+		final MappedSessionStore reopened = open(0, SIZE);
+		assertEquals(1, reopened.size());
+		assertEquals("1", reopened.get("first").getMap().get("value"));
+	}
+
+	@Test
+	public void testInvalidLogIsIgnored() throws IOException {
+		Files.write(log, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+
+		final MappedSessionStore store = open(0, SIZE);
+		assertEquals(0, store.size());
+
+		create(store, "first", "1");
+		assertEquals(1, open(0, SIZE).size());
+	}
+
+	@Test
+	public void testCompactionWhenLogIsFull() throws IOException {
+		final int size = 256;
+		final MappedSessionStore store = open(5, size);
+
+		// evictions append removal records, so the log fills up many times
+		for (int i = 0; i < 200; i++) {
+			create(store, "sid" + i, Integer.toString(i));
+		}
+
+		assertEquals(5, store.size());
+		assertTrue(Files.size(log) < 4 * size);
+
+		// sessions created in the same millisecond are evicted in any order
+		final MappedSessionStore reopened = open(5, size);
+		assertEquals(5, reopened.size());
+		for (final Session session : store.sessions()) {
+			assertEquals(session.getSid().substring(3), reopened.get(session.getSid()).getMap().get("value"));
+		}
+	}
+
+	@Test
+	public void testLogGrowsWithLiveSessions() throws IOException {
+		final int size = 64;
+		final MappedSessionStore store = open(0, size);
+
+		for (int i = 0; i < 100; i++) {
+			create(store, "sid" + i, Integer.toString(i));
+		}
+
+		assertTrue(Files.size(log) > size);
+
+		final MappedSessionStore reopened = open(0, size);
+		assertEquals(100, reopened.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(Integer.toString(i), reopened.get("sid" + i).getMap().get("value"));
+		}
+	}
+}
@@ -2,10 +2,21 @@ package hr.fer.zemris.java.webserver;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -87,6 +98,144 @@ public class RequestContextTests {
 		assertEquals(generated, expected);
 	}
 
+	@Test
+	public void testKeepAliveChunkedContent() throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final RequestContext context = new RequestContext(os, parameters, persistent, null);
+		context.setKeepAlive(true);
+		context.write("burek");
+		context.write("");
+		context.write("sirnica");
+		context.finish();
+		final String expected = "HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\n"
+				+ "Transfer-Encoding: chunked\r\n\r\n5\r\nburek\r\n7\r\nsirnica\r\n0\r\n\r\n";
+
+		assertEquals(expected, new String(os.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testBufferedChunkedContent() throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final RequestContext context = new RequestContext(os, parameters, persistent, null);
+		context.setKeepAlive(true);
+		context.setOutputBuffer(ByteBuffer.allocate(256));
+
+		final StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			context.write("burek" + i);
+			context.write(ByteBuffer.wrap(new byte[] { '-' }));
+			content.append("burek" + i + "-");
+		}
+		context.write("čevapi");
+		content.append("čevapi");
+		context.finish();
+
+		final String response = new String(os.toByteArray(), StandardCharsets.ISO_8859_1);
+		final String header = "HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\n"
+				+ "Transfer-Encoding: chunked\r\n\r\n";
+		assertEquals(header, response.substring(0, header.length()));
+
+		final byte[] body = os.toByteArray();
+		final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+		int position = header.length();
+		int size;
+		do {
+			final int line = response.indexOf("\r\n", position);
+			size = Integer.parseInt(response.substring(position, line), 16);
+			decoded.write(body, line + 2, size);
+			position = line + 2 + size + 2;
+		} while (size > 0);
+
+		assertEquals(body.length, position);
+		assertEquals(content.toString(), new String(decoded.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testCompressedContent() throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final RequestContext context = new RequestContext(os, parameters, persistent, null);
+		context.setKeepAlive(false);
+		context.setMimeType("text/plain");
+		context.setCompression(RequestContext.GZIP_ENCODING, Collections.singleton("text/plain"));
+		context.write("burek ");
+		context.write("i jogurt");
+		context.finish();
+
+		final byte[] response = os.toByteArray();
+		final String header = "HTTP/1.1 200 OK\r\nContent-Type: text/plain; charset=UTF-8\r\nConnection: close\r\n"
+				+ "Content-Encoding: gzip\r\nVary: Accept-Encoding\r\n\r\n";
+		assertEquals(header, new String(response, 0, header.length(), StandardCharsets.ISO_8859_1));
+
+		final GZIPInputStream gzip = new GZIPInputStream(
+				new ByteArrayInputStream(response, header.length(), response.length - header.length()));
+		final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		for (int b; (b = gzip.read()) != -1;) {
+			content.write(b);
+		}
+
+		assertEquals("burek i jogurt", new String(content.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testKeepAliveEmptyContent() throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final RequestContext context = new RequestContext(os, parameters, persistent, null);
+		context.setKeepAlive(true);
+		context.setHeader("Cache-Control", "no-cache");
+		context.finish();
+		final String expected = "HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\n"
+				+ "Content-Length: 0\r\nCache-Control: no-cache\r\n\r\n";
+
+		assertEquals(expected, new String(os.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testNoKeepAliveContentLength() throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final RequestContext context = new RequestContext(os, parameters, persistent, null);
+		context.setKeepAlive(false);
+		context.setMimeType("image/png");
+		context.setContentLength(3);
+		context.write(new byte[] { 1, 2, 3 });
+		context.finish();
+		final String expected = "HTTP/1.1 200 OK\r\nContent-Type: image/png\r\nContent-Length: 3\r\n"
+				+ "Connection: close\r\n\r\n\u0001\u0002\u0003";
+
+		assertEquals(expected, new String(os.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testWriteFileRegion() throws IOException {
+		final Path file = Files.createTempFile("context", ".txt");
+		Files.write(file, "burek i jogurt".getBytes(StandardCharsets.UTF_8));
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final RequestContext context = new RequestContext(os, parameters, persistent, null);
+		context.setMimeType("text/plain");
+		context.setContentLength(5);
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			context.write(channel, 8, 5);
+		} finally {
+			Files.delete(file);
+		}
+
+		final String expected = "HTTP/1.1 200 OK\r\nContent-Type: text/plain; charset=UTF-8\r\n"
+				+ "Content-Length: 5\r\n\r\njogur";
+
+		assertEquals(expected, new String(os.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testWriteAfterFinish() throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final RequestContext context = new RequestContext(os, parameters, persistent, null);
+		context.setKeepAlive(true);
+		context.write("burek");
+		context.finish();
+		context.finish();
+		context.write("jogurt");
+	}
+
 	@Test(expected = IllegalArgumentException.class)
 	public void testNullOutputStream() {
 		new RequestContext(null, null, null, cookies);
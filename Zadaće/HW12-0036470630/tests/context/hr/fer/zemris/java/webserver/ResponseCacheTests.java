@@ -0,0 +1,201 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ResponseCacheTests {
+
+	/** Weight of a cached 100 byte response under a two character path */
+	private static final int WEIGHT = 256 + 2 * 2 + 100;
+
+	private static final long NOW = 123_456_789L;
+
+	private static final int TIMEOUT = 10;
+
+	private static ResponseCache.Key key(final String path) {
+		return new ResponseCache.Key(path, Collections.emptyMap());
+	}
+
+	private static ResponseCache.Response response(final int size) {
+		return new ResponseCache.Response(200, "OK", "text/plain", "UTF-8", Collections.emptyMap(),
+				new byte[size]);
+	}
+
+	@Test
+	public void testResponseIsCached() {
+		final ResponseCache cache = new ResponseCache(10 * WEIGHT, 1000);
+		final ResponseCache.Response response = response(100);
+		cache.put(key("/a"), response, TIMEOUT, NOW);
+
+		assertSame(response, cache.get(key("/a"), NOW));
+		assertNull(cache.get(key("/b"), NOW));
+	}
+
+	@Test
+	public void testKeysDifferByParameters() {
+		final Map<String, String> parameters = new HashMap<>();
+		parameters.put("name", "Ivo");
+		final ResponseCache.Key key = new ResponseCache.Key("/a", parameters);
+
+		// the key keeps a copy of the parameters
+		parameters.put("name", "Ana");
+		final ResponseCache.Key other = new ResponseCache.Key("/a", parameters);
+		assertNotEquals(key, other);
+		assertNotEquals(key, key("/a"));
+		final ResponseCache.Key same = new ResponseCache.Key("/a", Collections.singletonMap("name", "Ivo"));
+		assertEquals(key, same);
+		assertEquals(key.hashCode(), same.hashCode());
+
+		final ResponseCache cache = new ResponseCache(10 * WEIGHT, 1000);
+		final ResponseCache.Response response = response(100);
+		cache.put(key, response, TIMEOUT, NOW);
+		assertSame(response, cache.get(same, NOW));
+		assertNull(cache.get(other, NOW));
+	}
+
+	@Test
+	public void testResponseExpires() {
+		final ResponseCache cache = new ResponseCache(10 * WEIGHT, 1000);
+		final ResponseCache.Response response = response(100);
+		cache.put(key("/a"), response, TIMEOUT, NOW);
+
+		final long expires = NOW + TimeUnit.SECONDS.toNanos(TIMEOUT);
+		assertSame(response, cache.get(key("/a"), expires - 1));
+		assertNull(cache.get(key("/a"), expires));
+		assertNull(cache.get(key("/a"), NOW));
+	}
+
+	@Test
+	public void testExpiryAcrossNanoTimeOverflow() {
+		final ResponseCache cache = new ResponseCache(10 * WEIGHT, 1000);
+		final ResponseCache.Response response = response(100);
+		final long now = Long.MAX_VALUE - 1;
+		cache.put(key("/a"), response, TIMEOUT, now);
+
+		assertSame(response, cache.get(key("/a"), now + TimeUnit.SECONDS.toNanos(1)));
+		assertNull(cache.get(key("/a"), now + TimeUnit.SECONDS.toNanos(TIMEOUT)));
+	}
+
+	@Test
+	public void testResponseWithoutTimeoutIsNotCached() {
+		final ResponseCache cache = new ResponseCache(10 * WEIGHT, 1000);
+		cache.put(key("/a"), response(100), 0, NOW);
+
+		assertNull(cache.get(key("/a"), NOW));
+	}
+
+	@Test
+	public void testResponseLargerThanEntryLimitIsNotCached() {
+		final ResponseCache cache = new ResponseCache(10 * WEIGHT, 100);
+		final ResponseCache.Response response = response(100);
+		cache.put(key("/a"), response, TIMEOUT, NOW);
+		cache.put(key("/b"), response(101), TIMEOUT, NOW);
+
+		assertSame(response, cache.get(key("/a"), NOW));
+		assertNull(cache.get(key("/b"), NOW));
+	}
+
+	@Test
+	public void testResponseHeavierThanCacheIsNotCached() {
+		final ResponseCache cache = new ResponseCache(WEIGHT - 1, 1000);
+		cache.put(key("/a"), response(100), TIMEOUT, NOW);
+
+		assertNull(cache.get(key("/a"), NOW));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedResponseIsEvicted() {
+		final ResponseCache cache = new ResponseCache(3 * WEIGHT, 1000);
+		final ResponseCache.Response a = response(100);
+		final ResponseCache.Response c = response(100);
+		final ResponseCache.Response d = response(100);
+		cache.put(key("/a"), a, TIMEOUT, NOW);
+		cache.put(key("/b"), response(100), TIMEOUT, NOW);
+		cache.put(key("/c"), c, TIMEOUT, NOW);
+		assertSame(a, cache.get(key("/a"), NOW));
+
+		// /b is now the least recently used response
+		cache.put(key("/d"), d, TIMEOUT, NOW);
+		assertNull(cache.get(key("/b"), NOW));
+		assertSame(a, cache.get(key("/a"), NOW));
+		assertSame(c, cache.get(key("/c"), NOW));
+		assertSame(d, cache.get(key("/d"), NOW));
+	}
+
+	@Test
+	public void testLargeResponseEvictsByWeight() {
+		final ResponseCache cache = new ResponseCache(3 * WEIGHT, 1000);
+		final ResponseCache.Response c = response(100);
+		final ResponseCache.Response large = response(300);
+		cache.put(key("/a"), response(100), TIMEOUT, NOW);
+		cache.put(key("/b"), response(100), TIMEOUT, NOW);
+		cache.put(key("/c"), c, TIMEOUT, NOW);
+
+		// the large response is heavier than one small response, so two are
+		// evicted
+		cache.put(key("/l"), large, TIMEOUT, NOW);
+		assertNull(cache.get(key("/a"), NOW));
+		assertNull(cache.get(key("/b"), NOW));
+		assertSame(c, cache.get(key("/c"), NOW));
+		assertSame(large, cache.get(key("/l"), NOW));
+	}
+
+	@Test
+	public void testReplacedResponseIsNotCountedTwice() {
+		final ResponseCache cache = new ResponseCache(3 * WEIGHT, 1000);
+		final ResponseCache.Response a = response(100);
+		cache.put(key("/a"), response(100), TIMEOUT, NOW);
+		cache.put(key("/a"), a, TIMEOUT, NOW);
+		cache.put(key("/b"), response(100), TIMEOUT, NOW);
+		cache.put(key("/c"), response(100), TIMEOUT, NOW);
+
+		assertSame(a, cache.get(key("/a"), NOW));
+	}
+
+	@Test
+	public void testExpiredResponseFreesItsWeight() {
+		final ResponseCache cache = new ResponseCache(3 * WEIGHT, 1000);
+		final ResponseCache.Response a = response(100);
+		final ResponseCache.Response b = response(100);
+		cache.put(key("/a"), a, TIMEOUT, NOW);
+		cache.put(key("/b"), b, TIMEOUT, NOW);
+		cache.put(key("/c"), response(100), 1, NOW);
+
+		final long later = NOW + TimeUnit.SECONDS.toNanos(1);
+		assertNull(cache.get(key("/c"), later));
+		cache.put(key("/d"), response(100), TIMEOUT, later);
+		assertSame(a, cache.get(key("/a"), later));
+		assertSame(b, cache.get(key("/b"), later));
+	}
+
+	@Test
+	public void testCaptureSkipsHeader() throws IOException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final RequestContext context = new RequestContext(output, null, null, new ArrayList<>());
+		context.setMimeType("text/plain");
+		context.setHeader("X-Test", "1");
+		context.write("hello\r\n\r\nworld".getBytes(StandardCharsets.UTF_8));
+		context.finish();
+
+		final ResponseCache.Response response = ResponseCache.Response.capture(context, output);
+		assertEquals(200, response.getStatusCode());
+		assertEquals("text/plain", response.getMimeType());
+		assertEquals("1", response.getHeaders().get("X-Test"));
+		assertArrayEquals("hello\r\n\r\nworld".getBytes(StandardCharsets.UTF_8), response.getContent());
+	}
+}
@@ -0,0 +1,132 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import hr.fer.zemris.java.custom.scripting.exec.IExecutableScript;
+import hr.fer.zemris.java.custom.scripting.exec.InterpretedScript;
+
+@SuppressWarnings("javadoc")
+public class ScriptCacheTests {
+
+	private static final FileTime MODIFIED = FileTime.fromMillis(1_000_000_000_000L);
+
+	private Path root;
+
+	private int compiles;
+
+	private ScriptCache cache;
+
+	@Before
+	public void init() throws IOException {
+		root = Files.createTempDirectory("scripts");
+		compiles = 0;
+		cache = new ScriptCache(document -> {
+			compiles++;
+			return new InterpretedScript(document);
+		});
+	}
+
+	@After
+	public void clean() throws IOException {
+		try (Stream<Path> files = Files.walk(root)) {
+			for (final Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private Path script(final String name, final String text, final FileTime modified) throws IOException {
+		final Path file = root.resolve(name);
+		Files.createDirectories(file.getParent());
+		Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(file, modified);
+		return file;
+	}
+
+	@Test
+	public void testScriptIsCompiledOnce() throws IOException {
+		final Path file = script("a.smscr", "{$= 1 $}  ", MODIFIED);
+
+		final IExecutableScript script = cache.get(file);
+		assertSame(script, cache.get(root.resolve("x/../a.smscr")));
+		assertEquals(1, compiles);
+	}
+
+	@Test
+	public void testModifiedScriptIsCompiledAgain() throws IOException {
+		final Path file = script("a.smscr", "{$= 1 $}  ", MODIFIED);
+		final IExecutableScript script = cache.get(file);
+
+		script("a.smscr", "{$= 2 $}  ", FileTime.fromMillis(MODIFIED.toMillis() + 1000));
+		assertNotSame(script, cache.get(file));
+		assertEquals(2, compiles);
+	}
+
+	@Test
+	public void testDeletedScriptIsRemoved() throws IOException {
+		final Path file = script("a.smscr", "{$= 1 $}  ", MODIFIED);
+		cache.get(file);
+		Files.delete(file);
+
+		try {
+			cache.get(file);
+			fail();
+		} catch (final NoSuchFileException expected) {
+		}
+
+		// a file with the same modification time is a new script
+		script("a.smscr", "{$= 2 $}  ", MODIFIED);
+		cache.get(file);
+		assertEquals(2, compiles);
+	}
+
+	@Test
+	public void testInvalidationRemovesDirectory() throws IOException {
+		final Path a = script("a.smscr", "{$= 1 $}  ", MODIFIED);
+		final Path b = script("dir/b.smscr", "{$= 1 $}  ", MODIFIED);
+		final Path c = script("dir2/c.smscr", "{$= 1 $}  ", MODIFIED);
+		final IExecutableScript scriptA = cache.get(a);
+		final IExecutableScript scriptB = cache.get(b);
+		final IExecutableScript scriptC = cache.get(c);
+
+		cache.invalidate(root.resolve("dir"));
+
+		assertSame(scriptA, cache.get(a));
+		assertSame(scriptC, cache.get(c));
+		assertNotSame(scriptB, cache.get(b));
+		assertEquals(4, compiles);
+	}
+
+	@Test
+	public void testScriptThatFailsIsNotCached() throws IOException {
+		final Path file = script("a.smscr", "{$ FOR $}  ", MODIFIED);
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.get(file);
+				fail();
+			} catch (final RuntimeException expected) {
+			}
+		}
+
+		script("a.smscr", "{$= 1 $}  ", MODIFIED);
+		assertSame(cache.get(file), cache.get(file));
+		assertEquals(1, compiles);
+	}
+}
@@ -0,0 +1,243 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class StaticFileCacheTests {
+
+	/** Weight of a cached 100 byte file that isn't compressed */
+	private static final int WEIGHT = 256 + 100;
+
+	private Path root;
+
+	@Before
+	public void init() throws IOException {
+		root = Files.createTempDirectory("webroot");
+	}
+
+	@After
+	public void clean() throws IOException {
+		try (Stream<Path> files = Files.walk(root)) {
+			for (final Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private Path file(final String name, final int size) throws IOException {
+		final Path file = root.resolve(name);
+		Files.createDirectories(file.getParent());
+
+		final byte[] content = new byte[size];
+		Arrays.fill(content, (byte) 'a');
+		return Files.write(file, content);
+	}
+
+	private StaticFileCache cache(final long maxSize, final long maxFileSize) {
+		return cache(maxSize, maxFileSize, name -> "text/plain");
+	}
+
+	private StaticFileCache cache(final long maxSize, final long maxFileSize,
+			final Function<String, String> mimeResolver) {
+		return new StaticFileCache(root, maxSize, maxFileSize, mimeResolver, Collections.emptySet());
+	}
+
+	@Test
+	public void testEntryIsCached() throws IOException {
+		final Path file = file("a.txt", 100);
+		final StaticFileCache cache = cache(10 * WEIGHT, 1000);
+
+		final StaticFileCache.Entry entry = cache.get(file);
+		assertEquals(100, entry.getContent().length);
+		assertEquals(100, entry.getSize());
+		assertEquals("text/plain", entry.getMimeType());
+		assertSame(entry, cache.get(root.resolve("x/../a.txt")));
+	}
+
+	@Test
+	public void testMissingFileAndDirectoryAreNotFound() throws IOException {
+		Files.createDirectory(root.resolve("dir"));
+		final StaticFileCache cache = cache(10 * WEIGHT, 1000);
+
+		assertNull(cache.get(root.resolve("missing.txt")));
+		assertNull(cache.get(root.resolve("dir")));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEntryIsEvicted() throws IOException {
+		final Path a = file("a.txt", 100);
+		final Path b = file("b.txt", 100);
+		final Path c = file("c.txt", 100);
+		final Path d = file("d.txt", 100);
+		final StaticFileCache cache = cache(3 * WEIGHT, 1000);
+
+		final StaticFileCache.Entry entryA = cache.get(a);
+		final StaticFileCache.Entry entryB = cache.get(b);
+		final StaticFileCache.Entry entryC = cache.get(c);
+		assertSame(entryA, cache.get(a));
+
+		// b is now the least recently used entry
+		final StaticFileCache.Entry entryD = cache.get(d);
+		assertSame(entryA, cache.get(a));
+		assertSame(entryC, cache.get(c));
+		assertSame(entryD, cache.get(d));
+		assertNotSame(entryB, cache.get(b));
+	}
+
+	@Test
+	public void testLargeEntryEvictsByWeight() throws IOException {
+		final Path a = file("a.txt", 100);
+		final Path b = file("b.txt", 100);
+		final Path c = file("c.txt", 100);
+		final Path large = file("large.txt", 300);
+		final StaticFileCache cache = cache(3 * WEIGHT, 1000);
+
+		final StaticFileCache.Entry entryA = cache.get(a);
+		cache.get(b);
+		final StaticFileCache.Entry entryC = cache.get(c);
+
+		// the large entry is heavier than one small entry, so two are evicted
+		final StaticFileCache.Entry entryLarge = cache.get(large);
+		assertSame(entryC, cache.get(c));
+		assertSame(entryLarge, cache.get(large));
+		assertNotSame(entryA, cache.get(a));
+	}
+
+	@Test
+	public void testEntryHeavierThanCacheIsNotCached() throws IOException {
+		final Path file = file("a.txt", 100);
+		final StaticFileCache cache = cache(WEIGHT - 1, 1000);
+
+		final StaticFileCache.Entry entry = cache.get(file);
+		assertEquals(100, entry.getContent().length);
+		assertNotSame(entry, cache.get(file));
+	}
+
+	@Test
+	public void testContentOfLargeFileIsNotKept() throws IOException {
+		final Path file = file("a.txt", 100);
+		final StaticFileCache cache = cache(10 * WEIGHT, 99);
+
+		final StaticFileCache.Entry entry = cache.get(file);
+		assertNull(entry.getContent());
+		assertEquals(100, entry.getSize());
+		assertSame(entry, cache.get(file));
+	}
+
+	@Test
+	public void testCompressibleContentIsCompressed() throws IOException {
+		final Path file = file("a.txt", 1000);
+		final StaticFileCache cache = new StaticFileCache(root, 10 * WEIGHT, 1000, name -> "text/plain",
+				new HashSet<>(Arrays.asList("text/plain")));
+
+		final StaticFileCache.Entry entry = cache.get(file);
+		final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(entry.getCompressedContent()))) {
+			final byte[] buffer = new byte[256];
+			for (int read; (read = input.read(buffer)) >= 0;) {
+				content.write(buffer, 0, read);
+			}
+		}
+
+		assertArrayEquals(entry.getContent(), content.toByteArray());
+		assertEquals(entry.getETag().replace("\"", "") + "-gzip", entry.getCompressedETag().replace("\"", ""));
+	}
+
+	@Test
+	public void testEntryReadDuringInvalidationIsNotCached() throws IOException {
+		final Path file = file("a.txt", 100);
+		final StaticFileCache[] cache = new StaticFileCache[1];
+		final boolean[] changed = new boolean[1];
+
+		// the file is changed after it is read, but before its entry is added
+		cache[0] = cache(10 * WEIGHT, 1000, name -> {
+			if (!changed[0]) {
+				changed[0] = true;
+				try {
+					Files.write(file, "changed".getBytes(StandardCharsets.UTF_8));
+				} catch (final IOException e) {
+					throw new RuntimeException(e);
+				}
+				cache[0].invalidate(file);
+			}
+			return "text/plain";
+		});
+
+		assertEquals(100, cache[0].get(file).getContent().length);
+
+		final StaticFileCache.Entry entry = cache[0].get(file);
+		assertEquals("changed", new String(entry.getContent(), StandardCharsets.UTF_8));
+		assertSame(entry, cache[0].get(file));
+	}
+
+	@Test
+	public void testInvalidationRemovesSubtree() throws IOException {
+		final Path a = file("a.txt", 100);
+		final Path b = file("dir/b.txt", 100);
+		final Path c = file("dir/sub/c.txt", 100);
+		final Path d = file("dir2/d.txt", 100);
+		final StaticFileCache cache = cache(10 * WEIGHT, 1000);
+
+		final StaticFileCache.Entry entryA = cache.get(a);
+		final StaticFileCache.Entry entryB = cache.get(b);
+		final StaticFileCache.Entry entryC = cache.get(c);
+		final StaticFileCache.Entry entryD = cache.get(d);
+
+		cache.invalidate(root.resolve("dir"));
+
+		assertSame(entryA, cache.get(a));
+		assertSame(entryD, cache.get(d));
+		assertNotSame(entryB, cache.get(b));
+		assertNotSame(entryC, cache.get(c));
+	}
+
+	@Test
+	public void testInvalidatedFileIsReadAgain() throws IOException {
+		final Path file = file("a.txt", 100);
+		final StaticFileCache cache = cache(10 * WEIGHT, 1000);
+		cache.get(file);
+
+		Files.delete(file);
+		assertEquals(100, cache.get(file).getSize());
+
+		cache.invalidate(file);
+		assertNull(cache.get(file));
+	}
+
+	@Test
+	public void testClearRemovesAllEntries() throws IOException {
+		final Path a = file("a.txt", 100);
+		final Path b = file("dir/b.txt", 100);
+		final StaticFileCache cache = cache(10 * WEIGHT, 1000);
+
+		final StaticFileCache.Entry entryA = cache.get(a);
+		final StaticFileCache.Entry entryB = cache.get(b);
+		cache.clear();
+
+		assertNotSame(entryA, cache.get(a));
+		assertNotSame(entryB, cache.get(b));
+	}
+}
@@ -0,0 +1,89 @@
+package hr.fer.zemris.java.webserver.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class RateLimiterTests {
+
+	/** Time needed to refill one token at ten tokens a second */
+	private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static final long START = 123_456_789L;
+
+	private static void assertTokens(final RateLimiter<String> limiter, final String key, final long now,
+			final int tokens) {
+		for (int i = 0; i < tokens; i++) {
+			assertTrue("token " + i, limiter.tryAcquire(key, now));
+		}
+		assertFalse(limiter.tryAcquire(key, now));
+	}
+
+	@Test
+	public void testBurstIsAllowed() {
+		assertTokens(new RateLimiter<>(10, 3), "a", START, 3);
+	}
+
+	@Test
+	public void testTokensAreRefilled() {
+		final RateLimiter<String> limiter = new RateLimiter<>(10, 3);
+		assertTokens(limiter, "a", START, 3);
+
+		assertFalse(limiter.tryAcquire("a", START + INTERVAL - 1));
+		assertTokens(limiter, "a", START + INTERVAL, 1);
+		assertTokens(limiter, "a", START + 3 * INTERVAL, 2);
+	}
+
+	@Test
+	public void testBucketDoesNotHoldMoreThanBurst() {
+		final RateLimiter<String> limiter = new RateLimiter<>(10, 3);
+		assertTokens(limiter, "a", START, 3);
+
+		assertTokens(limiter, "a", START + TimeUnit.SECONDS.toNanos(100), 3);
+	}
+
+	@Test
+	public void testKeysHaveSeparateBuckets() {
+		final RateLimiter<String> limiter = new RateLimiter<>(10, 2);
+		assertTokens(limiter, "a", START, 2);
+		assertTokens(limiter, "b", START, 2);
+	}
+
+	@Test
+	public void testNanoTimeOverflow() {
+		final RateLimiter<String> limiter = new RateLimiter<>(10, 3);
+		final long start = Long.MAX_VALUE - INTERVAL / 2;
+		assertTokens(limiter, "a", start, 3);
+
+		// the bucket is full again after the maximum value, the current time
+		// is still before it
+		assertTokens(limiter, "a", start + INTERVAL, 1);
+		assertTokens(limiter, "a", start + 4 * INTERVAL, 3);
+	}
+
+	@Test
+	public void testRemoveIdleKeepsBucketsThatAreNotFull() {
+		final RateLimiter<String> limiter = new RateLimiter<>(10, 3);
+		assertTokens(limiter, "a", START, 3);
+
+		limiter.removeIdle(START + INTERVAL);
+		assertTokens(limiter, "a", START + INTERVAL, 1);
+
+		limiter.removeIdle(START + 4 * INTERVAL);
+		assertTokens(limiter, "a", START + 4 * INTERVAL, 3);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRateHasToBePositive() {
+		new RateLimiter<String>(0, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBurstHasToBePositive() {
+		new RateLimiter<String>(1, 0);
+	}
+}